@@ -0,0 +1,122 @@
+package bufmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import global.*;
+import chainexception.ChainException;
+
+/**
+ * Frames carved out of direct ByteBuffers allocated once, when the pool
+ * is created, outside the Java heap.  Frames are reused in place, so
+ * replacing a page creates no garbage, and the heap does not grow with
+ * the size of the pool beyond a few bytes of bookkeeping per frame.
+ * Direct memory is limited by -XX:MaxDirectMemorySize.
+ * <p>
+ * A ByteBuffer holds at most 2GB, so the arena is a row of chunks of up
+ * to CHUNK_BYTES each.  Disk I/O goes straight between the file and the
+ * arena.  While a frame is pinned its clients work on a heap copy taken
+ * from a small pool of spare arrays; it is copied back when the last pin
+ * goes if the page was dirtied.  The number of copies alive at once is
+ * the number of pages pinned at once, not the size of the pool.
+ */
+class ArenaFrameStore implements FrameStore {
+
+  private static final int CHUNK_BYTES = 1 << 30;
+
+  /** The page size when the pool was created, and frames in a chunk. */
+  private final int pageSize;
+  private final int framesPerChunk;
+
+  private final byte[] zeros;
+
+  private final ByteBuffer[] chunks;
+
+  /** The heap copy of each attached frame, null for the others. */
+  private final byte[][] staging;
+
+  /** Copies no longer attached to a frame, ready for reuse. */
+  private final ArrayDeque<byte[]> spare;
+
+  public ArenaFrameStore(int numbufs) {
+    pageSize = Page.getPageSize();
+    framesPerChunk = CHUNK_BYTES / pageSize;
+    zeros = new byte[pageSize];
+    int numChunks = (numbufs + framesPerChunk - 1) / framesPerChunk;
+    chunks = new ByteBuffer[numChunks];
+    for (int c = 0; c < numChunks; c++) {
+      int frames = Math.min(framesPerChunk, numbufs - c * framesPerChunk);
+      chunks[c] = ByteBuffer.allocateDirect(frames * pageSize);
+    }
+    staging = new byte[numbufs][];
+    spare = new ArrayDeque<>();
+  }
+
+  public void read(PageId pageNo, int frameNo) throws IOException, ChainException {
+    SystemDefs.JavabaseDB.read_page(pageNo, buffer(frameNo));
+  }
+
+  public void write(PageId pageNo, int frameNo, long lsn) throws IOException, ChainException {
+    SystemDefs.JavabaseDB.write_page(pageNo, buffer(frameNo), lsn);
+  }
+
+  public void zero(int frameNo) {
+    chunk(frameNo).put(offset(frameNo), zeros, 0, pageSize);
+  }
+
+  public ByteBuffer buffer(int frameNo) {
+    return chunk(frameNo).slice(offset(frameNo), pageSize);
+  }
+
+  public void attach(int frameNo) {
+    if (staging[frameNo] != null) {
+      return;
+    }
+    byte[] copy;
+    synchronized (spare) {
+      copy = spare.poll();
+    }
+    if (copy == null) {
+      copy = new byte[pageSize];
+    }
+    chunk(frameNo).get(offset(frameNo), copy, 0, pageSize);
+    staging[frameNo] = copy;
+  }
+
+  public byte[] data(int frameNo) {
+    return staging[frameNo];
+  }
+
+  public void save(int frameNo) {
+    byte[] copy = staging[frameNo];
+    if (copy != null) {
+      chunk(frameNo).put(offset(frameNo), copy, 0, pageSize);
+    }
+  }
+
+  public void detach(int frameNo, boolean dirty) {
+    if (dirty) {
+      save(frameNo);
+    }
+    clear(frameNo);
+  }
+
+  public void clear(int frameNo) {
+    byte[] copy = staging[frameNo];
+    if (copy != null) {
+      staging[frameNo] = null;
+      synchronized (spare) {
+        spare.push(copy);
+      }
+    }
+  }
+
+  private ByteBuffer chunk(int frameNo) {
+    return chunks[frameNo / framesPerChunk];
+  }
+
+  private int offset(int frameNo) {
+    return (frameNo % framesPerChunk) * pageSize;
+  }
+
+}
@@ -3,16 +3,90 @@
 package bufmgr;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import global.*;
+import diskmgr.AsyncPageIO;
+import logmgr.LogMgr;
 import chainexception.ChainException;
 
+/**
+ * The buffer manager may be shared by any number of threads.  The page
+ * table is split into stripes, each a PageTable used under its own
+ * monitor, and every pin-count change and replacer notification for a
+ * page happens under the monitor of that page's stripe.  Pin counts are
+ * atomic so they can be read without a lock.  A frame whose page is being
+ * read in is latched until the read completes; other threads wanting that
+ * page wait on the latch instead of issuing a second read.  Disk writes
+ * and reads are never done while holding a stripe.
+ * <p>
+ * The frames themselves live in a FrameStore: by default one Page per
+ * frame on the heap, or, for an off-heap pool, a preallocated arena of
+ * direct memory.  Either way a frame's memory is reused in place when its
+ * page is replaced.
+ * <p>
+ * The pool built by the constructor is the default pool.  Further pools,
+ * each with its own size and replacement policy, can be created under a
+ * name, and pages assigned to them; every method taking a page id passes
+ * the call on to the pool the page is assigned to, so callers keep using
+ * SystemDefs.JavabaseBM for everything.
+ */
 public class BufMgr implements GlobalConst{
 
-    private final Page[] buffers;
-    private final LinkedList<Integer> fifoQueue; 
+    /** The name of the pool created by the constructor. */
+    public static final String DEFAULT_POOL = "default";
+
+    /** Frames per replacer partition and page-table stripe, at least. */
+    private static final int FRAMES_PER_STRIPE = 256;
+
+    /** Most pages read or written by a single request. */
+    private static final int MAX_RUN = 64;
+
+    /** Sequential streams followed at once, and their first window. */
+    private static final int STREAMS = 8;
+    private static final int FIRST_WINDOW = 4;
+
+    private final FrameStore store;
     private final FrameDesc[] fd;
-    private final HashTable frame; 
+    private final PageTable[] frame; 
+    private final Replacer replacer;
+    private final int[] freeFrames;
+    private int numFree;
+    private final AtomicInteger dirtyFrames;
+    private final AtomicInteger pinnedFrames;
+    private final BufMgrStats stats;
+    private volatile PageCleaner cleaner;
+
+    /**
+     * Read-ahead: for each sequential stream of misses, the page it is
+     * expected to miss on next and how many pages to read then.
+     */
+    private volatile int readAhead;
+    private final int[] streamNext;
+    private final int[] streamWindow;
+    private int nextStream;
+
+    /**
+     * Named pools.  The default pool keeps the list of pools and routes
+     * pages assigned to the others; those point back to it as their root.
+     * Pages not in the route table belong to the default pool.
+     */
+    private final BufMgr root;
+    private final String poolName;
+    private final boolean offHeap;
+    private volatile BufMgr[] pools;
+    private final Map<String, Integer> poolIndex;
+    private volatile PageTable[] route;
+
+    /** Client pins, while tracking them is on; kept by the default pool. */
+    private volatile PinTracker pinTracker;
 
   /**
    * Create the BufMgr object.
@@ -26,15 +100,264 @@ public class BufMgr implements GlobalConst{
 
   public BufMgr(int numbufs, String replacerArg) {
     //YOUR CODE HERE
-    this.buffers = new Page[numbufs];
-    this.fifoQueue = new LinkedList<>();
+    this(numbufs, replacerArg, false);
+  }
+
+  /**
+   * Create the BufMgr object, optionally keeping the frames off the Java
+   * heap in one arena of direct memory allocated up front.
+   *
+   * @param numbufs number of buffers in the buffer pool.
+   * @param replacerArg name of the buffer replacement policy.
+   * @param offHeap whether to allocate the frames outside the heap.
+   */
+
+  public BufMgr(int numbufs, String replacerArg, boolean offHeap) {
+    this(numbufs, replacerArg, offHeap, null, DEFAULT_POOL);
+  }
+
+  private BufMgr(int numbufs, String replacerArg, boolean offHeap,
+                 BufMgr root, String poolName) {
+    this.root = (root == null) ? this : root;
+    this.poolName = poolName;
+    this.offHeap = offHeap;
+    this.pools = new BufMgr[] { this };
+    this.poolIndex = new HashMap<>();
+    this.poolIndex.put(poolName, 0);
+    this.route = null;
+    int stripes = stripesFor(numbufs);
+    this.store = offHeap ? new ArenaFrameStore(numbufs)
+                         : new HeapFrameStore(numbufs);
     this.fd = new FrameDesc[numbufs];
-    this.frame = new HashTable(numbufs);
-    replacerArg = "FIFO";
+    this.frame = new PageTable[stripes];
+    for (int i = 0; i < stripes; i++) {
+      frame[i] = new PageTable(numbufs / stripes);
+    }
+    this.replacer = new PartitionedReplacer(numbufs, stripes,
+        n -> newReplacer(replacerArg, n));
+    this.freeFrames = new int[numbufs];
+    this.numFree = numbufs;
+    this.dirtyFrames = new AtomicInteger(0);
+    this.pinnedFrames = new AtomicInteger(0);
+    this.stats = new BufMgrStats(this);
+    this.readAhead = Math.min(32, numbufs / 8);
+    this.streamNext = new int[STREAMS];
+    this.streamWindow = new int[STREAMS];
+    Arrays.fill(streamNext, INVALID_PAGE);
+    this.nextStream = 0;
     for (int i = 0; i < numbufs; i++) {
-      buffers[i] = new Page();
-      fifoQueue.addLast(i);
-      fd[i] = new FrameDesc();
+      freeFrames[i] = numbufs - 1 - i;
+      fd[i] = new FrameDesc(pinnedFrames);
+    }
+  }
+
+  /**
+   * Create the replacement policy named by replacerArg.  Names are not
+   * case sensitive: "LRU", "Clock", "LRU-K" (with K=2) and "2Q" are
+   * understood, and anything else gets Clock, the SystemDefs default.
+   *
+   * @param replacerArg name of the buffer replacement policy.
+   * @param numbufs number of buffers in the buffer pool.
+   */
+
+  private static Replacer newReplacer(String replacerArg, int numbufs) {
+    String name = (replacerArg == null) ? "" : replacerArg.toUpperCase();
+    switch (name) {
+      case "LRU":
+        return new LRU(numbufs);
+      case "LRU-K":
+      case "LRUK":
+      case "LRU-2":
+      case "LRU2":
+        return new LRUK(numbufs, 2);
+      case "2Q":
+      case "TWOQ":
+        return new TwoQ(numbufs);
+      default:
+        return new Clock(numbufs);
+    }
+  }
+
+  /**
+   * Pick the number of page-table stripes and replacer partitions: a
+   * power of two, about two per processor, but never so many that a
+   * partition is too small for its replacement policy to mean much.
+   * Small pools get one partition and so the exact policy.
+   */
+
+  private static int stripesFor(int numbufs) {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int stripes = Math.min(cpus * 2, numbufs / FRAMES_PER_STRIPE);
+    return Integer.highestOneBit(Math.max(1, stripes));
+  }
+
+  private static int stripe(int pageNo, int stripes) {
+    return (pageNo * 0x9E3779B9 >>> 16) & (stripes - 1);
+  }
+
+  private PageTable tableFor(int pageNo) {
+    return frame[stripe(pageNo, frame.length)];
+  }
+
+  /**
+   * Create another buffer pool, with its own frames and replacement
+   * policy, to which pages can then be assigned by name.  Its frames are
+   * off the heap if the default pool's are.
+   *
+   * @param name the name of the new pool.
+   * @param numbufs number of buffers in the new pool.
+   * @param replacerArg name of its buffer replacement policy.
+   * @return the new pool, for its statistics and page cleaner.
+   */
+
+  public BufMgr createPool(String name, int numbufs, String replacerArg) throws BufMgrException {
+    if (root != this) {
+      return root.createPool(name, numbufs, replacerArg);
+    }
+    synchronized (poolIndex) {
+      if (poolIndex.containsKey(name)) {
+        throw new BufMgrException(new Exception(), "A buffer pool named " + name + " already exists.");
+      }
+      BufMgr pool = new BufMgr(numbufs, replacerArg, offHeap, this, name);
+      if (route == null) {
+        PageTable[] tables = new PageTable[frame.length];
+        for (int i = 0; i < tables.length; i++) {
+          tables[i] = new PageTable(FRAMES_PER_STRIPE);
+        }
+        route = tables;
+      }
+      BufMgr[] more = Arrays.copyOf(pools, pools.length + 1);
+      more[pools.length] = pool;
+      poolIndex.put(name, pools.length);
+      pools = more;
+      return pool;
+    }
+  }
+
+  /**
+   * @param name the name of a pool.
+   * @return the pool, or null if there is none by that name.
+   */
+
+  public BufMgr getPool(String name) {
+    if (root != this) {
+      return root.getPool(name);
+    }
+    synchronized (poolIndex) {
+      Integer p = poolIndex.get(name);
+      return (p == null) ? null : pools[p];
+    }
+  }
+
+  /** @return the name of this pool. */
+
+  public String getPoolName() {
+    return poolName;
+  }
+
+  /**
+   * Assign a run of pages to a pool; DEFAULT_POOL takes them back to the
+   * default pool.  A page that is in another pool is written out if it is
+   * dirty and dropped from that pool first.  Pages are meant to be
+   * assigned before they are used, as newPage does; a page pinned
+   * meanwhile through its old pool is not moved.
+   *
+   * @param first the first page of the run.
+   * @param n the number of pages.
+   * @param name the name of the pool.
+   */
+
+  public void assignPool(PageId first, int n, String name) throws IOException, ChainException {
+    if (root != this) {
+      root.assignPool(first, n, name);
+      return;
+    }
+    int target;
+    synchronized (poolIndex) {
+      Integer p = poolIndex.get(name);
+      if (p == null) {
+        throw new BufMgrException(new Exception(), "There is no buffer pool named " + name + ".");
+      }
+      target = p;
+    }
+    for (int pageNo = first.pid; pageNo < first.pid + n; pageNo++) {
+      BufMgr from = poolFor(pageNo);
+      if (from == pools[target]) {
+        continue;
+      }
+      from.drop(pageNo);
+      PageTable t = route[stripe(pageNo, route.length)];
+      synchronized (t) {
+        if (target == 0) {
+          t.remove(pageNo);
+        } else {
+          t.put(pageNo, target);
+        }
+      }
+    }
+  }
+
+  /** @return the pool a page is assigned to. */
+
+  private BufMgr poolFor(int pageNo) {
+    PageTable[] r = root.route;
+    if (r == null) {
+      return root;
+    }
+    PageTable t = r[stripe(pageNo, r.length)];
+    int p;
+    synchronized (t) {
+      p = t.get(pageNo);
+    }
+    return (p == PageTable.NOT_FOUND) ? root : root.pools[p];
+  }
+
+  /** Take a page back to the default pool once it has been freed. */
+
+  private void unassign(int pageNo) {
+    PageTable[] r = root.route;
+    if (r != null) {
+      PageTable t = r[stripe(pageNo, r.length)];
+      synchronized (t) {
+        t.remove(pageNo);
+      }
+    }
+  }
+
+  /**
+   * Take a page out of this pool, without freeing it on disk, writing it
+   * out first if it is dirty.
+   */
+
+  private void drop(int pageNo) throws IOException, ChainException {
+    PageTable table = tableFor(pageNo);
+    while (true) {
+      int ind;
+      boolean removed = false;
+      synchronized (table) {
+        ind = table.get(pageNo);
+        if (ind == PageTable.NOT_FOUND) {
+          return;
+        }
+        int writes = fd[ind].writes();
+        if (fd[ind].pinCount.get() - writes > 0 || fd[ind].isLoading()) {
+          throw new PagePinnedException(new Exception(), "Cannot move a pinned page to another pool.");
+        }
+        if (writes == 0 && fd[ind].dirtyBit == false) {
+          table.remove(pageNo);
+          replacer.freePage(ind);
+          removed = true;
+        }
+      }
+      if (removed) {
+        releaseFrame(ind);
+        return;
+      }
+      if (fd[ind].writes() > 0) {
+        fd[ind].awaitWrites();
+      } else {
+        writeFrame(pageNo, ind, false);
+      }
     }
   }
 
@@ -49,8 +372,11 @@ public class BufMgr implements GlobalConst{
    * set of replacement candidates) to hold this page, read the
    * page (using the appropriate method from {diskmgr} package) and pin it.
    * Also, must write out the old page in chosen frame if it is dirty
-   * before reading new page.  (You can assume that emptyPage==false for
-   * this assignment.)
+   * before reading new page.  If emptyPage is true the page's contents
+   * on disk are not wanted, as for a page just allocated: a page not in
+   * the pool is not read but zero-filled in its frame.
+   * The page is given the frame's own bytes, which it must not touch
+   * after the unpin; pinHandle gives a view that enforces this.
    *
    * @param Page_Id_in_a_DB page number in the minibase.
    * @param page the pointer poit to the page.
@@ -59,65 +385,692 @@ public class BufMgr implements GlobalConst{
 
   public void pinPage(PageId pin_pgid, Page page, boolean emptyPage) throws IOException, ChainException {
     //YOUR CODE HERE
-    Integer ind = frame.hashGet(pin_pgid);
-    if (frame.hashGet(pin_pgid) == null) {
-        ind = allocate(pin_pgid);  
-    } else {
-        fd[ind].pinCount = fd[ind].pinCount + 1;
-        if (fd[ind].pinCount == 1) {
-          fifoQueue.remove((Integer) ind);
+    BufMgr pool = poolFor(pin_pgid.pid);
+    if (pool != this) {
+      pool.pinPage(pin_pgid, page, emptyPage);
+      return;
+    }
+    PinTracker tracker = root.pinTracker;
+    if (tracker != null) {
+      tracker.check();
+    }
+    int ind = pin(pin_pgid, emptyPage);
+    page.setpage(store.data(ind));
+    if (tracker != null) {
+      tracker.pinned(pin_pgid.pid);
+    }
+  }
+
+  /**
+   * Pin a page and get a handle on it.  Unlike pinPage, no array is
+   * handed out: the handle reads and writes the frame directly, stops
+   * working once closed, and closing it unpins the page.
+   *
+   * @param pageno page number in the minibase.
+   * @return a handle on the pinned page.
+   */
+
+  public PageHandle pinHandle(PageId pageno) throws IOException, ChainException {
+    BufMgr pool = poolFor(pageno.pid);
+    if (pool != this) {
+      return pool.pinHandle(pageno);
+    }
+    PinTracker tracker = root.pinTracker;
+    if (tracker != null) {
+      tracker.check();
+    }
+    int ind = pin(pageno, false);
+    if (tracker != null) {
+      tracker.pinned(pageno.pid);
+    }
+    return new PageHandle(this, new PageId(pageno.pid), ind,
+        fd[ind].generation, ByteBuffer.wrap(store.data(ind)));
+  }
+
+  /**
+   * Drop the pin of a closed PageHandle.  The frame must still hold the
+   * page the handle was made for; the generation stamp tells a frame that
+   * has since been emptied and refilled, even with the same page.
+   */
+
+  void unpinHandle(int pageNo, int ind, int generation, boolean dirty) {
+    PageTable table = tableFor(pageNo);
+    synchronized (table) {
+      FrameDesc f = fd[ind];
+      if (f.generation != generation || f.pinCount.get() <= 0) {
+        throw new IllegalStateException("page " + pageNo + " was unpinned behind its handle's back");
+      }
+      if (dirty == true) {
+        setDirty(f, true);
+      }
+      if (f.unpin() == 0) {
+        unpinned(ind);
+      }
+    }
+    PinTracker tracker = root.pinTracker;
+    if (tracker != null) {
+      tracker.unpinned(pageNo);
+    }
+  }
+
+  /**
+   * Pin a page, reading it into a frame if it is not in the pool, or
+   * zero-filling the frame if the page is empty.
+   *
+   * @return the frame holding the page.
+   */
+
+  private int pin(PageId pid, boolean empty) throws IOException, ChainException {
+    PageTable table = tableFor(pid.pid);
+    long missStart = 0;
+    while (true) {
+      int ind;
+      synchronized (table) {
+        ind = table.get(pid.pid);
+        if (ind != PageTable.NOT_FOUND && !fd[ind].isLoading()) {
+          fd[ind].pin();
+          fd[ind].candidate = false;
+          replacer.pinPage(ind);
+          store.attach(ind);
+          if (missStart == 0) {
+            stats.hit();
+          } else {
+            // Read in by the prefetch this pin started.
+            stats.miss(System.nanoTime() - missStart);
+          }
+          return ind;
+        }
+      }
+      if (ind != PageTable.NOT_FOUND) {
+        // Another thread is reading the page in; wait for it and look again.
+        long start = System.nanoTime();
+        fd[ind].awaitLoad();
+        stats.waited(System.nanoTime() - start);
+        continue;
+      }
+      if (missStart == 0) {
+        missStart = System.nanoTime();
+      }
+
+      // A miss that continues a sequential stream reads the next pages of
+      // the stream along with this one, then finds the page in the pool.
+      int window = (empty == true) ? 0 : readAheadFor(pid.pid);
+      if (window > 1 && prefetch(pid, window) > 0) {
+        continue;
+      }
+
+      ind = pickFrame();
+      synchronized (table) {
+        if (table.get(pid.pid) != PageTable.NOT_FOUND) {
+          // Someone else read the page in while we were finding a frame.
+          releaseFrame(ind);
+          continue;
+        }
+        fd[ind].load(pid.pid);
+        table.put(pid.pid, ind);
+        replacer.newPage(ind, pid.pid);
+      }
+      if (empty == true) {
+        store.zero(ind);
+        store.attach(ind);
+        fd[ind].endLoad();
+        stats.miss(System.nanoTime() - missStart);
+        return ind;
+      }
+      try {
+        store.read(pid, ind);
+      } catch (IOException | ChainException e) {
+        synchronized (table) {
+          table.remove(pid.pid);
+          replacer.freePage(ind);
         }
+        fd[ind].endLoad();
+        releaseFrame(ind);
+        throw e;
+      }
+      store.attach(ind);
+      fd[ind].endLoad();
+      stats.read(1);
+      stats.miss(System.nanoTime() - missStart);
+      return ind;
     }
-    page.setpage(buffers[ind].getpage());
   }
 
-  private void evict() throws IOException, ChainException {
-    int replacement = 0;
-    if (fifoQueue.isEmpty() == true) {
-      throw new BufferPoolExceededException(new Exception(), "The buffer pool is full.");
+  /**
+   * Read pages into the pool ahead of need, without pinning them.  Pages
+   * already in the pool are skipped, and each run of consecutive pages
+   * that are not is read with a single request.  Prefetching stops early,
+   * without an error, if no frame can be found for a page.
+   *
+   * @param start the first page to read.
+   * @param n the number of pages to read.
+   * @return the number of pages read in.
+   */
+
+  public int prefetch(PageId start, int n) throws IOException, ChainException {
+    BufMgr pool = poolFor(start.pid);
+    if (pool != this) {
+      return pool.prefetch(start, n);
+    }
+    int end = (int) Math.min((long) start.pid + n,
+                             SystemDefs.JavabaseDB.db_num_pages());
+    int done = 0;
+    int pageNo = start.pid;
+    while (pageNo < end) {
+      PageTable table = tableFor(pageNo);
+      synchronized (table) {
+        if (table.get(pageNo) != PageTable.NOT_FOUND) {
+          pageNo = pageNo + 1;
+          continue;
+        }
+      }
+      if (poolFor(pageNo) != this) {
+        // Pages of other pools are left to them.
+        pageNo = pageNo + 1;
+        continue;
+      }
+      int got = readRun(pageNo, Math.min(end - pageNo, MAX_RUN), false);
+      if (got == 0) {
+        synchronized (table) {
+          if (table.get(pageNo) == PageTable.NOT_FOUND) {
+            break;
+          }
+        }
+      }
+      done = done + got;
+      pageNo = pageNo + got;
     }
-    if (replacement == 0) {
-        replacement = fifoQueue.removeFirst();
+    stats.prefetched(done);
+    return done;
+  }
+
+  /**
+   * Start reading pages into the pool ahead of need, as prefetch does, and
+   * return without waiting for them.  The reads are done by the disk
+   * manager's asynchronous I/O engine; finding frames for the pages, and
+   * writing out dirty pages to free them, is still done by the caller.
+   * A pin of a page that is being read waits for the read.
+   *
+   * @param start the first page to read.
+   * @param n the number of pages to read.
+   * @return the number of pages read in, once they have been.
+   */
+
+  public CompletableFuture<Integer> prefetchAsync(PageId start, int n) throws IOException, ChainException {
+    BufMgr pool = poolFor(start.pid);
+    if (pool != this) {
+      return pool.prefetchAsync(start, n);
     }
-    PageId pid = new PageId(fd[replacement].pageNumber);
-    if (fd[replacement].dirtyBit == true) {
-      flushPage(pid);
+    int end = (int) Math.min((long) start.pid + n,
+                             SystemDefs.JavabaseDB.db_num_pages());
+    CompletableFuture<Integer> all = CompletableFuture.completedFuture(0);
+    int pageNo = start.pid;
+    while (pageNo < end) {
+      PageTable table = tableFor(pageNo);
+      synchronized (table) {
+        if (table.get(pageNo) != PageTable.NOT_FOUND) {
+          pageNo = pageNo + 1;
+          continue;
+        }
+      }
+      if (poolFor(pageNo) != this) {
+        pageNo = pageNo + 1;
+        continue;
+      }
+      int[] frames = new int[Math.min(end - pageNo, MAX_RUN)];
+      int got = claimRun(pageNo, frames.length, false, frames);
+      if (got == 0) {
+        synchronized (table) {
+          if (table.get(pageNo) == PageTable.NOT_FOUND) {
+            break;
+          }
+        }
+        continue;
+      }
+      all = all.thenCombine(readRunAsync(pageNo, frames, got), Integer::sum);
+      pageNo = pageNo + got;
     }
-    buffers[replacement] = new Page();
-    fd[replacement] = new FrameDesc();
-    frame.hashRemove(pid);
+    return all;
   }
 
-  private int allocate(PageId pid) throws IOException, ChainException {
-    Integer ind = 0;
-    if (fifoQueue.isEmpty() == true) {
-        evict();
+  /**
+   * Read up to max consecutive pages, none of them in the pool, with one
+   * request, and leave them unpinned.  The run ends early at a page that
+   * turns up in the pool meanwhile, or when no frame is left.  Empty
+   * pages are zero-filled instead of read, and only into frames that are
+   * free, so that no page is evicted to make room for them.
+   *
+   * @return the number of pages read.
+   */
+
+  private int readRun(int first, int max, boolean empty) throws IOException, ChainException {
+    int[] frames = new int[max];
+    int count = claimRun(first, max, empty, frames);
+    try {
+      if (empty == true) {
+        for (int i = 0; i < count; i++) {
+          store.zero(frames[i]);
+        }
+      } else if (count > 0) {
+        SystemDefs.JavabaseDB.read_pages(new PageId(first), runBuffers(frames, count));
+        stats.read(count);
+      }
+    } catch (IOException | ChainException e) {
+      abandonRun(first, frames, count);
+      throw e;
     }
-    if (ind == 0) {
-        ind = fifoQueue.pollFirst();
+    endRun(first, frames, count);
+    return count;
+  }
+
+  /**
+   * Read a claimed run of pages on the disk manager's I/O threads.  Pins
+   * of the pages wait for the read meanwhile.
+   *
+   * @return the number of pages read, once they have been.
+   */
+
+  private CompletableFuture<Integer> readRunAsync(int first, int[] frames, int count) {
+    return SystemDefs.JavabaseDB.async_io()
+        .read_pages(new PageId(first), runBuffers(frames, count))
+        .handle((done, failure) -> {
+          if (failure != null) {
+            abandonRun(first, frames, count);
+            throw new CompletionException(failure);
+          }
+          stats.read(count);
+          stats.prefetched(count);
+          endRun(first, frames, count);
+          return count;
+        });
+  }
+
+  /**
+   * Find frames for up to max consecutive pages and enter them in the
+   * page table as being loaded.  Stops early at a page that is in the pool
+   * or belongs to another, or when no frame is left.
+   *
+   * @return the number of frames claimed.
+   */
+
+  private int claimRun(int first, int max, boolean empty, int[] frames) throws IOException, ChainException {
+    int count = 0;
+    try {
+      for (; count < max; count++) {
+        int pageNo = first + count;
+        if (count > 0 && poolFor(pageNo) != this) {
+          break;
+        }
+        int ind;
+        if (empty == true) {
+          ind = freeFrame();
+          if (ind < 0) {
+            break;
+          }
+        } else {
+          try {
+            ind = pickFrame();
+          } catch (BufferPoolExceededException e) {
+            break;
+          }
+        }
+        PageTable table = tableFor(pageNo);
+        synchronized (table) {
+          if (table.get(pageNo) != PageTable.NOT_FOUND) {
+            releaseFrame(ind);
+            break;
+          }
+          fd[ind].load(pageNo);
+          table.put(pageNo, ind);
+          replacer.newPage(ind, pageNo);
+        }
+        frames[count] = ind;
+      }
+    } catch (IOException | ChainException e) {
+      abandonRun(first, frames, count);
+      throw e;
     }
-    if (ind == null) {
-        throw new BufferPoolExceededException(new Exception(), "The buffer pool is full.");
+    return count;
+  }
+
+  private ByteBuffer[] runBuffers(int[] frames, int count) {
+    ByteBuffer[] bufs = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      bufs[i] = store.buffer(frames[i]);
     }
-    PageId old = new PageId(fd[ind].pageNumber);
-    if (old.pid != -1) {
-        writeIfDirty(ind);
-        frame.hashRemove(old);
+    return bufs;
+  }
+
+  /** The pages of a claimed run are in their frames; let them be used. */
+
+  private void endRun(int first, int[] frames, int count) {
+    for (int i = 0; i < count; i++) {
+      fd[frames[i]].endLoad();
+      unpin(tableFor(first + i), frames[i]);
     }
-    SystemDefs.JavabaseDB.read_page(pid, buffers[ind]);
-    frame.hashInsert(new PageId(pid.pid), ind); 
-    fd[ind] = new FrameDesc(pid.pid, 1, false);
-    return ind;
-}
+  }
 
-private void writeIfDirty(int fInd) throws IOException, ChainException {
-    if (fd[fInd].dirtyBit == false) {
-        return;
+  /** A claimed run could not be read; take its pages out of the pool. */
+
+  private void abandonRun(int first, int[] frames, int count) {
+    for (int i = 0; i < count; i++) {
+      PageTable table = tableFor(first + i);
+      synchronized (table) {
+        table.remove(first + i);
+        replacer.freePage(frames[i]);
+      }
+      fd[frames[i]].endLoad();
+      releaseFrame(frames[i]);
     }
-    fd[fInd].dirtyBit = false;
-    PageId pid = new PageId(fd[fInd].pageNumber);
-    SystemDefs.JavabaseDB.write_page(pid, buffers[fInd]);
-}
+  }
+
+  /**
+   * Follow sequential streams of misses.  A miss on the page a stream
+   * expects next is read along with the pages after it, and the window
+   * doubles each time up to the read-ahead limit.  Any other miss starts a
+   * new stream in place of the oldest.
+   *
+   * @return how many pages to read from this one on, or 0 for just it.
+   */
+
+  private int readAheadFor(int pageNo) {
+    int max = readAhead;
+    if (max < 2) {
+      return 0;
+    }
+    synchronized (streamNext) {
+      for (int i = 0; i < STREAMS; i++) {
+        if (streamNext[i] == pageNo) {
+          int window = Math.min(streamWindow[i], max);
+          streamNext[i] = pageNo + window;
+          streamWindow[i] = Math.min(window * 2, max);
+          return window;
+        }
+      }
+      int i = nextStream;
+      nextStream = (i + 1) % STREAMS;
+      streamNext[i] = pageNo + 1;
+      streamWindow[i] = FIRST_WINDOW;
+      return 0;
+    }
+  }
+
+  /**
+   * Set how many pages at most are read ahead of a sequential stream of
+   * misses.  The default is an eighth of the pool, up to 32 pages.
+   *
+   * @param maxPages the read-ahead limit; less than 2 turns it off.
+   */
+
+  public void setReadAhead(int maxPages) {
+    readAhead = Math.min(maxPages, getNumBuffers() / 2);
+  }
+
+  /** Gets the number of pages read into the pool by prefetching, asked
+   * for or detected.
+   *
+   * @return number of pages prefetched.
+   */
+
+  public long getNumPagesPrefetched() {
+    return stats.getPagesPrefetched();
+  }
+
+  /**
+   * Find a frame for a new page: an empty one if there is any, otherwise
+   * the replacer's victim once its page has been evicted.
+   *
+   * @return a frame that holds no page and is known to no other thread.
+   */
+
+  private int pickFrame() throws IOException, ChainException {
+    while (true) {
+      int free = freeFrame();
+      if (free >= 0) {
+        return free;
+      }
+      int replacement = replacer.pickVictim();
+      if (replacement < 0) {
+        PinTracker tracker = root.pinTracker;
+        throw new BufferPoolExceededException(new Exception(), "The buffer pool is full."
+            + ((tracker == null) ? "" : "  " + tracker.summary()));
+      }
+      if (evict(replacement)) {
+        return replacement;
+      }
+    }
+  }
+
+  /** @return a frame that has never held a page or was freed, or -1. */
+
+  private int freeFrame() {
+    synchronized (freeFrames) {
+      if (numFree > 0) {
+        numFree = numFree - 1;
+        return freeFrames[numFree];
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Take the page out of a frame chosen by the replacer, writing it to
+   * disk first if it is dirty.  The write is done while holding a pin, so
+   * the page can still be found and pinned by other threads; if that
+   * happens, or the page is dirtied again, the frame is left alone.
+   *
+   * @return whether the frame is now empty and owned by the caller.
+   */
+
+  private boolean evict(int replacement) throws IOException, ChainException {
+    FrameDesc f = fd[replacement];
+    int pageNo = f.pageNumber;
+    PageTable table = tableFor(pageNo);
+    synchronized (table) {
+      if (table.get(pageNo) != replacement) {
+        return false;
+      }
+      // The replacer let go of the frame when it picked it, but a pin and
+      // unpin since then may have handed it back.  Take it out for good;
+      // whoever holds the frame now hands it back when they unpin it.
+      replacer.freePage(replacement);
+      f.candidate = false;
+      if (!f.pinIfUnpinned()) {
+        return false;
+      }
+      if (f.dirtyBit == false) {
+        table.remove(pageNo);
+        store.clear(replacement);
+        f.reset();
+        stats.evicted(false);
+        return true;
+      }
+      f.beginWrite();
+      setDirty(f, false);
+    }
+    try {
+      forceLog(f.pageLSN);
+      store.write(new PageId(pageNo), replacement, f.pageLSN);
+    } catch (IOException | ChainException e) {
+      setDirty(f, true);
+      f.endWrite();
+      unpin(table, replacement);
+      throw e;
+    }
+    f.endWrite();
+    stats.written(1);
+    synchronized (table) {
+      if (f.pinCount.get() == 1 && f.dirtyBit == false) {
+        table.remove(pageNo);
+        store.clear(replacement);
+        f.reset();
+        stats.evicted(true);
+        return true;
+      }
+    }
+    unpin(table, replacement);
+    return false;
+  }
+
+  /**
+   * Write out the page in a frame while holding a pin on it.  Pins taken
+   * for writing do not count as uses of the page: the replacer is not
+   * told about them unless it gave the frame up in the meantime.
+   *
+   * @param pageNo the page expected in the frame.
+   * @param ind the frame.
+   * @param cleaning write only a dirty page nobody has pinned.
+   * @return whether the page was written.
+   */
+
+  private boolean writeFrame(int pageNo, int ind, boolean cleaning) throws IOException, ChainException {
+    long lsn = claimWrite(pageNo, ind, cleaning, cleaning);
+    if (lsn < 0) {
+      return false;
+    }
+    boolean failed = true;
+    try {
+      forceLog(walLSN(ind));
+      store.write(new PageId(pageNo), ind, lsn);
+      stats.written(1);
+      failed = false;
+    } finally {
+      endWrite(pageNo, ind, failed);
+    }
+    return true;
+  }
+
+  /**
+   * Pin a frame to write its page out, and mark it clean as of now.
+   *
+   * @param pageNo the page expected in the frame.
+   * @param ind the frame.
+   * @param dirtyOnly claim the frame only if its page is dirty.
+   * @param unpinnedOnly claim the frame only if nobody has it pinned.
+   * @return the LSN to write the page with, or -1 if the frame was not
+   * claimed.  The page holds every update up to it.  That is its LSN as of
+   * now, unless a client has it pinned, who may have logged an update
+   * before ours and not made it yet; then it is 0.
+   */
+
+  private long claimWrite(int pageNo, int ind, boolean dirtyOnly, boolean unpinnedOnly) {
+    PageTable table = tableFor(pageNo);
+    FrameDesc f = fd[ind];
+    synchronized (table) {
+      if (table.get(pageNo) != ind || f.isLoading()) {
+        return -1;
+      }
+      if (dirtyOnly == true && f.dirtyBit == false) {
+        return -1;
+      }
+      if (unpinnedOnly == true) {
+        if (!f.pinIfUnpinned()) {
+          return -1;
+        }
+      } else {
+        f.pin();
+      }
+      f.beginWrite();
+      store.save(ind);
+      setDirty(f, false);
+      return (f.pinCount.get() > 1) ? 0 : f.pageLSN;
+    }
+  }
+
+  /**
+   * @return how far the log must be on disk before the page in a frame
+   * claimed by claimWrite is written.  If a client still has the page
+   * pinned, it may have changed the page under an update it has not
+   * unpinned with yet, so all the log appended so far must be.
+   */
+
+  private long walLSN(int ind) {
+    if (fd[ind].pinCount.get() > 1) {
+      return Long.MAX_VALUE;
+    }
+    return fd[ind].pageLSN;
+  }
+
+  /** Force the log up to an LSN, write-ahead of a page about to be written. */
+
+  private void forceLog(long lsn) throws IOException {
+    LogMgr log = SystemDefs.JavabaseLog;
+    if (log != null && lsn > 0) {
+      log.flush(lsn);
+    }
+  }
+
+  /** Release a frame claimed by claimWrite, dirty again if the write failed. */
+
+  private void endWrite(int pageNo, int ind, boolean failed) {
+    if (failed == true) {
+      setDirty(fd[ind], true);
+    } else {
+      synchronized (tableFor(pageNo)) {
+        if (fd[ind].dirtyBit == false) {
+          fd[ind].recLSN = 0;
+        }
+      }
+    }
+    fd[ind].endWrite();
+    unpin(tableFor(pageNo), ind);
+  }
+
+  /** Drop a pin taken by the buffer manager itself. */
+
+  private void unpin(PageTable table, int ind) {
+    synchronized (table) {
+      if (fd[ind].unpin() == 0) {
+        unpinned(ind);
+      }
+    }
+  }
+
+  /**
+   * The pin count of a frame dropped to zero.  Called under the stripe.
+   * The replacer takes the frame back unless it never gave it up, which
+   * is the case when only the buffer manager's own pins were on it.
+   */
+
+  private void unpinned(int ind) {
+    store.detach(ind, fd[ind].dirtyBit);
+    if (fd[ind].candidate == false) {
+      fd[ind].candidate = true;
+      replacer.unpinPage(ind);
+    }
+  }
+
+  /**
+   * Set the dirty bit of a frame and keep the count of dirty frames,
+   * waking the page cleaner if there are too many.
+   */
+
+  private void setDirty(FrameDesc f, boolean dirty) {
+    if (f.swapDirty(dirty) == dirty) {
+      return;
+    }
+    if (dirty == false) {
+      dirtyFrames.decrementAndGet();
+      return;
+    }
+    int n = dirtyFrames.incrementAndGet();
+    PageCleaner c = cleaner;
+    if (c != null) {
+      c.dirtied(n);
+    }
+  }
+
+  /** Put an empty frame back on the free list. */
+
+  private void releaseFrame(int ind) {
+    store.clear(ind);
+    setDirty(fd[ind], false);
+    fd[ind].reset();
+    synchronized (freeFrames) {
+      freeFrames[numFree] = ind;
+      numFree = numFree + 1;
+    }
+  }
 
   /**
    * Unpin a page specified by a pageId.
@@ -134,23 +1087,49 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
 
   public void unpinPage(PageId PageId_in_a_DB, boolean dirty) throws ChainException{
     //YOUR CODE HERE
-    Integer ind = frame.hashGet(PageId_in_a_DB);
-    if (frame.hashGet(PageId_in_a_DB) == null) {
-        throw new HashEntryNotFoundException(new Exception(), "The page entry was not found.");
-    } else {
-        ind = frame.hashGet(PageId_in_a_DB);
-    }
-    if (fd[ind].pinCount <= 0) {
-        throw new PageUnpinnedException(new Exception(), "No pages were pinned.");
+    unpinPage(PageId_in_a_DB, dirty, 0);
+  }
+
+  /**
+   * Unpin a page changed under logged updates.  The page will not be
+   * written to disk before the log is, up to the given LSN.
+   *
+   * @param PageId_in_a_DB page number in the minibase.
+   * @param dirty the dirty bit of the frame.
+   * @param lsn the LSN of the last update logged for the change, 0 for none.
+   */
+
+  public void unpinPage(PageId PageId_in_a_DB, boolean dirty, long lsn) throws ChainException{
+    BufMgr pool = poolFor(PageId_in_a_DB.pid);
+    if (pool != this) {
+      pool.unpinPage(PageId_in_a_DB, dirty, lsn);
+      return;
     }
-    fd[ind].pinCount = fd[ind].pinCount - 1;
-    if (fifoQueue.contains(ind) == false) {
-        if (fd[ind].pinCount == 0) {
-            fifoQueue.addFirst(ind);
-        }
+    PageTable table = tableFor(PageId_in_a_DB.pid);
+    synchronized (table) {
+      int ind = table.get(PageId_in_a_DB.pid);
+      if (ind == PageTable.NOT_FOUND) {
+          throw new HashEntryNotFoundException(new Exception(), "The page entry was not found.");
+      }
+      if (fd[ind].pinCount.get() <= 0) {
+          throw new PageUnpinnedException(new Exception(), "No pages were pinned.");
+      }
+      if (lsn > fd[ind].pageLSN) {
+          fd[ind].pageLSN = lsn;
+      }
+      if (lsn > 0 && fd[ind].recLSN == 0) {
+          fd[ind].recLSN = lsn;
+      }
+      if (dirty == true) {
+          setDirty(fd[ind], true);
+      }
+      if (fd[ind].unpin() == 0) {
+          unpinned(ind);
+      }
     }
-    if (dirty == true) {
-        fd[ind].dirtyBit = true;
+    PinTracker tracker = root.pinTracker;
+    if (tracker != null) {
+      tracker.unpinned(PageId_in_a_DB.pid);
     }
   }
 
@@ -162,6 +1141,9 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
    * to allocate pages on disk.) If buffer is full, i.e., you
    * can't find a frame for the first page, ask DB to deallocate
    * all these pages, and return null.
+   * None of the new pages is read from disk: the first is zero-filled,
+   * and so are as many of the others as there are free frames for, up
+   * to a run's worth, so that pinning them later finds them in the pool.
    *
    * @param firstpage the address of the first page.
    * @param howmany total number of allocated new pages.
@@ -171,12 +1153,45 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
 
   public PageId newPage(Page firstpage, int howmany) throws BufferPoolExceededException, IOException, ChainException {
     //YOUR CODE HERE
-    if (getNumUnpinnedBuffers() == 0 || getNumUnpinnedBuffers() < 0) {
+    return newPage(firstpage, howmany, poolName);
+  }
+
+  /**
+   * Allocate new pages, as newPage above, and assign them to the named
+   * pool, which holds the first page pinned.
+   *
+   * @param firstpage the address of the first page.
+   * @param howmany total number of allocated new pages.
+   * @param pool the name of the pool for the new pages.
+   *
+   * @return the first page id of the new pages.
+   */
+
+  public PageId newPage(Page firstpage, int howmany, String pool) throws BufferPoolExceededException, IOException, ChainException {
+    BufMgr target = getPool(pool);
+    if (target == null) {
+        throw new BufMgrException(new Exception(), "There is no buffer pool named " + pool + ".");
+    }
+    if (target.getNumUnpinnedBuffers() == 0 || target.getNumUnpinnedBuffers() < 0) {
         throw new BufferPoolExceededException(new Exception(), "No unpinned buffers.");
     } 
     PageId pid = new PageId();
     SystemDefs.JavabaseDB.allocate_page(pid, howmany);
-    pinPage(pid, firstpage, false);
+    if (target != root) {
+      assignPool(pid, howmany, pool);
+    }
+    try {
+      target.pinPage(pid, firstpage, true);
+    } catch (IOException | ChainException e) {
+      if (target != root) {
+        assignPool(pid, howmany, DEFAULT_POOL);
+      }
+      SystemDefs.JavabaseDB.deallocate_page(pid, howmany);
+      throw e;
+    }
+    if (howmany > 1) {
+      target.readRun(pid.pid + 1, Math.min(howmany - 1, MAX_RUN), true);
+    }
     return pid; 
   }
 
@@ -190,36 +1205,40 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
 
   public void freePage(PageId globalPageId) throws IOException, ChainException{
     //YOUR CODE HERE
-    boolean pin = true;
-    boolean deallocate = true;
-    Integer ind = frame.hashGet(globalPageId);
-    if (ind != null) {
-        if (fd[ind].pinCount > 0) {
-            pin = true;
-        }
-    }
-    else {
-        pin = false;
-    }
-    if (frame.hashGet(globalPageId) == null) {
-      SystemDefs.JavabaseDB.deallocate_page(globalPageId);
+    BufMgr pool = poolFor(globalPageId.pid);
+    if (pool != this) {
+      pool.freePage(globalPageId);
       return;
     }
-    if (fd[ind].pinCount > 1 && pin == true) {
-      throw new PagePinnedException(new Exception(), "Cannot free a pinned page.");
-    }
-    else if (fd[ind].pinCount == 1) {
-      unpinPage(globalPageId, fd[ind].dirtyBit);
+    PageTable table = tableFor(globalPageId.pid);
+    int ind;
+    while (true) {
+      synchronized (table) {
+        ind = table.get(globalPageId.pid);
+        if (ind == PageTable.NOT_FOUND) {
+          break;
+        }
+        // Pins held for writing the page out are not the client's.
+        int writes = fd[ind].writes();
+        if (fd[ind].pinCount.get() - writes > 1 || fd[ind].isLoading()) {
+          throw new PagePinnedException(new Exception(), "Cannot free a pinned page.");
+        }
+        if (writes == 0) {
+          table.remove(globalPageId.pid);
+          replacer.freePage(ind);
+          break;
+        }
+      }
+      fd[ind].awaitWrites();
     }
-    if (fd[ind].dirtyBit == true) {
-      flushPage(globalPageId);
+    if (ind != PageTable.NOT_FOUND) {
+      releaseFrame(ind);
     }
-    buffers[ind] = new Page();
-    fifoQueue.add((Integer) ind);
-    fd[ind] = new FrameDesc();
-    frame.hashRemove(globalPageId);
-    if (deallocate == true) {
-        SystemDefs.JavabaseDB.deallocate_page(globalPageId);
+    SystemDefs.JavabaseDB.deallocate_page(globalPageId);
+    unassign(globalPageId.pid);
+    PinTracker tracker = root.pinTracker;
+    if (tracker != null) {
+      tracker.freed(globalPageId.pid);
     }
   }
 
@@ -233,13 +1252,19 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
 
   public void flushPage(PageId pageid) throws IOException, ChainException {
     //YOUR CODE HERE
-    Integer ind = frame.hashGet(pageid);
-    if (frame.hashGet(pageid) != null) {
-        SystemDefs.JavabaseDB.write_page(pageid, buffers[ind]);
-        fd[ind].dirtyBit = false;
-        return;
+    BufMgr pool = poolFor(pageid.pid);
+    if (pool != this) {
+      pool.flushPage(pageid);
+      return;
+    }
+    PageTable table = tableFor(pageid.pid);
+    int ind;
+    synchronized (table) {
+      ind = table.get(pageid.pid);
+    }
+    if (ind != PageTable.NOT_FOUND) {
+      writeFrame(pageid.pid, ind, false);
     }
-    return;
   }
 
   /** Flushes all pages of the buffer pool to disk
@@ -247,16 +1272,248 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
 
   public void flushAllPages() throws IOException, ChainException{
       //YOUR CODE HERE
-      int i = 0;
-      for (FrameDesc j : fd) {
-        if (j.dirtyBit == true) {
-            flushPage(new PageId(j.pageNumber));
-            i = i + 1;
+      flushAllPages(1);
+  }
+
+  /**
+   * Write every dirty page in the pool to disk, in page order, with one
+   * request for each run of consecutive pages.  The runs can be written
+   * by several threads at once; while the disk manager's asynchronous I/O
+   * is running, they are all handed to its I/O threads instead, as many
+   * at a time as its queue takes.  Pages dirtied again while the flush is
+   * under way may or may not be written by it.  Flushing the default pool
+   * flushes all the named pools as well, then forces the database file to
+   * disk.
+   *
+   * @param threads number of threads to write with.
+   */
+
+  public void flushAllPages(int threads) throws IOException, ChainException {
+    if (root == this) {
+      BufMgr[] all = pools;
+      for (int p = 1; p < all.length; p++) {
+        all[p].flushAllPages(threads);
+      }
+    }
+    flushFrames(threads);
+    if (root == this) {
+      SystemDefs.JavabaseDB.syncDB();
+    }
+  }
+
+  /** Write out the dirty frames of this pool, in page order. */
+
+  private void flushFrames(int threads) throws IOException, ChainException {
+    // Sort the dirty frames by page number, keeping the frame alongside.
+    long[] dirty = new long[fd.length];
+    int n = 0;
+    for (int i = 0; i < fd.length; i++) {
+      int pageNo = fd[i].pageNumber;
+      if (fd[i].dirtyBit == true && pageNo != INVALID_PAGE) {
+        dirty[n] = (long) pageNo << 32 | i;
+        n = n + 1;
+      }
+    }
+    Arrays.sort(dirty, 0, n);
+
+    // Cut them into runs of consecutive pages.
+    int[] runStart = new int[n + 1];
+    int runs = 0;
+    for (int i = 0; i < n; i++) {
+      if (i == 0 || pageOf(dirty[i]) != pageOf(dirty[i - 1]) + 1
+          || i - runStart[runs - 1] == MAX_RUN) {
+        runStart[runs] = i;
+        runs = runs + 1;
+      }
+    }
+    runStart[runs] = n;
+
+    AsyncPageIO io = SystemDefs.JavabaseDB.async_io();
+    if (io != null) {
+      List<CompletableFuture<Void>> writes = new ArrayList<>(runs);
+      for (int r = 0; r < runs; r++) {
+        writeRun(dirty, runStart[r], runStart[r + 1], io, writes);
+      }
+      Exception failure = null;
+      for (CompletableFuture<Void> w : writes) {
+        try {
+          w.join();
+        } catch (CompletionException e) {
+          if (failure == null) {
+            failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+          }
+        }
+      }
+      throwFailure(failure);
+      return;
+    }
+
+    if (threads <= 1 || runs <= 1) {
+      for (int r = 0; r < runs; r++) {
+        writeRun(dirty, runStart[r], runStart[r + 1], null, null);
+      }
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, runs));
+    try {
+      List<Future<?>> writes = new ArrayList<>(runs);
+      for (int r = 0; r < runs; r++) {
+        final int from = runStart[r];
+        final int to = runStart[r + 1];
+        final long[] sorted = dirty;
+        writes.add(pool.submit(() -> {
+          writeRun(sorted, from, to, null, null);
+          return null;
+        }));
+      }
+      // Wait for every run, so no frame is left claimed, then report the
+      // first failure.
+      Exception failure = null;
+      for (Future<?> w : writes) {
+        try {
+          w.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new BufMgrException(e, "Interrupted while flushing the buffer pool.");
         }
-        else {
-            i = i + 1;
+      }
+      throwFailure(failure);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** Report the first failure of runs written on other threads, if any. */
+
+  private static void throwFailure(Exception failure) throws IOException, ChainException {
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    if (failure instanceof ChainException) {
+      throw (ChainException) failure;
+    }
+    if (failure != null) {
+      throw new BufMgrException(failure, "Could not flush the buffer pool.");
+    }
+  }
+
+  private static int pageOf(long dirtyFrame) {
+    return (int) (dirtyFrame >>> 32);
+  }
+
+  /**
+   * Write out a run of consecutive dirty pages from flushAllPages.  Pages
+   * that are no longer dirty or in the pool by now are skipped, and the
+   * rest is written with one request per gapless stretch.
+   *
+   * @param io the I/O engine to hand the requests to, null to write them
+   * on this thread.
+   * @param writes where to put the futures of the requests handed to io.
+   */
+
+  private void writeRun(long[] dirty, int from, int to, AsyncPageIO io,
+                        List<CompletableFuture<Void>> writes) throws IOException, ChainException {
+    int[] frames = new int[to - from];
+    long[] lsns = new long[to - from];
+    int first = INVALID_PAGE;
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      int pageNo = pageOf(dirty[i]);
+      int ind = (int) dirty[i];
+      if (count > 0 && pageNo != first + count) {
+        writeClaimed(first, frames, lsns, count, io, writes);
+        count = 0;
+      }
+      long lsn = claimWrite(pageNo, ind, true, false);
+      if (lsn >= 0) {
+        if (count == 0) {
+          first = pageNo;
         }
+        frames[count] = ind;
+        lsns[count] = lsn;
+        count = count + 1;
+      }
+    }
+    if (count > 0) {
+      writeClaimed(first, frames, lsns, count, io, writes);
+    }
+  }
+
+  /** Write claimed frames on this thread, or hand them to io if not null. */
+
+  private void writeClaimed(int first, int[] frames, long[] lsns, int count, AsyncPageIO io,
+                            List<CompletableFuture<Void>> writes) throws IOException, ChainException {
+    if (io == null) {
+      writeClaimed(first, frames, lsns, count);
+    } else {
+      writes.add(writeClaimedAsync(io, first, frames, lsns, count));
+    }
+  }
+
+  /**
+   * Write consecutive pages in claimed frames, with the LSNs they were
+   * claimed with, then release the frames.
+   */
+
+  private void writeClaimed(int first, int[] frames, long[] lsns, int count) throws IOException, ChainException {
+    ByteBuffer[] bufs = new ByteBuffer[count];
+    long lsn = 0;
+    for (int i = 0; i < count; i++) {
+      bufs[i] = store.buffer(frames[i]);
+      lsn = Math.max(lsn, walLSN(frames[i]));
+    }
+    boolean failed = true;
+    try {
+      forceLog(lsn);
+      SystemDefs.JavabaseDB.write_pages(new PageId(first), bufs,
+                                        Arrays.copyOf(lsns, count));
+      stats.written(count);
+      failed = false;
+    } finally {
+      for (int i = 0; i < count; i++) {
+        endWrite(first + i, frames[i], failed);
+      }
+    }
+  }
+
+
+  /**
+   * Write consecutive pages in claimed frames on the disk manager's I/O
+   * threads, as writeClaimed does, releasing the frames once written.
+   *
+   * @return a future completed when the frames are released, with the
+   * write's failure if it failed.
+   */
+
+  private CompletableFuture<Void> writeClaimedAsync(AsyncPageIO io, int first, int[] frames,
+                                                    long[] lsns, int count) {
+    int[] claimed = Arrays.copyOf(frames, count);
+    ByteBuffer[] bufs = new ByteBuffer[count];
+    long lsn = 0;
+    for (int i = 0; i < count; i++) {
+      bufs[i] = store.buffer(claimed[i]);
+      lsn = Math.max(lsn, walLSN(claimed[i]));
+    }
+    CompletableFuture<Void> write;
+    try {
+      forceLog(lsn);
+      write = io.write_pages(new PageId(first), bufs, Arrays.copyOf(lsns, count));
+    } catch (IOException e) {
+      write = CompletableFuture.failedFuture(e);
+    }
+    return write.whenComplete((done, failure) -> {
+      if (failure == null) {
+        stats.written(count);
+      }
+      for (int i = 0; i < count; i++) {
+        endWrite(first + i, claimed[i], failure != null);
       }
+    });
   }
 
 
@@ -267,7 +1524,158 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
 
   public int getNumBuffers() {
       //YOUR CODE HERE
-      return buffers.length;
+      return fd.length;
+  }
+
+  /**
+   * Start a background thread that writes dirty unpinned pages to disk
+   * whenever more than highWater of the pool is dirty, until no more than
+   * lowWater is, so that a page read rarely has to wait for a write.
+   * Any cleaner already running is stopped first.
+   *
+   * @param highWater fraction of dirty frames that starts the cleaner.
+   * @param lowWater fraction of dirty frames it cleans down to.
+   * @return the cleaner, for its statistics.
+   */
+
+  public PageCleaner startPageCleaner(double highWater, double lowWater) {
+    stopPageCleaner();
+    PageCleaner c = new PageCleaner(this, (int) (highWater * fd.length),
+                                    (int) (lowWater * fd.length));
+    cleaner = c;
+    c.start();
+    return c;
+  }
+
+  /**
+   * Stop the page cleaner, if one is running, and wait for it to finish
+   * the page it is writing.  A pool that is thrown away must have its
+   * cleaner stopped first.
+   */
+
+  public void stopPageCleaner() {
+    PageCleaner c = cleaner;
+    cleaner = null;
+    if (c != null) {
+      c.shutdown();
+    }
+  }
+
+  /** @return the running page cleaner, or null. */
+
+  public PageCleaner getPageCleaner() {
+    return cleaner;
+  }
+
+  /**
+   * Write out the page in a frame for the page cleaner, if it is dirty
+   * and unpinned: on the disk manager's I/O threads while its
+   * asynchronous I/O is running, else on this thread.
+   *
+   * @return a future completed with whether the page was written.
+   */
+
+  CompletableFuture<Boolean> cleanFrame(int ind) throws IOException, ChainException {
+    int pageNo = fd[ind].pageNumber;
+    if (pageNo == INVALID_PAGE || fd[ind].dirtyBit == false) {
+      return CompletableFuture.completedFuture(false);
+    }
+    AsyncPageIO io = SystemDefs.JavabaseDB.async_io();
+    if (io == null) {
+      return CompletableFuture.completedFuture(writeFrame(pageNo, ind, true));
+    }
+    long lsn = claimWrite(pageNo, ind, true, true);
+    if (lsn < 0) {
+      return CompletableFuture.completedFuture(false);
+    }
+    return writeClaimedAsync(io, pageNo, new int[] { ind }, new long[] { lsn }, 1)
+        .thenApply(done -> true);
+  }
+
+  /** Gets the number of buffer frames holding a page that has been
+   * changed since it was last written.
+   *
+   * @return number of dirty buffer frames.
+   */
+
+  public int getNumDirtyBuffers() {
+    return dirtyFrames.get();
+  }
+
+  /**
+   * The dirty page table for a checkpoint: each page in the pool, and in
+   * the named pools if this is the default pool, changed under logged
+   * updates since it was last written, with the first of those updates.
+   * The pool is not stopped while the table is made.
+   *
+   * @return the recovery LSN of each such page, by page number.
+   */
+
+  public Map<Integer, Long> getDirtyPageTable() {
+    Map<Integer, Long> table = new HashMap<>();
+    BufMgr[] all = (root == this) ? pools : new BufMgr[] { this };
+    for (BufMgr pool : all) {
+      for (FrameDesc f : pool.fd) {
+        int pageNo = f.pageNumber;
+        long lsn = f.recLSN;
+        if (pageNo != INVALID_PAGE && lsn > 0) {
+          table.merge(pageNo, lsn, Math::min);
+        }
+      }
+    }
+    return table;
+  }
+
+  /**
+   * The LSN of a pinned page, for recovery to tell which updates the page
+   * holds already: the last a client unpinned the page with since it was
+   * read in, or the one it was last written with, if the disk manager
+   * knows it (DB.page_lsn).  The page holds every update up to it, if no
+   * client but the caller has it pinned.
+   *
+   * @param pageno the page, pinned.
+   * @return the LSN, 0 if none is known.
+   */
+
+  public long getPageLSN(PageId pageno) throws ChainException {
+    BufMgr pool = poolFor(pageno.pid);
+    if (pool != this) {
+      return pool.getPageLSN(pageno);
+    }
+    long lsn;
+    PageTable table = tableFor(pageno.pid);
+    synchronized (table) {
+      int ind = table.get(pageno.pid);
+      if (ind == PageTable.NOT_FOUND) {
+          throw new HashEntryNotFoundException(new Exception(), "The page entry was not found.");
+      }
+      if (fd[ind].pinCount.get() <= 0) {
+          throw new PageUnpinnedException(new Exception(), "No pages were pinned.");
+      }
+      lsn = fd[ind].pageLSN;
+    }
+    return Math.max(lsn, SystemDefs.JavabaseDB.page_lsn(pageno));
+  }
+
+  /**
+   * Check that the replacer is in step with the pool: that it can pick
+   * exactly the unpinned frames holding a page, and that its own
+   * bookkeeping is in order.  Meant for tests, on a pool no thread is
+   * using.
+   *
+   * @return whether the replacer is in step.
+   */
+
+  public boolean checkReplacer() {
+    for (int ind = 0; ind < fd.length; ind++) {
+      FrameDesc f = fd[ind];
+      boolean victim = f.pageNumber != INVALID_PAGE && f.pinCount.get() == 0;
+      boolean held = replacer.holds(ind);
+      if (held != victim || f.candidate != held) {
+        return false;
+      }
+    }
+    return replacer.isConsistent();
   }
 
   /** Gets the total number of unpinned buffer frames.
@@ -277,87 +1685,196 @@ private void writeIfDirty(int fInd) throws IOException, ChainException {
 
   public int getNumUnpinnedBuffers() {
     //YOUR CODE HERE
-    int i = 0;
-    int num = 0;
-    while (fd.length > i) {
-        if (fd[i].pinCount == 0) {
-            num = num + 1;
-            i = i + 1;
-        }
-        else {
-            i = i + 1;
-        }
+    return fd.length - pinnedFrames.get();
+  }
+
+  /** Gets the counters of this buffer pool: hits, misses, reads, writes,
+   * evictions, waits and miss latencies.
+   *
+   * @return the live counters.
+   */
+
+  public BufMgrStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Start recording, for every pin clients take on a page of any pool,
+   * the thread and the stack of the call, until the pin is released.
+   * This is for finding pins that are never released: they can be listed
+   * on demand, and any still held when the program exits are printed to
+   * standard error.  In fail-fast mode a pin fails with
+   * PagePinnedException, naming the leaked pin, as soon as some pin has
+   * been held longer than heldMillis.  Pins taken before tracking starts
+   * are not known to it.
+   *
+   * @param heldMillis how long a pin is held before it counts as leaked.
+   * @param failFast whether to fail pins once a pin has leaked.
+   * @return the tracker, for listing the pins held.
+   */
+
+  public PinTracker trackPins(long heldMillis, boolean failFast) {
+    if (root != this) {
+      return root.trackPins(heldMillis, failFast);
+    }
+    stopTrackingPins();
+    pinTracker = new PinTracker(heldMillis, failFast);
+    return pinTracker;
+  }
+
+  /** Stop recording pins, if trackPins turned it on. */
+
+  public void stopTrackingPins() {
+    if (root != this) {
+      root.stopTrackingPins();
+      return;
     }
-    return num;
+    PinTracker tracker = pinTracker;
+    if (tracker != null) {
+      pinTracker = null;
+      tracker.close();
+    }
+  }
+
+  /** @return the pins being tracked, or null if tracking is off. */
+
+  public PinTracker getPinTracker() {
+    return root.pinTracker;
   }
 
 }
 
+/**
+ * The state of one frame.  The page number and dirty bit are volatile and
+ * the pin count atomic so they can be read without a lock; they are only
+ * changed under the page-table stripe of the page in the frame.  While a
+ * page is being read in the frame is latched, and threads that want the
+ * page wait on the latch.  The generation counts the pages the frame has
+ * held, so a PageHandle can tell its page from a later one.  The pin
+ * count is only changed through pin, pinIfUnpinned, unpin, load and
+ * reset, which keep the pool's count of pinned frames.
+ */
 class FrameDesc {
-    int pageNumber;
-    int pinCount;
-    boolean dirtyBit;
-    public FrameDesc() {
-        pageNumber = new PageId().pid;
-        pinCount = 0;
+    volatile int pageNumber;
+    final AtomicInteger pinCount;
+    private final AtomicInteger pinnedFrames;
+    volatile boolean dirtyBit;
+    volatile int generation;
+    /** The last logged update to the page; changed under the stripe. */
+    volatile long pageLSN;
+    /**
+     * The first logged update to the page since it was last written, 0
+     * if none; changed under the stripe.
+     */
+    volatile long recLSN;
+    /**
+     * Whether the replacer holds the frame, but for the time between its
+     * picking the frame as a victim and evict; guarded by the stripe.
+     */
+    boolean candidate;
+    private boolean loading;
+    private int writes;
+    public FrameDesc(AtomicInteger pinnedFrames) {
+        pageNumber = GlobalConst.INVALID_PAGE;
+        pinCount = new AtomicInteger(0);
+        this.pinnedFrames = pinnedFrames;
         dirtyBit = false;
+        generation = 0;
+        candidate = false;
+        loading = false;
+        writes = 0;
     }
-    public FrameDesc(int pageNumber, int pinCount, boolean dirtyBit) {
+    /** Claim the frame for a page about to be read in, pinned once. */
+    synchronized void load(int pageNumber) {
+        this.generation = this.generation + 1;
         this.pageNumber = pageNumber;
-        this.pinCount = pinCount;
-        this.dirtyBit = dirtyBit;
+        if (this.pinCount.getAndSet(1) == 0) {
+            pinnedFrames.incrementAndGet();
+        }
+        this.dirtyBit = false;
+        this.pageLSN = 0;
+        this.recLSN = 0;
+        this.loading = true;
     }
-}
-
-class HashEntry {
-    public PageId pageNumber;
-    public int frameNumber;
-    public HashEntry(PageId pageNumber, int frameNumber) {
-        this.pageNumber = pageNumber;
-        this.frameNumber = frameNumber;
+    /** @return the pin count after adding a pin. */
+    int pin() {
+        int n = pinCount.incrementAndGet();
+        if (n == 1) {
+            pinnedFrames.incrementAndGet();
+        }
+        return n;
     }
-}
-
-class HashTable {
-    private LinkedList<HashEntry>[] directory;
-    private int limit;
-    @SuppressWarnings("unchecked")
-    public HashTable(int elements) {
-        this.directory = new LinkedList[elements];
-        this.limit = elements;
-        for (int i = 0; i < elements; i++) {
-            directory[i] = new LinkedList<HashEntry>();
-        }
-    }
-    private int hash(PageId value) {
-        final int a = 31;
-        final int b = 17;
-        return Math.abs((a * value.pid + b) % limit);
-    }
-    public Integer hashGet(PageId k) {
-        int ind = hash(k);
-        Iterator<HashEntry> iter = directory[ind].iterator();
-        while (iter.hasNext()) {
-            HashEntry entry = iter.next();
-            if (k.pid == entry.pageNumber.pid) {
-                return entry.frameNumber;
+    /** Pin the frame only if nobody has it pinned. */
+    boolean pinIfUnpinned() {
+        if (!pinCount.compareAndSet(0, 1)) {
+            return false;
+        }
+        pinnedFrames.incrementAndGet();
+        return true;
+    }
+    /** @return the pin count after dropping a pin. */
+    int unpin() {
+        int n = pinCount.decrementAndGet();
+        if (n == 0) {
+            pinnedFrames.decrementAndGet();
+        }
+        return n;
+    }
+    /** Release the latch taken by load and wake any waiting threads. */
+    synchronized void endLoad() {
+        loading = false;
+        notifyAll();
+    }
+    synchronized boolean isLoading() {
+        return loading;
+    }
+    synchronized void awaitLoad() throws BufMgrException {
+        while (loading) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BufMgrException(e, "Interrupted while waiting for a page read.");
             }
         }
-        return null;
     }
-    public void hashInsert(PageId k, int v) {
-        int ind = hash(k);
-        LinkedList<HashEntry> entries = directory[ind];
-        for (int i = entries.size() - 1; i >= 0; i--) {
-            if (k.pid == entries.get(i).pageNumber.pid) {
-                entries.get(i).frameNumber = v;
-                return;
+    /** @return the dirty bit before setting it. */
+    synchronized boolean swapDirty(boolean dirty) {
+        boolean was = dirtyBit;
+        dirtyBit = dirty;
+        return was;
+    }
+    /** The buffer manager pinned the frame to write its page out. */
+    synchronized void beginWrite() {
+        writes++;
+    }
+    synchronized void endWrite() {
+        writes--;
+        if (writes == 0) {
+            notifyAll();
+        }
+    }
+    synchronized int writes() {
+        return writes;
+    }
+    synchronized void awaitWrites() throws BufMgrException {
+        while (writes > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BufMgrException(e, "Interrupted while waiting for a page write.");
             }
         }
-        entries.addFirst(new HashEntry(k, v));
     }
-    public void hashRemove(PageId k) {
-        int ind = hash(k);
-        directory[ind].removeIf(i -> i.pageNumber.pid == k.pid);
+    void reset() {
+        pageNumber = GlobalConst.INVALID_PAGE;
+        if (pinCount.getAndSet(0) > 0) {
+            pinnedFrames.decrementAndGet();
+        }
+        dirtyBit = false;
+        pageLSN = 0;
+        recLSN = 0;
+        candidate = false;
     }
 }
@@ -0,0 +1,313 @@
+package bufmgr;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters kept by a buffer manager.  They are LongAdders, so threads
+ * updating them do not contend, and reading them takes no lock; a reading
+ * taken while pins are going on may be off by the pins in flight.
+ * snapshot() freezes the values for comparing before and after, and
+ * register() publishes the live counters as a JMX MXBean.
+ */
+public class BufMgrStats implements BufMgrStatsMXBean {
+
+  /** Buckets of the miss latency histogram, one per power of two. */
+  public static final int LATENCY_BUCKETS = 64;
+
+  private final BufMgr mgr;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder pagesRead;
+  private final LongAdder pagesPrefetched;
+  private final LongAdder pagesWritten;
+  private final LongAdder evictions;
+  private final LongAdder dirtyEvictions;
+  private final LongAdder pinWaits;
+  private final LongAdder pinWaitNanos;
+  private final LongAdder[] missLatency;
+  private ObjectName registeredAs;
+
+  BufMgrStats(BufMgr mgr) {
+    this.mgr = mgr;
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.pagesRead = new LongAdder();
+    this.pagesPrefetched = new LongAdder();
+    this.pagesWritten = new LongAdder();
+    this.evictions = new LongAdder();
+    this.dirtyEvictions = new LongAdder();
+    this.pinWaits = new LongAdder();
+    this.pinWaitNanos = new LongAdder();
+    this.missLatency = new LongAdder[LATENCY_BUCKETS];
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      missLatency[i] = new LongAdder();
+    }
+  }
+
+  void hit() {
+    hits.increment();
+  }
+
+  void miss(long nanos) {
+    misses.increment();
+    missLatency[bucket(nanos)].increment();
+  }
+
+  void read(int pages) {
+    pagesRead.add(pages);
+  }
+
+  void prefetched(int pages) {
+    pagesPrefetched.add(pages);
+  }
+
+  void written(int pages) {
+    pagesWritten.add(pages);
+  }
+
+  void evicted(boolean dirty) {
+    evictions.increment();
+    if (dirty == true) {
+      dirtyEvictions.increment();
+    }
+  }
+
+  void waited(long nanos) {
+    pinWaits.increment();
+    pinWaitNanos.add(nanos);
+  }
+
+  private static int bucket(long nanos) {
+    return 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public double getHitRatio() {
+    long h = hits.sum();
+    long pins = h + misses.sum();
+    return (pins == 0) ? 0 : (double) h / pins;
+  }
+
+  public long getPagesRead() {
+    return pagesRead.sum();
+  }
+
+  public long getPagesPrefetched() {
+    return pagesPrefetched.sum();
+  }
+
+  public long getPagesWritten() {
+    return pagesWritten.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public long getDirtyEvictions() {
+    return dirtyEvictions.sum();
+  }
+
+  public long getPinWaits() {
+    return pinWaits.sum();
+  }
+
+  public long getPinWaitNanos() {
+    return pinWaitNanos.sum();
+  }
+
+  public long[] getMissLatencyHistogram() {
+    long[] counts = new long[LATENCY_BUCKETS];
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      counts[i] = missLatency[i].sum();
+    }
+    return counts;
+  }
+
+  public int getNumBuffers() {
+    return mgr.getNumBuffers();
+  }
+
+  public int getNumUnpinnedBuffers() {
+    return mgr.getNumUnpinnedBuffers();
+  }
+
+  public int getNumDirtyBuffers() {
+    return mgr.getNumDirtyBuffers();
+  }
+
+  /** @return the values of all counters as of now. */
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /**
+   * Publish the counters on the platform MBean server, under
+   * minibase:type=BufMgr,name=the given name.  A pool is registered under
+   * one name at a time.
+   *
+   * @param name the name of the pool.
+   * @return the name it was registered under.
+   */
+  public synchronized ObjectName register(String name) throws JMException {
+    unregister();
+    ObjectName objectName = new ObjectName("minibase:type=BufMgr,name="
+                                           + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    registeredAs = objectName;
+    return objectName;
+  }
+
+  /** Take the counters off the MBean server, if they are on it. */
+  public synchronized void unregister() throws JMException {
+    if (registeredAs != null) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(registeredAs)) {
+        server.unregisterMBean(registeredAs);
+      }
+      registeredAs = null;
+    }
+  }
+
+  /**
+   * The counters of a buffer pool frozen at one moment.
+   */
+  public static class Snapshot implements BufMgrStatsMXBean {
+
+    private final long hits;
+    private final long misses;
+    private final long pagesRead;
+    private final long pagesPrefetched;
+    private final long pagesWritten;
+    private final long evictions;
+    private final long dirtyEvictions;
+    private final long pinWaits;
+    private final long pinWaitNanos;
+    private final long[] missLatency;
+    private final int numBuffers;
+    private final int numUnpinnedBuffers;
+    private final int numDirtyBuffers;
+
+    Snapshot(BufMgrStatsMXBean live) {
+      this.hits = live.getHits();
+      this.misses = live.getMisses();
+      this.pagesRead = live.getPagesRead();
+      this.pagesPrefetched = live.getPagesPrefetched();
+      this.pagesWritten = live.getPagesWritten();
+      this.evictions = live.getEvictions();
+      this.dirtyEvictions = live.getDirtyEvictions();
+      this.pinWaits = live.getPinWaits();
+      this.pinWaitNanos = live.getPinWaitNanos();
+      this.missLatency = live.getMissLatencyHistogram();
+      this.numBuffers = live.getNumBuffers();
+      this.numUnpinnedBuffers = live.getNumUnpinnedBuffers();
+      this.numDirtyBuffers = live.getNumDirtyBuffers();
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public double getHitRatio() {
+      long pins = hits + misses;
+      return (pins == 0) ? 0 : (double) hits / pins;
+    }
+
+    public long getPagesRead() {
+      return pagesRead;
+    }
+
+    public long getPagesPrefetched() {
+      return pagesPrefetched;
+    }
+
+    public long getPagesWritten() {
+      return pagesWritten;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public long getDirtyEvictions() {
+      return dirtyEvictions;
+    }
+
+    public long getPinWaits() {
+      return pinWaits;
+    }
+
+    public long getPinWaitNanos() {
+      return pinWaitNanos;
+    }
+
+    public long[] getMissLatencyHistogram() {
+      return missLatency.clone();
+    }
+
+    public int getNumBuffers() {
+      return numBuffers;
+    }
+
+    public int getNumUnpinnedBuffers() {
+      return numUnpinnedBuffers;
+    }
+
+    public int getNumDirtyBuffers() {
+      return numDirtyBuffers;
+    }
+
+    /**
+     * Estimate a percentile of the miss latency from the histogram.
+     *
+     * @param p the percentile, between 0 and 100.
+     * @return the upper bound, in nanoseconds, of the bucket holding it.
+     */
+    public long missLatencyPercentile(double p) {
+      long total = 0;
+      for (long c : missLatency) {
+        total += c;
+      }
+      long rank = (long) Math.ceil(total * p / 100);
+      long seen = 0;
+      for (int i = 0; i < LATENCY_BUCKETS; i++) {
+        seen += missLatency[i];
+        if (seen >= rank && seen > 0) {
+          return (i >= 62) ? Long.MAX_VALUE : (2L << i) - 1;
+        }
+      }
+      return 0;
+    }
+
+    public String toString() {
+      return String.format("hits %d, misses %d (%.1f%% hit), read %d"
+                           + " (prefetched %d), written %d, evictions %d"
+                           + " (dirty %d), pin waits %d (%d us),"
+                           + " miss p50/p99 %d/%d us,"
+                           + " buffers %d (unpinned %d, dirty %d)",
+                           hits, misses, 100 * getHitRatio(), pagesRead,
+                           pagesPrefetched, pagesWritten, evictions,
+                           dirtyEvictions, pinWaits, pinWaitNanos / 1000,
+                           missLatencyPercentile(50) / 1000,
+                           missLatencyPercentile(99) / 1000,
+                           numBuffers, numUnpinnedBuffers, numDirtyBuffers);
+    }
+
+  }
+
+}
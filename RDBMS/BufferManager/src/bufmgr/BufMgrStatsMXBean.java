@@ -0,0 +1,54 @@
+package bufmgr;
+
+/**
+ * The statistics of a buffer pool, as seen through JMX.  Counts are since
+ * the pool was created; the numbers of buffers are as of now.
+ */
+public interface BufMgrStatsMXBean {
+
+  /** @return pins that found the page in the pool. */
+  long getHits();
+
+  /** @return pins that had to read the page in. */
+  long getMisses();
+
+  /** @return hits over all pins, or 0 before the first pin. */
+  double getHitRatio();
+
+  /** @return pages read from disk, prefetched ones included. */
+  long getPagesRead();
+
+  /** @return pages read in by prefetching, asked for or detected. */
+  long getPagesPrefetched();
+
+  /** @return pages written to disk, for whatever reason. */
+  long getPagesWritten();
+
+  /** @return pages replaced to make room for others. */
+  long getEvictions();
+
+  /** @return evictions that had to write the page first. */
+  long getDirtyEvictions();
+
+  /** @return pins that waited for another thread to read the page in. */
+  long getPinWaits();
+
+  /** @return total time spent in those waits, in nanoseconds. */
+  long getPinWaitNanos();
+
+  /**
+   * @return pin misses by latency: element i counts misses that took at
+   * least 2^i and less than 2^(i+1) nanoseconds.
+   */
+  long[] getMissLatencyHistogram();
+
+  /** @return total number of buffer frames. */
+  int getNumBuffers();
+
+  /** @return number of buffer frames nobody has pinned. */
+  int getNumUnpinnedBuffers();
+
+  /** @return number of buffer frames holding a dirty page. */
+  int getNumDirtyBuffers();
+
+}
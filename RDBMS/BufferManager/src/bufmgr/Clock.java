@@ -0,0 +1,70 @@
+package bufmgr;
+
+/**
+ * The clock (second chance) replacement policy.  Every frame has a
+ * reference bit that is set when its page is pinned.  The clock hand
+ * sweeps the frames, clearing reference bits, and stops at the first
+ * unpinned frame whose bit is already clear.
+ */
+class Clock implements Replacer {
+
+  private static final int EMPTY = 0;
+  private static final int PINNED = 1;
+  private static final int UNPINNED = 2;
+
+  private final int[] state;
+  private final boolean[] referenced;
+  private int head;
+
+  public Clock(int numbufs) {
+    state = new int[numbufs];
+    referenced = new boolean[numbufs];
+    head = 0;
+  }
+
+  public void newPage(int frameNo, int pageNo) {
+    state[frameNo] = PINNED;
+    referenced[frameNo] = true;
+  }
+
+  public void pinPage(int frameNo) {
+    state[frameNo] = PINNED;
+    referenced[frameNo] = true;
+  }
+
+  public void unpinPage(int frameNo) {
+    state[frameNo] = UNPINNED;
+  }
+
+  public void freePage(int frameNo) {
+    state[frameNo] = EMPTY;
+    referenced[frameNo] = false;
+  }
+
+  public int pickVictim() {
+    // Two full turns: the first may only clear reference bits.
+    for (int i = 0; i < 2 * state.length; i++) {
+      int frameNo = head;
+      head = (head + 1) % state.length;
+      if (state[frameNo] != UNPINNED) {
+        continue;
+      }
+      if (referenced[frameNo]) {
+        referenced[frameNo] = false;
+        continue;
+      }
+      state[frameNo] = EMPTY;
+      return frameNo;
+    }
+    return -1;
+  }
+
+  public boolean holds(int frameNo) {
+    return state[frameNo] == UNPINNED;
+  }
+
+  public boolean isConsistent() {
+    return true;
+  }
+
+}
@@ -0,0 +1,81 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * A doubly-linked list of frame numbers whose links live in two int
+ * arrays indexed by frame, so a frame can be added, removed or moved in
+ * O(1) without allocating.  A frame is in at most one position of a list.
+ */
+class FrameList {
+    private static final int NIL = -1;
+    private static final int UNLINKED = -2;
+    private final int[] next;
+    private final int[] prev;
+    private int head;
+    private int tail;
+    private int size;
+    public FrameList(int numbufs) {
+        this.next = new int[numbufs];
+        this.prev = new int[numbufs];
+        Arrays.fill(next, UNLINKED);
+        Arrays.fill(prev, UNLINKED);
+        this.head = NIL;
+        this.tail = NIL;
+        this.size = 0;
+    }
+    public boolean contains(int f) {
+        return next[f] != UNLINKED;
+    }
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    public int size() {
+        return size;
+    }
+    public int first() {
+        return head;
+    }
+    public int next(int f) {
+        return next[f];
+    }
+    public void addLast(int f) {
+        if (contains(f)) {
+            remove(f);
+        }
+        prev[f] = tail;
+        next[f] = NIL;
+        if (tail == NIL) {
+            head = f;
+        } else {
+            next[tail] = f;
+        }
+        tail = f;
+        size++;
+    }
+    public void remove(int f) {
+        if (!contains(f)) {
+            return;
+        }
+        if (prev[f] == NIL) {
+            head = next[f];
+        } else {
+            next[prev[f]] = next[f];
+        }
+        if (next[f] == NIL) {
+            tail = prev[f];
+        } else {
+            prev[next[f]] = prev[f];
+        }
+        next[f] = UNLINKED;
+        prev[f] = UNLINKED;
+        size--;
+    }
+    public int removeFirst() {
+        int f = head;
+        if (f != NIL) {
+            remove(f);
+        }
+        return f;
+    }
+}
@@ -0,0 +1,88 @@
+package bufmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import global.PageId;
+import chainexception.ChainException;
+
+/**
+ * The memory behind the frames of the buffer pool.  The buffer manager
+ * decides which page lives in which frame; the store holds the bytes and
+ * moves them to and from disk.
+ * <p>
+ * Clients see a pinned page as a byte array.  A store whose frames are
+ * not byte arrays hands out a copy while the frame is pinned and takes it
+ * back when the last pin goes.  attach, save and detach are called under
+ * the page-table stripe of the page in the frame.  read and write are
+ * called without it, while the buffer manager holds a pin on the frame.
+ */
+interface FrameStore {
+
+  /**
+   * Read a page from disk into a frame.
+   *
+   * @param pageNo the page to read.
+   * @param frameNo the frame to read it into.
+   */
+  void read(PageId pageNo, int frameNo) throws IOException, ChainException;
+
+  /**
+   * Write the contents of a frame to disk, as of the last save.
+   *
+   * @param pageNo the page held by the frame.
+   * @param frameNo the frame to write.
+   * @param lsn the LSN of the last logged update the page holds, 0 for
+   * none, for the disk manager to keep with it.
+   */
+  void write(PageId pageNo, int frameNo, long lsn) throws IOException, ChainException;
+
+  /**
+   * Fill a frame with zeros, in place of reading a page that is empty.
+   *
+   * @param frameNo the frame.
+   */
+  void zero(int frameNo);
+
+  /**
+   * @param frameNo the frame.
+   * @return a buffer over exactly the frame's memory, for disk I/O.
+   */
+  ByteBuffer buffer(int frameNo);
+
+  /**
+   * A client pinned the frame.  Does nothing if it is already attached.
+   *
+   * @param frameNo the frame.
+   */
+  void attach(int frameNo);
+
+  /**
+   * @param frameNo an attached frame.
+   * @return the bytes the clients of the frame read and write.
+   */
+  byte[] data(int frameNo);
+
+  /**
+   * Bring the frame up to date with what its clients wrote, so that a
+   * write sees it.
+   *
+   * @param frameNo the frame.
+   */
+  void save(int frameNo);
+
+  /**
+   * The pin count of the frame dropped to zero.
+   *
+   * @param frameNo the frame.
+   * @param dirty whether the clients changed the page.
+   */
+  void detach(int frameNo, boolean dirty);
+
+  /**
+   * The frame no longer holds a page; drop anything kept for it.
+   *
+   * @param frameNo the frame being emptied.
+   */
+  void clear(int frameNo);
+
+}
@@ -0,0 +1,57 @@
+package bufmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import global.*;
+import chainexception.ChainException;
+
+/**
+ * Frames kept as one Page each on the Java heap.  Clients are handed the
+ * frame's own byte array, so nothing is ever copied, and a frame keeps
+ * its array for the life of the pool.
+ */
+class HeapFrameStore implements FrameStore {
+
+  private final Page[] buffers;
+
+  public HeapFrameStore(int numbufs) {
+    buffers = new Page[numbufs];
+    for (int i = 0; i < numbufs; i++) {
+      buffers[i] = new Page();
+    }
+  }
+
+  public void read(PageId pageNo, int frameNo) throws IOException, ChainException {
+    SystemDefs.JavabaseDB.read_page(pageNo, buffers[frameNo]);
+  }
+
+  public void write(PageId pageNo, int frameNo, long lsn) throws IOException, ChainException {
+    SystemDefs.JavabaseDB.write_page(pageNo, buffer(frameNo), lsn);
+  }
+
+  public void zero(int frameNo) {
+    Arrays.fill(buffers[frameNo].getpage(), (byte) 0);
+  }
+
+  public ByteBuffer buffer(int frameNo) {
+    return ByteBuffer.wrap(buffers[frameNo].getpage());
+  }
+
+  public void attach(int frameNo) {
+  }
+
+  public byte[] data(int frameNo) {
+    return buffers[frameNo].getpage();
+  }
+
+  public void save(int frameNo) {
+  }
+
+  public void detach(int frameNo, boolean dirty) {
+  }
+
+  public void clear(int frameNo) {
+  }
+
+}
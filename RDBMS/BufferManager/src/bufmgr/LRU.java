@@ -0,0 +1,43 @@
+package bufmgr;
+
+/**
+ * The least recently used replacement policy.  Unpinned frames are kept
+ * in the order they were last unpinned; the victim is the frame at the
+ * head of that queue.
+ */
+class LRU implements Replacer {
+
+  private final FrameList lruQueue;
+
+  public LRU(int numbufs) {
+    lruQueue = new FrameList(numbufs);
+  }
+
+  public void newPage(int frameNo, int pageNo) {
+  }
+
+  public void pinPage(int frameNo) {
+    lruQueue.remove(frameNo);
+  }
+
+  public void unpinPage(int frameNo) {
+    lruQueue.addLast(frameNo);
+  }
+
+  public void freePage(int frameNo) {
+    lruQueue.remove(frameNo);
+  }
+
+  public int pickVictim() {
+    return lruQueue.removeFirst();
+  }
+
+  public boolean holds(int frameNo) {
+    return lruQueue.contains(frameNo);
+  }
+
+  public boolean isConsistent() {
+    return true;
+  }
+
+}
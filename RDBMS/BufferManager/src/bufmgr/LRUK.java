@@ -0,0 +1,153 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * The LRU-K replacement policy (O'Neil, O'Neil and Weikum).  Each frame
+ * remembers the times of the last K pins of its page.  The victim is the
+ * unpinned frame whose K-th most recent pin is oldest; a page pinned
+ * fewer than K times counts as infinitely old, so pages touched once by
+ * a scan go before pages that keep being reused.  Ties among those are
+ * broken by plain LRU on the last pin.
+ * <p>
+ * The K-th most recent pin is not monotone in unpin order, so unpinned
+ * frames are kept in a binary heap over int arrays: pin and unpin cost
+ * O(log n) and never allocate, and the victim is always at the root.
+ */
+class LRUK implements Replacer {
+
+  private final int k;
+  private final long[][] history;
+  private final int[] heap;
+  private final int[] heapPos;
+  private int heapSize;
+  private long clock;
+
+  public LRUK(int numbufs, int k) {
+    this.k = k;
+    this.history = new long[numbufs][k];
+    this.heap = new int[numbufs];
+    this.heapPos = new int[numbufs];
+    Arrays.fill(heapPos, -1);
+    this.heapSize = 0;
+    this.clock = 0;
+  }
+
+  public void newPage(int frameNo, int pageNo) {
+    Arrays.fill(history[frameNo], 0);
+    reference(frameNo);
+  }
+
+  public void pinPage(int frameNo) {
+    heapRemove(frameNo);
+    reference(frameNo);
+  }
+
+  public void unpinPage(int frameNo) {
+    if (heapPos[frameNo] >= 0) {
+      return;
+    }
+    heap[heapSize] = frameNo;
+    heapPos[frameNo] = heapSize;
+    heapSize++;
+    siftUp(heapPos[frameNo]);
+  }
+
+  public void freePage(int frameNo) {
+    heapRemove(frameNo);
+  }
+
+  public int pickVictim() {
+    if (heapSize == 0) {
+      return -1;
+    }
+    int victim = heap[0];
+    heapRemove(victim);
+    return victim;
+  }
+
+  public boolean holds(int frameNo) {
+    return heapPos[frameNo] >= 0;
+  }
+
+  /** @return whether no frame in the heap is a better victim than its parent. */
+  public boolean isConsistent() {
+    for (int i = 1; i < heapSize; i++) {
+      if (heapPos[heap[i]] != i || older(heap[i], heap[(i - 1) / 2])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Shift the history of the frame and record a pin at the current time. */
+  private void reference(int frameNo) {
+    long[] h = history[frameNo];
+    System.arraycopy(h, 0, h, 1, k - 1);
+    h[0] = ++clock;
+  }
+
+  /** Whether frame a is a better victim than frame b. */
+  private boolean older(int a, int b) {
+    long ka = history[a][k - 1];
+    long kb = history[b][k - 1];
+    if (ka != kb) {
+      return ka < kb;
+    }
+    return history[a][0] < history[b][0];
+  }
+
+  private void heapRemove(int frameNo) {
+    int i = heapPos[frameNo];
+    if (i < 0) {
+      return;
+    }
+    heapPos[frameNo] = -1;
+    heapSize--;
+    if (i == heapSize) {
+      return;
+    }
+    heap[i] = heap[heapSize];
+    heapPos[heap[i]] = i;
+    siftDown(siftUp(i));
+  }
+
+  private int siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (!older(heap[i], heap[parent])) {
+        break;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+    return i;
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int left = 2 * i + 1;
+      if (left >= heapSize) {
+        return;
+      }
+      int child = left;
+      if (left + 1 < heapSize && older(heap[left + 1], heap[left])) {
+        child = left + 1;
+      }
+      if (!older(heap[child], heap[i])) {
+        return;
+      }
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private void swap(int i, int j) {
+    int fi = heap[i];
+    heap[i] = heap[j];
+    heap[j] = fi;
+    heapPos[heap[i]] = i;
+    heapPos[heap[j]] = j;
+  }
+
+}
@@ -0,0 +1,149 @@
+package bufmgr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A daemon thread that writes dirty pages to disk in the background, so
+ * that the victims the replacer picks are mostly clean and a page read
+ * does not have to wait for a write first.  It sleeps until the number of
+ * dirty frames passes the high watermark, then sweeps the pool like a
+ * clock hand, writing every dirty page nobody has pinned, until the count
+ * is down to the low watermark or it has gone once around.  While the
+ * disk manager's asynchronous I/O is running, the writes are handed to
+ * its I/O threads, so the sweep does not wait for each in turn.
+ * <p>
+ * Started and stopped through BufMgr.startPageCleaner and
+ * BufMgr.stopPageCleaner.  A page it fails to write stays dirty, and the
+ * error is left for the next foreground write of that page to report.
+ */
+public class PageCleaner implements Runnable {
+
+  /** How long to sleep when there is nothing to do, as a safety net. */
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final BufMgr mgr;
+  private final int highWater;
+  private final int lowWater;
+  private final Thread thread;
+  private volatile boolean running;
+  private int hand;
+
+  private final AtomicLong pagesWritten;
+  private final AtomicLong writeErrors;
+  private final AtomicLong busyNanos;
+  private final long startNanos;
+
+  PageCleaner(BufMgr mgr, int highWater, int lowWater) {
+    if (lowWater < 0 || highWater < lowWater) {
+      throw new IllegalArgumentException("need 0 <= low watermark <= high watermark");
+    }
+    this.mgr = mgr;
+    this.highWater = highWater;
+    this.lowWater = lowWater;
+    this.thread = new Thread(this, "page cleaner");
+    this.thread.setDaemon(true);
+    this.running = true;
+    this.hand = 0;
+    this.pagesWritten = new AtomicLong(0);
+    this.writeErrors = new AtomicLong(0);
+    this.busyNanos = new AtomicLong(0);
+    this.startNanos = System.nanoTime();
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Stop the thread and wait for it to finish the page it is writing.
+   * Writes handed to the I/O threads may still be under way.
+   */
+  void shutdown() {
+    running = false;
+    LockSupport.unpark(thread);
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** A frame was dirtied, leaving the given number of dirty frames. */
+  void dirtied(int dirtyFrames) {
+    if (dirtyFrames == highWater + 1) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  public void run() {
+    int numbufs = mgr.getNumBuffers();
+    while (running) {
+      if (mgr.getNumDirtyBuffers() <= highWater) {
+        LockSupport.parkNanos(this, IDLE_NANOS);
+        continue;
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < numbufs && running
+             && mgr.getNumDirtyBuffers() > lowWater; i++) {
+        try {
+          mgr.cleanFrame(hand).whenComplete((written, failure) -> {
+            if (failure != null) {
+              writeErrors.incrementAndGet();
+            } else if (written == true) {
+              pagesWritten.incrementAndGet();
+            }
+          });
+        } catch (Exception e) {
+          writeErrors.incrementAndGet();
+        }
+        hand = (hand + 1) % numbufs;
+      }
+      busyNanos.addAndGet(System.nanoTime() - start);
+      if (mgr.getNumDirtyBuffers() > lowWater) {
+        // What is left is pinned; give the clients a moment.
+        LockSupport.parkNanos(this, IDLE_NANOS / 10);
+      }
+    }
+  }
+
+  /** @return the number of pages written since the cleaner started. */
+  public long getPagesWritten() {
+    return pagesWritten.get();
+  }
+
+  /** @return the number of page writes that failed. */
+  public long getWriteErrors() {
+    return writeErrors.get();
+  }
+
+  /** @return the pages written per second the cleaner has been running. */
+  public double getPagesPerSecond() {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return pagesWritten.get() / seconds;
+  }
+
+  /** @return the pages written per second the cleaner spent sweeping. */
+  public double getPagesPerBusySecond() {
+    long busy = busyNanos.get();
+    return (busy == 0) ? 0 : pagesWritten.get() / (busy / 1e9);
+  }
+
+  /** @return the high watermark, in frames. */
+  public int getHighWater() {
+    return highWater;
+  }
+
+  /** @return the low watermark, in frames. */
+  public int getLowWater() {
+    return lowWater;
+  }
+
+}
@@ -0,0 +1,136 @@
+package bufmgr;
+
+import java.nio.ByteBuffer;
+import global.PageId;
+
+/**
+ * A pinned page, seen through a view of exactly the bytes of its frame.
+ * Closing the handle unpins the page, dirty if anything was written
+ * through the handle, so it fits a try-with-resources block:
+ * <pre>
+ *   try (PageHandle h = SystemDefs.JavabaseBM.pinHandle(pid)) {
+ *     h.setInt(0, h.getInt(0) + 1);
+ *   }
+ * </pre>
+ * Nothing is copied or aliased: the accessors read and write the frame
+ * itself, and they check the handle first.  Once it is closed they throw
+ * IllegalStateException.  The frame may then be reused for another page,
+ * but a closed handle cannot reach it.  The buffer from buffer() is not
+ * checked like this and must not be used after close.
+ * <p>
+ * Numbers are big-endian, as with global.Convert.  A handle belongs to one
+ * thread.
+ */
+public class PageHandle implements AutoCloseable {
+
+  private final BufMgr mgr;
+  private final PageId pageId;
+  private final int frameNo;
+  private final int generation;
+  private ByteBuffer view;
+  private boolean dirty;
+
+  PageHandle(BufMgr mgr, PageId pageId, int frameNo, int generation,
+             ByteBuffer view) {
+    this.mgr = mgr;
+    this.pageId = pageId;
+    this.frameNo = frameNo;
+    this.generation = generation;
+    this.view = view;
+    this.dirty = false;
+  }
+
+  /** @return the page this handle pins. */
+  public PageId pageId() {
+    return new PageId(pageId.pid);
+  }
+
+  /** @return whether the handle has not been closed yet. */
+  public boolean isOpen() {
+    return view != null;
+  }
+
+  public int getInt(int offset) {
+    return open().getInt(offset);
+  }
+
+  public void setInt(int offset, int value) {
+    written().putInt(offset, value);
+  }
+
+  public short getShort(int offset) {
+    return open().getShort(offset);
+  }
+
+  public void setShort(int offset, short value) {
+    written().putShort(offset, value);
+  }
+
+  public byte get(int offset) {
+    return open().get(offset);
+  }
+
+  public void put(int offset, byte value) {
+    written().put(offset, value);
+  }
+
+  /**
+   * Copy bytes out of the page.
+   *
+   * @param offset where in the page to start.
+   * @param dst the array to copy into, filled completely.
+   */
+  public void get(int offset, byte[] dst) {
+    open().get(offset, dst);
+  }
+
+  /**
+   * Copy bytes into the page.
+   *
+   * @param offset where in the page to start.
+   * @param src the bytes to copy.
+   */
+  public void put(int offset, byte[] src) {
+    written().put(offset, src);
+  }
+
+  /**
+   * Direct access to the frame for bulk work.  The buffer covers exactly
+   * the page; its position and limit are the caller's to change.  Writes
+   * through it must be reported with markDirty.
+   *
+   * @return a buffer over the frame, valid until the handle is closed.
+   */
+  public ByteBuffer buffer() {
+    return open().duplicate();
+  }
+
+  /** Have the page written back to disk before it leaves the pool. */
+  public void markDirty() {
+    written();
+  }
+
+  /**
+   * Unpin the page.  Closing a handle again does nothing.
+   */
+  public void close() {
+    if (view != null) {
+      view = null;
+      mgr.unpinHandle(pageId.pid, frameNo, generation, dirty);
+    }
+  }
+
+  private ByteBuffer open() {
+    if (view == null) {
+      throw new IllegalStateException("page " + pageId.pid + " is no longer pinned by this handle");
+    }
+    return view;
+  }
+
+  private ByteBuffer written() {
+    ByteBuffer v = open();
+    dirty = true;
+    return v;
+  }
+
+}
@@ -0,0 +1,147 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * An int-to-int hash map from page numbers to frame numbers.  Keys and
+ * values sit in two parallel int arrays probed linearly, and a removal
+ * shifts the rest of its probe run back instead of leaving a tombstone,
+ * so lookups never slow down as pages come and go.  Nothing is boxed
+ * and a lookup never allocates; a missing key is reported as NOT_FOUND.
+ * <p>
+ * The table is sized for a given number of entries at half load and only
+ * grows if more entries than that are put in.
+ */
+public class PageTable {
+
+  /** Returned by get when the page is not in the table. */
+  public static final int NOT_FOUND = -1;
+
+  private static final int EMPTY = Integer.MIN_VALUE;
+
+  private int[] keys;
+  private int[] values;
+  private int mask;
+  private int size;
+
+  /**
+   * Create a table that holds the given number of entries without growing.
+   *
+   * @param expected the number of entries expected at most.
+   */
+  public PageTable(int expected) {
+    int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+    allocate(capacity);
+  }
+
+  /**
+   * Look up the frame holding a page.
+   *
+   * @param pageNo the page number.
+   * @return the frame number, or NOT_FOUND.
+   */
+  public int get(int pageNo) {
+    int i = slot(pageNo);
+    while (true) {
+      int k = keys[i];
+      if (k == pageNo) {
+        return values[i];
+      }
+      if (k == EMPTY) {
+        return NOT_FOUND;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  /**
+   * Map a page to a frame, replacing any earlier mapping of the page.
+   *
+   * @param pageNo the page number.
+   * @param frameNo the frame number.
+   */
+  public void put(int pageNo, int frameNo) {
+    int i = slot(pageNo);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == pageNo) {
+        values[i] = frameNo;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = pageNo;
+    values[i] = frameNo;
+    size++;
+    if (size * 2 > keys.length) {
+      grow();
+    }
+  }
+
+  /**
+   * Remove the mapping of a page, if there is one.
+   *
+   * @param pageNo the page number.
+   * @return the frame number the page was mapped to, or NOT_FOUND.
+   */
+  public int remove(int pageNo) {
+    int i = slot(pageNo);
+    while (keys[i] != pageNo) {
+      if (keys[i] == EMPTY) {
+        return NOT_FOUND;
+      }
+      i = (i + 1) & mask;
+    }
+    int frameNo = values[i];
+    size--;
+
+    // Backward-shift deletion: move later entries of the run into the
+    // hole unless doing so would put them before their home slot.
+    int hole = i;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      int k = keys[j];
+      if (k == EMPTY) {
+        break;
+      }
+      int home = slot(k);
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        keys[hole] = k;
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    keys[hole] = EMPTY;
+    return frameNo;
+  }
+
+  /** @return the number of pages in the table. */
+  public int size() {
+    return size;
+  }
+
+  private int slot(int pageNo) {
+    // Fibonacci hashing spreads runs of consecutive page numbers.
+    return (pageNo * 0x9E3779B9 >>> 16 ^ pageNo * 0x9E3779B9) & mask;
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    mask = capacity - 1;
+    size = 0;
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        put(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+}
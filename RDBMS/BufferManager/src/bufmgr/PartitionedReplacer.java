@@ -0,0 +1,94 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Splits the frames among several independent instances of a replacement
+ * policy, frame f going to partition f mod n, and guards each partition
+ * with its own monitor.  Threads pinning pages in different partitions
+ * never wait for each other, and victim searches start at a different
+ * partition each time.  The policy is applied per partition, which is a
+ * close approximation of applying it to the whole pool.
+ */
+class PartitionedReplacer implements Replacer {
+
+  private final Replacer[] parts;
+  private final AtomicInteger nextPart;
+
+  /**
+   * @param numbufs number of buffers in the buffer pool.
+   * @param partitions number of partitions.
+   * @param policy creates the policy for a partition of the given size.
+   */
+  public PartitionedReplacer(int numbufs, int partitions,
+                             IntFunction<Replacer> policy) {
+    parts = new Replacer[partitions];
+    for (int p = 0; p < partitions; p++) {
+      parts[p] = policy.apply((numbufs - p + partitions - 1) / partitions);
+    }
+    nextPart = new AtomicInteger(0);
+  }
+
+  public void newPage(int frameNo, int pageNo) {
+    Replacer r = parts[frameNo % parts.length];
+    synchronized (r) {
+      r.newPage(frameNo / parts.length, pageNo);
+    }
+  }
+
+  public void pinPage(int frameNo) {
+    Replacer r = parts[frameNo % parts.length];
+    synchronized (r) {
+      r.pinPage(frameNo / parts.length);
+    }
+  }
+
+  public void unpinPage(int frameNo) {
+    Replacer r = parts[frameNo % parts.length];
+    synchronized (r) {
+      r.unpinPage(frameNo / parts.length);
+    }
+  }
+
+  public void freePage(int frameNo) {
+    Replacer r = parts[frameNo % parts.length];
+    synchronized (r) {
+      r.freePage(frameNo / parts.length);
+    }
+  }
+
+  public int pickVictim() {
+    int start = nextPart.getAndIncrement();
+    for (int i = 0; i < parts.length; i++) {
+      int p = Math.floorMod(start + i, parts.length);
+      int victim;
+      synchronized (parts[p]) {
+        victim = parts[p].pickVictim();
+      }
+      if (victim >= 0) {
+        return victim * parts.length + p;
+      }
+    }
+    return -1;
+  }
+
+  public boolean holds(int frameNo) {
+    Replacer r = parts[frameNo % parts.length];
+    synchronized (r) {
+      return r.holds(frameNo / parts.length);
+    }
+  }
+
+  public boolean isConsistent() {
+    for (Replacer r : parts) {
+      synchronized (r) {
+        if (!r.isConsistent()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+}
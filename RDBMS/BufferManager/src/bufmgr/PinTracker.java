@@ -0,0 +1,233 @@
+package bufmgr;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pins clients hold on pages, each with where and when it was taken,
+ * kept while BufMgr.trackPins is on.  It is a debugging aid: recording a
+ * stack trace per pin costs far more than the pin itself.
+ * <p>
+ * Pins on a page are interchangeable, so an unpin is matched with the
+ * latest pin of the page taken by the same thread, or failing that with
+ * the oldest.  Pins the buffer manager takes for itself, to read or write
+ * a frame, are not tracked.
+ */
+public class PinTracker {
+
+  /**
+   * A pin on a page, as taken by a client.
+   */
+  public static class Pin {
+
+    private final int pageNo;
+    private final String thread;
+    private final long since;
+    private final Throwable site;
+
+    Pin(int pageNo) {
+      this.pageNo = pageNo;
+      this.thread = Thread.currentThread().getName();
+      this.since = System.currentTimeMillis();
+      this.site = new Throwable("page " + pageNo + " pinned by " + thread);
+    }
+
+    /** @return the page pinned. */
+    public int getPageNo() {
+      return pageNo;
+    }
+
+    /** @return the name of the thread that pinned it. */
+    public String getThread() {
+      return thread;
+    }
+
+    /** @return when it was pinned, in milliseconds since the epoch. */
+    public long getSince() {
+      return since;
+    }
+
+    /** @return the stack of the pinPage call. */
+    public StackTraceElement[] getStackTrace() {
+      return site.getStackTrace();
+    }
+
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      s.append("page ").append(pageNo).append(" pinned by ").append(thread)
+       .append(' ').append(System.currentTimeMillis() - since)
+       .append(" ms ago");
+      for (StackTraceElement e : site.getStackTrace()) {
+        if (e.getClassName().equals(PinTracker.class.getName())
+            || e.getClassName().equals(Pin.class.getName())) {
+          continue;
+        }
+        s.append("\n\tat ").append(e);
+      }
+      return s.toString();
+    }
+
+  }
+
+  private final Map<Integer, ArrayDeque<Pin>> pins;
+  private final long heldMillis;
+  private final boolean failFast;
+  private final Thread atExit;
+  private int count;
+
+  /**
+   * @param heldMillis how long a pin is held before it counts as leaked.
+   * @param failFast whether a pin fails once a leaked pin is found.
+   */
+  PinTracker(long heldMillis, boolean failFast) {
+    this.pins = new HashMap<>();
+    this.heldMillis = heldMillis;
+    this.failFast = failFast;
+    this.count = 0;
+    this.atExit = new Thread(() -> report(System.err, 0), "pin report");
+    Runtime.getRuntime().addShutdownHook(atExit);
+  }
+
+  /**
+   * A client is about to pin a page.  In fail-fast mode this is where a
+   * pin held longer than the limit is reported, by throwing.
+   */
+  void check() throws PagePinnedException {
+    if (failFast == false) {
+      return;
+    }
+    Pin leaked;
+    synchronized (this) {
+      leaked = oldest(heldMillis);
+    }
+    if (leaked != null) {
+      throw new PagePinnedException(new Exception(), "Pin held for more than "
+                                    + heldMillis + " ms: " + leaked);
+    }
+  }
+
+  /** A client pinned a page. */
+  synchronized void pinned(int pageNo) {
+    pins.computeIfAbsent(pageNo, k -> new ArrayDeque<>()).addLast(new Pin(pageNo));
+    count = count + 1;
+  }
+
+  /** A client unpinned a page. */
+  synchronized void unpinned(int pageNo) {
+    ArrayDeque<Pin> held = pins.get(pageNo);
+    if (held == null) {
+      return;
+    }
+    String me = Thread.currentThread().getName();
+    Iterator<Pin> latest = held.descendingIterator();
+    boolean found = false;
+    while (latest.hasNext()) {
+      if (latest.next().getThread().equals(me)) {
+        latest.remove();
+        found = true;
+        break;
+      }
+    }
+    if (found == false) {
+      held.removeFirst();
+    }
+    count = count - 1;
+    if (held.isEmpty()) {
+      pins.remove(pageNo);
+    }
+  }
+
+  /** A page was freed along with the pin its client held. */
+  synchronized void freed(int pageNo) {
+    ArrayDeque<Pin> held = pins.remove(pageNo);
+    if (held != null) {
+      count = count - held.size();
+    }
+  }
+
+  /** @return the oldest pin held for more than the given time, or null. */
+  private Pin oldest(long minMillis) {
+    long cutoff = System.currentTimeMillis() - minMillis;
+    Pin oldest = null;
+    for (ArrayDeque<Pin> held : pins.values()) {
+      Pin p = held.peekFirst();
+      if (p.getSince() <= cutoff
+          && (oldest == null || p.getSince() < oldest.getSince())) {
+        oldest = p;
+      }
+    }
+    return oldest;
+  }
+
+  /** @return the number of pins held. */
+  public synchronized int getNumPins() {
+    return count;
+  }
+
+  /**
+   * @param minMillis how long a pin must have been held to be listed.
+   * @return the pins held at least that long, oldest first.
+   */
+  public synchronized List<Pin> getPins(long minMillis) {
+    long cutoff = System.currentTimeMillis() - minMillis;
+    List<Pin> list = new ArrayList<>();
+    for (ArrayDeque<Pin> held : pins.values()) {
+      for (Pin p : held) {
+        if (p.getSince() <= cutoff) {
+          list.add(p);
+        }
+      }
+    }
+    list.sort((a, b) -> Long.compare(a.getSince(), b.getSince()));
+    return list;
+  }
+
+  /** @return the pins held longer than the limit given to trackPins. */
+  public List<Pin> getLeakedPins() {
+    return getPins(heldMillis);
+  }
+
+  /**
+   * Print the pins held at least a given time, with where they were
+   * taken.  Nothing is printed if there are none.
+   *
+   * @param out where to print.
+   * @param minMillis how long a pin must have been held to be listed.
+   */
+  public void report(PrintStream out, long minMillis) {
+    List<Pin> list = getPins(minMillis);
+    if (list.isEmpty()) {
+      return;
+    }
+    out.println(list.size() + " page pins held:");
+    for (Pin p : list) {
+      out.println(p);
+    }
+  }
+
+  /** @return a short account of the pins held, for exception messages. */
+  String summary() {
+    List<Pin> list = getPins(0);
+    StringBuilder s = new StringBuilder();
+    s.append(list.size()).append(" pins held");
+    for (int i = 0; i < list.size() && i < 8; i++) {
+      s.append("\n").append(list.get(i));
+    }
+    return s.toString();
+  }
+
+  /** Stop tracking; nothing is reported at exit any more. */
+  void close() {
+    try {
+      Runtime.getRuntime().removeShutdownHook(atExit);
+    } catch (IllegalStateException e) {
+      // Already shutting down; the report runs anyway.
+    }
+  }
+
+}
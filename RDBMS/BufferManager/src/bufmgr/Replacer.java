@@ -0,0 +1,65 @@
+package bufmgr;
+
+/**
+ * A buffer replacement policy.  The buffer manager tells the replacer
+ * about every pin and unpin of a frame that holds a page, and asks it
+ * for a victim when a page has to be read in and no frame is empty.
+ * Empty frames are handed out by the buffer manager itself, so a
+ * replacer only ever tracks frames that hold a page.
+ * <p>
+ * Implementations need not be thread-safe; the buffer manager reaches
+ * them through a PartitionedReplacer, which serializes the calls.
+ */
+interface Replacer {
+
+  /**
+   * A page was just read into the frame and pinned for the first time.
+   *
+   * @param frameNo the frame holding the page.
+   * @param pageNo the page number now in the frame.
+   */
+  void newPage(int frameNo, int pageNo);
+
+  /**
+   * A page that is already in the pool was pinned again.
+   *
+   * @param frameNo the frame holding the page.
+   */
+  void pinPage(int frameNo);
+
+  /**
+   * The pin count of the frame dropped to zero, so it may be replaced.
+   *
+   * @param frameNo the frame holding the page.
+   */
+  void unpinPage(int frameNo);
+
+  /**
+   * The frame no longer holds a page; forget everything about it.
+   *
+   * @param frameNo the frame being emptied.
+   */
+  void freePage(int frameNo);
+
+  /**
+   * Choose an unpinned frame whose page should be replaced, and stop
+   * tracking it.  The caller evicts the page and later reports the new
+   * occupant through newPage.  If another thread pins the page before it
+   * can be evicted, the frame is handed back through pinPage and
+   * unpinPage instead; the buffer manager then calls freePage before it
+   * evicts the page, so freePage must accept a frame it no longer holds.
+   *
+   * @return the frame number, or -1 if every frame is pinned.
+   */
+  int pickVictim();
+
+  /**
+   * @param frameNo the frame.
+   * @return whether the frame is one pickVictim may choose.
+   */
+  boolean holds(int frameNo);
+
+  /** @return whether the policy's own bookkeeping is in order. */
+  boolean isConsistent();
+
+}
@@ -0,0 +1,131 @@
+package bufmgr;
+
+/**
+ * The full 2Q replacement policy (Johnson and Shasha).  A page read in for
+ * the first time goes to the FIFO queue A1in.  When it is pushed out of
+ * A1in its page number is remembered in the ghost queue A1out; only a page
+ * that is read again while still in A1out is admitted to the main LRU
+ * queue Am.  A long scan therefore cycles through A1in and never pushes
+ * the hot pages out of Am.
+ */
+class TwoQ implements Replacer {
+
+  private static final int NONE = 0;
+  private static final int A1IN = 1;
+  private static final int AM = 2;
+
+  /** Target number of frames held by A1in. */
+  private final int kin;
+
+  /** Maximum number of page numbers remembered by A1out. */
+  private final int kout;
+
+  private final int[] queue;
+  private final int[] pageOf;
+  private int a1inSize;
+
+  /** Unpinned frames of each queue, oldest first. */
+  private final FrameList a1in;
+  private final FrameList am;
+
+  /**
+   * A1out: a ring of the last kout page numbers evicted from A1in, and a
+   * table from page number to its ring slot.  A ring slot whose page has
+   * since been read again is stale and is simply overwritten later.
+   */
+  private final int[] a1outRing;
+  private final PageTable a1out;
+  private int a1outNext;
+
+  public TwoQ(int numbufs) {
+    this.kin = Math.max(1, numbufs / 4);
+    this.kout = Math.max(1, numbufs / 2);
+    this.queue = new int[numbufs];
+    this.pageOf = new int[numbufs];
+    this.a1inSize = 0;
+    this.a1in = new FrameList(numbufs);
+    this.am = new FrameList(numbufs);
+    this.a1outRing = new int[kout];
+    this.a1out = new PageTable(kout);
+    this.a1outNext = 0;
+  }
+
+  public void newPage(int frameNo, int pageNo) {
+    pageOf[frameNo] = pageNo;
+    if (a1out.remove(pageNo) != PageTable.NOT_FOUND) {
+      queue[frameNo] = AM;
+    } else {
+      queue[frameNo] = A1IN;
+      a1inSize++;
+    }
+  }
+
+  public void pinPage(int frameNo) {
+    // A hit in A1in leaves the page where it is: a burst of correlated
+    // pins right after the read says nothing about long-term reuse.
+    candidates(frameNo).remove(frameNo);
+  }
+
+  public void unpinPage(int frameNo) {
+    if (queue[frameNo] == NONE) {
+      // Picked as a victim but pinned again before it could be evicted.
+      queue[frameNo] = A1IN;
+      a1inSize++;
+    }
+    candidates(frameNo).addLast(frameNo);
+  }
+
+  public void freePage(int frameNo) {
+    candidates(frameNo).remove(frameNo);
+    if (queue[frameNo] == A1IN) {
+      a1inSize--;
+    }
+    queue[frameNo] = NONE;
+  }
+
+  public int pickVictim() {
+    int frameNo;
+    if (!a1in.isEmpty() && (a1inSize > kin || am.isEmpty())) {
+      frameNo = a1in.removeFirst();
+      a1inSize--;
+      remember(pageOf[frameNo]);
+    } else if (!am.isEmpty()) {
+      frameNo = am.removeFirst();
+    } else {
+      return -1;
+    }
+    queue[frameNo] = NONE;
+    return frameNo;
+  }
+
+  public boolean holds(int frameNo) {
+    return queue[frameNo] != NONE && candidates(frameNo).contains(frameNo);
+  }
+
+  /** @return whether a1inSize counts the frames in A1in. */
+  public boolean isConsistent() {
+    int n = 0;
+    for (int frameNo = 0; frameNo < queue.length; frameNo++) {
+      if (queue[frameNo] == A1IN) {
+        n++;
+      }
+    }
+    return n == a1inSize;
+  }
+
+  private FrameList candidates(int frameNo) {
+    return (queue[frameNo] == AM) ? am : a1in;
+  }
+
+  /** Add a page evicted from A1in to A1out, dropping the oldest if full. */
+  private void remember(int pageNo) {
+    int slot = a1outNext;
+    if (a1out.size() > 0 && a1out.get(a1outRing[slot]) == slot) {
+      a1out.remove(a1outRing[slot]);
+    }
+    a1outRing[slot] = pageNo;
+    a1out.put(pageNo, slot);
+    a1outNext = (slot + 1) % kout;
+  }
+
+}
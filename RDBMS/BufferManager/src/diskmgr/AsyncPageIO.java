@@ -0,0 +1,194 @@
+package diskmgr;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import global.*;
+
+/**
+ * Page I/O on a DB done by a few I/O threads, so that the caller can go
+ * on with other work meanwhile.  Each request returns a future that
+ * completes when the pages are in the buffers or on the file; callbacks
+ * attached to it run on the I/O thread.
+ * <p>
+ * At most queueDepth requests are outstanding at once, queued or under
+ * way; submitting another blocks until one finishes.  The buffers must
+ * be left alone until the request completes.
+ */
+public class AsyncPageIO {
+
+  /** A request, as run on an I/O thread. */
+  private interface Request {
+    void run() throws Exception;
+  }
+
+  private final DB db;
+  private final ExecutorService workers;
+  private final int queueDepth;
+  private final Semaphore slots;
+  private final AtomicInteger pending;
+  private final AtomicInteger running;
+  private final AtomicInteger peakPending;
+  private final LongAdder submitted;
+  private final LongAdder failed;
+
+  /**
+   * @param db the database to do I/O on.
+   * @param threads number of I/O threads.
+   * @param queueDepth most requests outstanding at once.
+   */
+  AsyncPageIO(DB db, int threads, int queueDepth) {
+    this.db = db;
+    this.queueDepth = Math.max(1, queueDepth);
+    this.slots = new Semaphore(this.queueDepth);
+    this.pending = new AtomicInteger();
+    this.running = new AtomicInteger();
+    this.peakPending = new AtomicInteger();
+    this.submitted = new LongAdder();
+    this.failed = new LongAdder();
+    this.workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+      Thread t = new Thread(r, "minibase-io");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /** Read a page into a buffer, as DB.read_page. */
+  public CompletableFuture<Void> read_page(PageId pageno, ByteBuffer buf) {
+    PageId pid = new PageId(pageno.pid);
+    return submit(() -> db.read_page(pid, buf));
+  }
+
+  /** Write a page from a buffer, as DB.write_page. */
+  public CompletableFuture<Void> write_page(PageId pageno, ByteBuffer buf) {
+    return write_page(pageno, buf, 0);
+  }
+
+  /** Write a page from a buffer with its LSN, as DB.write_page. */
+  public CompletableFuture<Void> write_page(PageId pageno, ByteBuffer buf, long lsn) {
+    PageId pid = new PageId(pageno.pid);
+    return submit(() -> db.write_page(pid, buf, lsn));
+  }
+
+  /** Read a run of pages with one request, as DB.read_pages. */
+  public CompletableFuture<Void> read_pages(PageId first, ByteBuffer[] bufs) {
+    PageId pid = new PageId(first.pid);
+    return submit(() -> db.read_pages(pid, bufs));
+  }
+
+  /** Write a run of pages with one request, as DB.write_pages. */
+  public CompletableFuture<Void> write_pages(PageId first, ByteBuffer[] bufs) {
+    return write_pages(first, bufs, new long[bufs.length]);
+  }
+
+  /** Write a run of pages with their LSNs, as DB.write_pages. */
+  public CompletableFuture<Void> write_pages(PageId first, ByteBuffer[] bufs, long[] lsns) {
+    PageId pid = new PageId(first.pid);
+    return submit(() -> db.write_pages(pid, bufs, lsns));
+  }
+
+  /**
+   * Force the file to disk, as DB.syncDB.  Only writes that completed
+   * before this is submitted are sure to be covered.
+   */
+  public CompletableFuture<Void> syncDB() {
+    return submit(() -> db.syncDB());
+  }
+
+  private CompletableFuture<Void> submit(Request request) {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    try {
+      slots.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      done.completeExceptionally(e);
+      return done;
+    }
+    submitted.increment();
+    peakPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+    try {
+      workers.execute(() -> {
+        Exception failure = null;
+        running.incrementAndGet();
+        try {
+          request.run();
+        } catch (Exception e) {
+          failure = e;
+          failed.increment();
+        }
+        running.decrementAndGet();
+        // Give the slot back before the callbacks run, as they may well
+        // submit more requests.
+        pending.decrementAndGet();
+        slots.release();
+        if (failure == null) {
+          done.complete(null);
+        } else {
+          done.completeExceptionally(failure);
+        }
+      });
+    } catch (RuntimeException e) {
+      // Shut down.
+      pending.decrementAndGet();
+      slots.release();
+      done.completeExceptionally(e);
+    }
+    return done;
+  }
+
+  /** @return most requests outstanding at once. */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /** @return requests submitted and not yet completed. */
+  public int getPending() {
+    return pending.get();
+  }
+
+  /** @return requests an I/O thread is working on now. */
+  public int getRunning() {
+    return running.get();
+  }
+
+  /** @return most requests that were outstanding at one time. */
+  public int getPeakPending() {
+    return peakPending.get();
+  }
+
+  /** @return requests submitted so far. */
+  public long getSubmitted() {
+    return submitted.sum();
+  }
+
+  /** @return requests that failed so far. */
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  /**
+   * Take no more requests, and wait for those outstanding to complete.
+   */
+  void shutdown() {
+    workers.shutdown();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (workers.awaitTermination(1, TimeUnit.SECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
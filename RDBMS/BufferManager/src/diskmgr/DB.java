@@ -3,13 +3,34 @@
 package diskmgr;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
 import bufmgr.*;
 import global.*;
 
 public class DB implements GlobalConst {
 
   
-  private static final int bits_per_page = MAX_SPACE * 8;
+  /** Bytes of the file mapped at a time in mapped mode; a MappedByteBuffer
+   * cannot reach past 2GB, so a larger file takes several.
+   */
+  private static final long MAP_CHUNK = 1L << 30;
+  
+  /** The space map read and written 64 bits at a time; bit k of a map
+   * page is bit k%8 of byte k/8, so the words are little-endian.
+   */
+  private static final VarHandle MAP_WORD =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
   
   
   /** Open the database with the given name.
@@ -29,8 +50,22 @@ public class DB implements GlobalConst {
     
     name = fname;
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    // Open the file for positional I/O
+    fp = open(fname);
+    
+    // The pages are the size the database was created with, and the
+    // buffer pool must have been made for that size.
+    page_size = page_size(fp);
+    bits_per_page = page_size * 8;
+    if(page_size != Page.getPageSize())
+      throw new DiskMgrException(null, "DB has " + page_size
+				 + "-byte pages, not " + Page.getPageSize());
+    map(fp.size());
+    
+    // A database created with checksums has them in a file beside it.
+    checksums = new File(fname + CRC_SUFFIX).exists();
+    if (checksums)
+      open_checksums(fname, (int)(fp.size() / page_size));
     
     PageId pageId = new PageId();
     Page apage = new Page();
@@ -52,6 +87,34 @@ public class DB implements GlobalConst {
    */
   public DB() { }
   
+  /** Constructor choosing how the database file is accessed.
+   * A mapped database is mapped into memory in chunks when it is opened,
+   * and pages are copied to and from the mapping, leaving it to the
+   * operating system when to write them; syncDB forces them out.  This
+   * suits a database that fits in memory and is mostly read.
+   *
+   * @param mapped whether to map the file into memory
+   */
+  public DB(boolean mapped) { this.mapped = mapped; }
+  
+  /** Constructor choosing how the database file is accessed, as above,
+   * and whether a database it creates checksums its pages.  Each page is
+   * stamped with its CRC32C when it is written, and checked against it
+   * when it is read, the checksums being kept in a file next to the
+   * database; a page that does not match raises PageChecksumException.
+   * A crash of the OS can leave a page written since the last syncDB out
+   * of step with its checksum, whole as it is; see accept_page.  Whether
+   * a database it opens checksums its pages is up to how the database
+   * was created.
+   *
+   * @param mapped whether to map the file into memory
+   * @param checksums whether to checksum pages
+   */
+  public DB(boolean mapped, boolean checksums) {
+    this.mapped = mapped;
+    this.checksums = checksums;
+  }
+  
   
   /** DB Constructors.
    * Create a database with the specified number of pages where the page
@@ -73,17 +136,23 @@ public class DB implements GlobalConst {
     
     name = new String(fname);
     num_pages = (num_pgs > 2) ? num_pgs : 2;
+    page_size = Page.getPageSize();
+    bits_per_page = page_size * 8;
     
     File DBfile = new File(name);
     
     DBfile.delete();
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    // Open the file for positional I/O
+    fp = open(fname);
     
     // Make the file num_pages pages long, filled with zeroes.
-    fp.seek((long)(num_pages*MINIBASE_PAGESIZE-1));
-    fp.writeByte(0);
+    fp.write(ByteBuffer.wrap(new byte[1]), (long)num_pages*page_size-1);
+    map((long)num_pages*page_size);
+    
+    new File(name + CRC_SUFFIX).delete();
+    if (checksums)
+      open_checksums(name, num_pages);
     
     // Initialize space map and directory pages.
     
@@ -96,6 +165,7 @@ public class DB implements GlobalConst {
     DBFirstPage firstpg = new DBFirstPage(apage);
     
     firstpg.setNumDBPages(num_pages);
+    firstpg.setDBPageSize(page_size);
     unpinPage(pageId, true /*dirty*/);
     
     // Calculate how many pages are needed for the space map.  Reserve pages
@@ -110,7 +180,30 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors.
    */
   public void closeDB() throws IOException {
+    stop_async_io();
+    syncDB();
+    maps = null;
     fp.close();
+    if (crc_fp != null)
+      {
+	crcs = null;
+	crc_fp.close();
+      }
+  }
+  
+  /** Force everything written to the DB file out to the disk.
+   * @exception IOException I/O errors.
+   */
+  public void syncDB() throws IOException {
+    MappedByteBuffer[] m = maps;
+    if (m != null) {
+      for (MappedByteBuffer chunk : m)
+	chunk.force();
+    }
+    else
+      fp.force(false);
+    if (crcs != null)
+      crcs.force();
   }
   
   
@@ -120,9 +213,124 @@ public class DB implements GlobalConst {
   public void DBDestroy() 
     throws IOException {
     
+    stop_async_io();
+    maps = null;
     fp.close();
     File DBfile = new File(name);
     DBfile.delete();
+    if (crc_fp != null)
+      {
+	crcs = null;
+	crc_fp.close();
+	new File(name + CRC_SUFFIX).delete();
+      }
+  }
+  
+  /** The asynchronous I/O engine of this database, started with four I/O
+   * threads and a queue depth of 64 if it is not running yet.
+   *
+   * @return the engine
+   */
+  public AsyncPageIO async_io() {
+    AsyncPageIO io = asyncIO;
+    if (io == null) {
+      synchronized (ioLock) {
+	if (asyncIO == null)
+	  asyncIO = new AsyncPageIO(this, 4, 64);
+	io = asyncIO;
+      }
+    }
+    return io;
+  }
+  
+  /** (Re)start the asynchronous I/O engine with the given number of I/O
+   * threads and queue depth.  Requests made to a previous engine are
+   * completed before this returns.
+   *
+   * @param threads number of I/O threads
+   * @param queueDepth most requests outstanding at once
+   * @return the new engine
+   */
+  public AsyncPageIO start_async_io(int threads, int queueDepth) {
+    AsyncPageIO io = new AsyncPageIO(this, threads, queueDepth);
+    AsyncPageIO old;
+    synchronized (ioLock) {
+      old = asyncIO;
+      asyncIO = io;
+    }
+    if (old != null)
+      old.shutdown();
+    return io;
+  }
+  
+  /** Stop the asynchronous I/O engine, if it is running, once the
+   * requests made to it are complete.
+   */
+  public void stop_async_io() {
+    AsyncPageIO io;
+    synchronized (ioLock) {
+      io = asyncIO;
+      asyncIO = null;
+    }
+    if (io != null)
+      io.shutdown();
+  }
+  
+  /** Open a DB file for reading and writing, creating it if need be.
+   * Pages are read and written at their own offsets, never through the
+   * file pointer, so any number of threads can do I/O on the file at once.
+   */
+  private static FileChannel open(String fname) throws IOException {
+    return FileChannel.open(Paths.get(fname), StandardOpenOption.READ,
+			    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+  }
+  
+  /** In mapped mode, map the first size bytes of the file, in chunks of
+   * MAP_CHUNK bytes.
+   */
+  private void map(long size) throws IOException {
+    if (!mapped)
+      return;
+    MappedByteBuffer[] m = new MappedByteBuffer[(int)((size + MAP_CHUNK - 1) / MAP_CHUNK)];
+    for (int i = 0; i < m.length; i++) {
+      long start = i * MAP_CHUNK;
+      m[i] = fp.map(FileChannel.MapMode.READ_WRITE, start,
+		    Math.min(MAP_CHUNK, size - start));
+    }
+    maps = m;
+  }
+  
+  /** @return the mapped chunk holding a page */
+  private MappedByteBuffer chunk(int pid) {
+    return maps[(int)((long)pid * page_size / MAP_CHUNK)];
+  }
+  
+  /** @return the offset of a page in its mapped chunk */
+  private int offset(int pid) {
+    return (int)((long)pid * page_size % MAP_CHUNK);
+  }
+  
+  /** A view of a page in place in the mapped file, without copying it.
+   * Changes made through the view are changes to the file, and are seen
+   * by every reader of the page at once.  The buffer pool does not know
+   * about them, so only pages that are not in it, or not being written by
+   * it, should be changed this way.  Neither are checksums checked or
+   * stamped through a view.
+   *
+   * @param pageno pageId of the page
+   * @return a buffer over exactly the page, or null if the database is
+   * not mapped
+   *
+   * @exception InvalidPageNumberException invalid page number
+   */
+  public ByteBuffer page_view(PageId pageno)
+    throws InvalidPageNumberException {
+
+    if((pageno.pid < 0)||(pageno.pid >= num_pages))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+    if (maps == null)
+      return null;
+    return chunk(pageno.pid).slice(offset(pageno.pid), page_size);
   }
   
   /** Read the contents of the specified page into a Page object
@@ -139,33 +347,103 @@ public class DB implements GlobalConst {
 	   FileIOException, 
 	   IOException {
 
+    read_page(pageno, ByteBuffer.wrap(apage.getpage()));
+    
+  }
+  
+  /** Write the contents in a page object to the specified page.
+   *
+   * @param pageno pageId will be wrote to disk
+   * @param apage the page object will be wrote to disk
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_page(PageId pageno, Page apage)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    write_page(pageno, ByteBuffer.wrap(apage.getpage()));
+    
+  }
+  
+  /** Read the contents of the specified page into a buffer, which may be
+   * a direct buffer outside the Java heap.  The page fills the buffer from
+   * its position to its limit, which must be one page apart.
+   *
+   * @param pageno pageId which will be read
+   * @param buf buffer which receives the contents of the page
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void read_page(PageId pageno, ByteBuffer buf)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
-    
-    // Read the appropriate number of bytes.
-    byte [] buffer = apage.getpage();  //new byte[MINIBASE_PAGESIZE];
-    try{
-      fp.read(buffer);
+    int start = buf.position();
+    if (maps != null) {
+      buf.put(buf.position(), chunk(pageno.pid), offset(pageno.pid), buf.remaining());
+      buf.position(buf.limit());
     }
-    catch (IOException e) {
-      throw new FileIOException(e, "DB file I/O error");
+    else {
+      // A read may come back short; keep reading until the page is whole.
+      long pos = (long)pageno.pid * page_size - buf.position();
+      try{
+        while (buf.hasRemaining()) {
+          if (fp.read(buf, pos + buf.position()) < 0)
+            throw new EOFException("page " + pageno.pid + " is past the end of the file");
+        }
+      }
+      catch (IOException e) {
+        throw new FileIOException(e, "DB file I/O error");
+      }
     }
     
+    if (checksums)
+      verify(pageno.pid, buf, start);
   }
   
-  /** Write the contents in a page object to the specified page.
+  /** Write the contents of a buffer, which may be a direct buffer outside
+   * the Java heap, to the specified page.  The page is taken from the
+   * buffer's position to its limit, which must be one page apart.
    *
    * @param pageno pageId will be wrote to disk
-   * @param apage the page object will be wrote to disk
+   * @param buf the buffer holding the contents of the page
    *
    * @exception InvalidPageNumberException invalid page number
    * @exception FileIOException file I/O error
    * @exception IOException I/O errors
    */
-  public void write_page(PageId pageno, Page apage)
+  public void write_page(PageId pageno, ByteBuffer buf)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    write_page(pageno, buf, 0);
+    
+  }
+  
+  /** Write a page from a buffer, as above, along with the LSN of the last
+   * logged update it holds.  With checksums on, the LSN is kept next to
+   * the page's checksum, for page_lsn.
+   *
+   * @param pageno pageId will be wrote to disk
+   * @param buf the buffer holding the contents of the page
+   * @param lsn the LSN of the last logged update to the page, 0 for none
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_page(PageId pageno, ByteBuffer buf, long lsn)
     throws InvalidPageNumberException, 
 	   FileIOException, 
 	   IOException {
@@ -173,17 +451,308 @@ public class DB implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
+    int sum = checksums ? checksum(buf, buf.position()) : 0;
+    if (maps != null) {
+      chunk(pageno.pid).put(offset(pageno.pid), buf, buf.position(), buf.remaining());
+      buf.position(buf.limit());
+    }
+    else {
+      long pos = (long)pageno.pid * page_size - buf.position();
+      try{
+        while (buf.hasRemaining()) {
+          fp.write(buf, pos + buf.position());
+        }
+      }
+      catch (IOException e) {
+        throw new FileIOException(e, "DB file I/O error");
+      }
+    }
+    
+    if (checksums)
+      stamp(pageno.pid, sum, lsn);
+  }
+  
+  /** Read a run of consecutive pages with a single request, the first
+   * page into the first buffer and so on.  Each buffer is filled from its
+   * position to its limit, which must be one page apart.
+   *
+   * @param first pageId of the first page of the run
+   * @param bufs buffers which receive the contents of the pages
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void read_pages(PageId first, ByteBuffer[] bufs)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    if((first.pid < 0)||(first.pid + bufs.length > num_pages))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+    
+    if (maps != null) {
+      for (int i = 0; i < bufs.length; i++)
+	read_page(new PageId(first.pid + i), bufs[i]);
+      return;
+    }
+    
+    int[] starts = new int[bufs.length];
+    for (int i = 0; i < bufs.length; i++)
+      starts[i] = bufs[i].position();
+    
+    // A scattering read starts at the file pointer, which has to be kept
+    // from moving under us like a seek.  Only runs use the file pointer,
+    // so single pages go on meanwhile.
+    synchronized (runLock) {
+      try{
+        fp.position((long)first.pid * page_size);
+        while (bufs[bufs.length - 1].hasRemaining()) {
+          if (fp.read(bufs) < 0)
+            throw new EOFException("page " + (first.pid + bufs.length - 1)
+                                   + " is past the end of the file");
+        }
+      }
+      catch (IOException e) {
+        throw new FileIOException(e, "DB file I/O error");
+      }
+    }
+    
+    if (checksums)
+      for (int i = 0; i < bufs.length; i++)
+	verify(first.pid + i, bufs[i], starts[i]);
+  }
+  
+  /** Write a run of consecutive pages with a single request, the first
+   * page from the first buffer and so on.  Each page is taken from its
+   * buffer's position to its limit, which must be one page apart.
+   *
+   * @param first pageId of the first page of the run
+   * @param bufs buffers holding the contents of the pages
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId first, ByteBuffer[] bufs)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    write_pages(first, bufs, new long[bufs.length]);
+    
+  }
+  
+  /** Write a run of consecutive pages, as above, along with the LSN of
+   * the last logged update each holds, as for write_page.
+   *
+   * @param first pageId of the first page of the run
+   * @param bufs buffers holding the contents of the pages
+   * @param lsns the LSN of each page, 0 for none
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId first, ByteBuffer[] bufs, long[] lsns)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    if((first.pid < 0)||(first.pid + bufs.length > num_pages))
+      throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
+    
+    if (maps != null) {
+      for (int i = 0; i < bufs.length; i++)
+	write_page(new PageId(first.pid + i), bufs[i], lsns[i]);
+      return;
+    }
     
-    // Write the appropriate number of bytes.
-    try{
-      fp.write(apage.getpage());
+    int[] sums = null;
+    if (checksums) {
+      sums = new int[bufs.length];
+      for (int i = 0; i < bufs.length; i++)
+	sums[i] = checksum(bufs[i], bufs[i].position());
     }
-    catch (IOException e) {
-      throw new FileIOException(e, "DB file I/O error");
+    
+    synchronized (runLock) {
+      try{
+        fp.position((long)first.pid * page_size);
+        while (bufs[bufs.length - 1].hasRemaining()) {
+          fp.write(bufs);
+        }
+      }
+      catch (IOException e) {
+        throw new FileIOException(e, "DB file I/O error");
+      }
     }
     
+    if (checksums)
+      for (int i = 0; i < sums.length; i++)
+	stamp(first.pid + i, sums[i], lsns[i]);
+  }
+  
+  /** Read a run of n consecutive pages into Page objects, with a single
+   * request as for read_pages above.
+   *
+   * @param start pageId of the first page of the run
+   * @param n the number of pages to read
+   * @param dst page objects which receive the pages, the first page in
+   * dst[0] and so on
+   *
+   * @exception InvalidRunSizeException invalid run size
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void read_pages(PageId start, int n, Page[] dst)
+    throws InvalidRunSizeException,
+	   InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    read_pages(start, wrap(n, dst));
+    
+  }
+  
+  /** Write a run of n consecutive pages from Page objects, with a single
+   * request as for write_pages above.
+   *
+   * @param start pageId of the first page of the run
+   * @param n the number of pages to write
+   * @param src page objects holding the pages, the first page in src[0]
+   * and so on
+   *
+   * @exception InvalidRunSizeException invalid run size
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId start, int n, Page[] src)
+    throws InvalidRunSizeException,
+	   InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    write_pages(start, wrap(n, src));
+    
+  }
+  
+  /** @return buffers over the first n pages */
+  private static ByteBuffer[] wrap(int n, Page[] pages)
+    throws InvalidRunSizeException {
+    
+    if((n <= 0)||(n > pages.length))
+      throw new InvalidRunSizeException(null, "Bad run size " + n + " for "
+					+ pages.length + " pages");
+    ByteBuffer[] bufs = new ByteBuffer[n];
+    for (int i = 0; i < n; i++)
+      bufs[i] = ByteBuffer.wrap(pages[i].getpage());
+    return bufs;
+  }
+  
+  /** Take a page as it is on disk, stamping it with its checksum again,
+   * so that it can be read whether it matched or not.  This is for crash
+   * recovery, which is about to write the page over from the log: a page
+   * out of step with its checksum is not necessarily torn, and the log
+   * puts back what a torn write lost of its changes.
+   *
+   * @param pageno the page
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void accept_page(PageId pageno)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    if((pageno.pid < 0)||(pageno.pid >= num_pages))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+    if (!checksums)
+      return;
+    
+    ByteBuffer buf = ByteBuffer.allocate(page_size);
+    stamp(pageno.pid, 0, 0);
+    read_page(pageno, buf);
+    stamp(pageno.pid, checksum(buf, 0), 0);
+  }
+  
+  /** Get the LSN a page was last written with.  It is only known with
+   * checksums on, which tell whether the page on disk is the one written
+   * with it: the caller must have read the page back, checksum and all,
+   * since it was last written.  Crash recovery redoes only the updates to
+   * the page after it.
+   *
+   * @param pageno the page
+   * @return the LSN, 0 if none is known
+   *
+   * @exception InvalidPageNumberException invalid page number
+   */
+  public long page_lsn(PageId pageno)
+    throws InvalidPageNumberException {
+
+    if((pageno.pid < 0)||(pageno.pid >= num_pages))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+    if (!checksums)
+      return 0;
+    return crcs.getLong(pageno.pid * CRC_ENTRY + 8);
+  }
+  
+  /** Open the checksum file of a database and map it into memory, so
+   * that stamping a page costs no system call.
+   */
+  private void open_checksums(String fname, int num_pgs)
+    throws IOException {
+    
+    crc_fp = open(fname + CRC_SUFFIX);
+    crcs = crc_fp.map(FileChannel.MapMode.READ_WRITE, 0, (long)num_pgs * CRC_ENTRY);
+  }
+  
+  /** @return the checksum of the page in buf from position from.  It is
+   * never 0, which marks a page not written since checksums were on.
+   */
+  private int checksum(ByteBuffer buf, int from) {
+    CRC32C crc = new CRC32C();
+    crc.update(buf.slice(from, page_size));
+    int sum = (int)crc.getValue();
+    return (sum == 0) ? 1 : sum;
+  }
+  
+  /** Record the checksum of a page just written.  The OS writes the
+   * checksum file back when it likes, in no order with the DB file, until
+   * syncDB forces both; so after a crash of the OS a page written since
+   * may fail its check though it is whole, the page or its checksum not
+   * having reached the disk, as well as because the write was torn.
+   * <p>
+   * The LSN goes in after the checksum, with the old one taken out first,
+   * so that whenever the OS writes the entry back a checksum that matches
+   * a page comes with the page's LSN or none.
+   */
+  private void stamp(int pid, int sum, long lsn) {
+    crcs.putLong(pid * CRC_ENTRY + 8, 0);
+    VarHandle.storeStoreFence();
+    crcs.putInt(pid * CRC_ENTRY, sum);
+    VarHandle.storeStoreFence();
+    crcs.putLong(pid * CRC_ENTRY + 8, lsn);
+  }
+  
+  /** Check a page just read into buf from position from. */
+  private void verify(int pid, ByteBuffer buf, int from)
+    throws PageChecksumException {
+    
+    int expected = crcs.getInt(pid * CRC_ENTRY);
+    if (expected == 0)
+      return;
+    int sum = checksum(buf, from);
+    if (sum != expected)
+      {
+	checksum_failures.increment();
+	throw new PageChecksumException(null, "Page " + pid + " of " + name
+					+ " has checksum " + Integer.toHexString(sum)
+					+ ", not " + Integer.toHexString(expected));
+      }
   }
   
   /** Allocate a set of pages where the run size is taken to be 1 by default.
@@ -221,7 +790,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void allocate_page(PageId start_page_num, int runsize)
+  public synchronized void allocate_page(PageId start_page_num, int runsize)
     throws OutOfSpaceException, 
 	   InvalidRunSizeException, 
 	   InvalidPageNumberException, 
@@ -230,80 +799,163 @@ public class DB implements GlobalConst {
            IOException {
 
     if(runsize < 0) throw new InvalidRunSizeException(null, "Negative run_size");
+    if(runsize == 0)
+      {
+	start_page_num.pid = 0;
+	return;
+      }
     
-    int run_size = runsize;
-    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
-    int current_run_start = 0; 
-    int current_run_length = 0;
+    if(map_free == null)
+      load_space_summary();
     
+    // Next fit: search from where the last run ended to the end of the
+    // database, then from the start.  A run cannot wrap around the end.
+    int found = find_run(alloc_cursor, num_pages, runsize);
+    if(found < 0 && alloc_cursor > 0)
+      found = find_run(0, num_pages, runsize);
+    if(found < 0)
+      throw new OutOfSpaceException(null, "No space left");
     
-    // This loop goes over each page in the space map.
+    start_page_num.pid = found;
+    set_bits(start_page_num, runsize, 1);
+    alloc_cursor = (found + runsize < num_pages) ? found + runsize : 0;
+  }
+  
+  /** Find the first run of free pages of the given length between from
+   * and to.  Space-map pages whose summary shows they cannot hold or
+   * start the run are skipped without being pinned.
+   *
+   * @return the first page of the run, or -1 if there is none
+   */
+  private int find_run(int from, int to, int run_size)
+    throws DiskMgrException {
+    
+    int run_start = 0;
+    int run_length = 0;
     PageId pgid = new PageId();
-    byte [] pagebuf;
-    int byteptr;
+    Page apage = new Page();
     
-    for(int i=0; i< num_map_pages; ++i) {// start forloop01
-	
-      pgid.pid = 1 + i;
-      // Pin the space-map page.
-      
-      Page apage = new Page();
-      pinPage(pgid, apage, false /*read disk*/);
-      
-      pagebuf = apage.getpage();
-      byteptr = 0;
-      
-      // get the num of bits on current page
-      int num_bits_this_page = num_pages - i*bits_per_page;
-      if(num_bits_this_page > bits_per_page)
-	num_bits_this_page = bits_per_page;
-      
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length.  The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      
-      for(; num_bits_this_page>0 
-	    && current_run_length < run_size; ++byteptr) {// start forloop02
-	  
-	
-	Integer intmask = new Integer(1);
-	Byte mask = new Byte(intmask.byteValue());
-	byte tmpmask = mask.byteValue();
+    for(int i = from / bits_per_page; i * bits_per_page < to; ++i)
+      {
+	int base = i * bits_per_page;
+	int num_bits_this_page = Math.min(bits_per_page, num_pages - base);
+	int first_bit = Math.max(from - base, 0);
 	
-	while (mask.intValue()!=0 && (num_bits_this_page>0)
-	       &&(current_run_length < run_size))
-	  
-	  {	      
-	    if( (pagebuf[byteptr] & tmpmask ) != 0)
+	if(first_bit == 0)
+	  {
+	    if(map_free[i] == num_bits_this_page)
+	      {
+		// All free: the run goes on through the page.
+		if(run_length == 0) run_start = base;
+		run_length += num_bits_this_page;
+		if(run_length >= run_size) return run_start;
+		continue;
+	      }
+	    if(map_lead[i] >= run_size - run_length)
+	      return (run_length == 0) ? base : run_start;
+	    if(map_longest[i] < run_size)
 	      {
-		current_run_start += current_run_length + 1;
-		current_run_length = 0;
+		// No run fits inside the page; only its last free bits can
+		// start one.
+		run_length = map_trail[i];
+		run_start = base + num_bits_this_page - run_length;
+		continue;
 	      }
-	    else ++current_run_length;
-	    
-	    
-	    tmpmask <<=1;
-	    mask = new Byte(tmpmask);
-	    --num_bits_this_page;
+	  }
+	else if(map_free[i] == 0)
+	  {
+	    run_length = 0;
+	    continue;
 	  }
 	
-	
-      }//end of forloop02
-      // Unpin the space-map page.
-      
-      unpinPage(pgid, false /*undirty*/);
-      
-    }// end of forloop01
+	// Look for the run in the page itself.
+	pgid.pid = 1 + i;
+	pinPage(pgid, apage, false /*read disk*/);
+	byte [] pagebuf = apage.getpage();
+	int p = first_bit;
+	int found = -1;
+	while(p < num_bits_this_page)
+	  {
+	    int s = next_bit(pagebuf, p, num_bits_this_page, false);
+	    if(s != p) run_length = 0;
+	    if(s == num_bits_this_page) break;
+	    int e = next_bit(pagebuf, s,
+			     Math.min(num_bits_this_page, s + run_size - run_length), true);
+	    if(run_length == 0) run_start = base + s;
+	    run_length += e - s;
+	    if(run_length >= run_size)
+	      {
+		found = run_start;
+		break;
+	      }
+	    p = e;
+	  }
+	unpinPage(pgid, false /*undirty*/);
+	if(found >= 0) return found;
+      }
+    return -1;
+  }
+  
+  /** Read every space-map page once and summarize its free runs. */
+  private void load_space_summary()
+    throws DiskMgrException {
+    
+    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
+    map_free = new int[num_map_pages];
+    map_longest = new int[num_map_pages];
+    map_lead = new int[num_map_pages];
+    map_trail = new int[num_map_pages];
     
-    if(current_run_length >= run_size)
+    PageId pgid = new PageId();
+    Page apage = new Page();
+    for(int i = 0; i < num_map_pages; ++i)
       {
-	start_page_num.pid = current_run_start;
-	set_bits(start_page_num, run_size, 1);
-	
-	return;
+	pgid.pid = 1 + i;
+	pinPage(pgid, apage, false /*read disk*/);
+	summarize(i, apage.getpage());
+	unpinPage(pgid, false /*undirty*/);
       }
-    
-    throw new OutOfSpaceException(null, "No space left");
+  }
+  
+  /** Record the free bits of space-map page i, the longest run of them
+   * and the runs it starts and ends with.
+   */
+  private void summarize(int i, byte [] pagebuf) {
+    int num_bits_this_page = Math.min(bits_per_page, num_pages - i * bits_per_page);
+    int free = 0, longest = 0, trail = 0;
+    int lead = next_bit(pagebuf, 0, num_bits_this_page, true);
+    int p = 0;
+    while(p < num_bits_this_page)
+      {
+	int s = next_bit(pagebuf, p, num_bits_this_page, false);
+	if(s == num_bits_this_page) break;
+	int e = next_bit(pagebuf, s, num_bits_this_page, true);
+	free += e - s;
+	longest = Math.max(longest, e - s);
+	trail = (e == num_bits_this_page) ? e - s : 0;
+	p = e;
+      }
+    map_free[i] = free;
+    map_longest[i] = longest;
+    map_lead[i] = lead;
+    map_trail[i] = trail;
+  }
+  
+  /** @return the first bit from from on, and before to, that is set (or
+   * clear), or to if there is none.  Goes a 64-bit word at a time.
+   */
+  private static int next_bit(byte [] pagebuf, int from, int to, boolean set) {
+    int p = from;
+    while(p < to)
+      {
+	long word = (long) MAP_WORD.get(pagebuf, (p >>> 6) << 3);
+	if(!set) word = ~word;
+	word >>>= (p & 63);
+	if(word != 0)
+	  return Math.min(to, p + Long.numberOfTrailingZeros(word));
+	p = (p | 63) + 1;
+      }
+    return to;
   }
   
   /** Deallocate a set of pages starting at the specified page number and
@@ -318,7 +970,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void deallocate_page(PageId start_page_num, int run_size)
+  public synchronized void deallocate_page(PageId start_page_num, int run_size)
     throws InvalidRunSizeException, 
 	   InvalidPageNumberException, 
 	   IOException, 
@@ -343,7 +995,7 @@ public class DB implements GlobalConst {
    * @exception DiskMgrException error caused by other layers
    * 
    */
-  public void deallocate_page(PageId start_page_num)
+  public synchronized void deallocate_page(PageId start_page_num)
     throws InvalidRunSizeException, 
 	   InvalidPageNumberException, 
 	   IOException, 
@@ -367,7 +1019,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void add_file_entry(String fname, PageId start_page_num)
+  public synchronized void add_file_entry(String fname, PageId start_page_num)
     throws FileNameTooLongException, 
 	   InvalidPageNumberException, 
 	   InvalidRunSizeException,
@@ -388,174 +1040,156 @@ public class DB implements GlobalConst {
       throw new DuplicateEntryException(null, "DB fileentry already exists");
     
     Page apage = new Page();
-    
-    boolean found = false;
-    int free_slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
     DBHeaderPage dp;
-    do
-      {// Start DO01
-	//  System.out.println("start do01");
-        hpid.pid = nexthpid.pid;
-	
-	// Pin the header page
-	pinPage(hpid, apage, false /*read disk*/);
-        
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage) dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
-	
-	nexthpid = dp.getNextPage();
-	int entry = 0;
-	
-	PageId tmppid = new PageId();
-	while(entry < dp.getNumOfEntries())
-	  {
-	    dp.getFileEntry(tmppid, entry);
-	    if(tmppid.pid == INVALID_PAGE)  break;
-	    entry ++;
-	  }
-	
-	if(entry < dp.getNumOfEntries())
-	  {
-	    free_slot = entry;
-	    found = true;
-	  }
-	else if (nexthpid.pid != INVALID_PAGE)
-	  {
-	    // We only unpin if we're going to continue looping.
-	    unpinPage(hpid, false /* undirty*/);
-	  }
-	
-      }while((nexthpid.pid != INVALID_PAGE)&&(!found)); // End of DO01
+    DirEntry slot = dir_free.poll();
     
     // Have to add a new header page if possible.
-    if(!found)
+    if(slot == null)
       {
-	try{
-	  allocate_page(nexthpid);
-	}
-	catch(Exception e){         //need rethrow an exception!!!!
-          unpinPage(hpid, false /* undirty*/);
-	  e.printStackTrace();
-	}
+	PageId nexthpid = new PageId();
+	allocate_page(nexthpid);
 	
-	// Set the next-page pointer on the previous directory page.
+	// Set the next-page pointer on the last directory page.
+	PageId hpid = new PageId(dir_last);
+	pinPage(hpid, apage, false /*read disk*/);
+	dp = header_page(hpid, apage);
 	dp.setNextPage(nexthpid);
 	unpinPage(hpid, true /* dirty*/);
 	
-	// Pin the newly-allocated directory page.
-	hpid.pid = nexthpid.pid;
-	
-	pinPage(hpid, apage, true/*no diskIO*/);
+	// Initialize the newly-allocated directory page.
+	assignPool(nexthpid, 1, metaPool);
+	pinPage(nexthpid, apage, true/*no diskIO*/);
 	dp = new DBDirectoryPage(apage);
+	unpinPage(nexthpid, true /* dirty*/);
 	
-	free_slot = 0;
+	dir_last = nexthpid.pid;
+	slot = new DirEntry(INVALID_PAGE, nexthpid.pid, 0);
+	for(int entry = 1; entry < dp.getNumOfEntries(); ++entry)
+	  dir_free.add(new DirEntry(INVALID_PAGE, nexthpid.pid, entry));
       }
     
-    // At this point, "hpid" has the page id of the header page with the free
-    // slot; "pg" points to the pinned page; "dp" has the directory_page
-    // pointer; "free_slot" is the entry number in the directory where we're
+    // "slot" has the header page and the entry number in it where we're
     // going to put the new file entry.
-    
-    dp.setFileEntry(start_page_num, fname, free_slot);
-    
+    PageId hpid = new PageId(slot.hpid);
+    pinPage(hpid, apage, false /*read disk*/);
+    dp = header_page(hpid, apage);
+    dp.setFileEntry(start_page_num, fname, slot.entry);
     unpinPage(hpid, true /* dirty*/);
     
+    dir_cache.put(fname, new DirEntry(start_page_num.pid, slot.hpid, slot.entry));
   }
   
-  /** Delete the entry corresponding to a file from the header page(s).
+  /** Adds a file entry to the header page(s), as above, and assigns the
+   * file's first page to the named buffer pool.  The file's other pages
+   * are put in the same pool by allocating them with
+   * BufMgr.newPage(page, n, pool).
    *
    * @param fname file entry name
+   * @param start_page_num the start page number of the file entry
+   * @param pool name of the buffer pool for the file
    *
-   * @exception FileEntryNotFoundException file does not exist
-   * @exception FileIOException file I/O error
-   * @exception IOException I/O errors
-   * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public void delete_file_entry(String fname)
-    throws FileEntryNotFoundException, 
-	   IOException,
-	   FileIOException,
+  public synchronized void add_file_entry(String fname, PageId start_page_num,
+					  String pool)
+    throws FileNameTooLongException, 
 	   InvalidPageNumberException, 
+	   InvalidRunSizeException,
+	   DuplicateEntryException,
+	   OutOfSpaceException,
+	   FileIOException, 
+	   IOException, 
 	   DiskMgrException {
     
-    Page apage = new Page();
-    boolean found = false;
-    int slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
-    PageId tmppid = new PageId();
-    DBHeaderPage dp;
+    add_file_entry(fname, start_page_num);
+    assignPool(start_page_num, 1, pool);
+  }
+  
+  /** Keeps the space map and the directory pages in the named buffer
+   * pool from now on, so that scans of large files in other pools do not
+   * push them out.
+   *
+   * @param pool name of the buffer pool for the metadata pages
+   *
+   * @exception IOException I/O errors
+   * @exception DiskMgrException error caused by other layers
+   */
+  public synchronized void setMetaPool(String pool)
+    throws IOException, 
+	   DiskMgrException {
     
-    do
-      { // startDO01
-        hpid.pid = nexthpid.pid;
-	
-	// Pin the header page.
-	pinPage(hpid, apage, false/*read disk*/);
-
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
+    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
+    assignPool(new PageId(0), 1 + num_map_pages, pool);
+    
+    // The directory pages after the first one are wherever they were
+    // allocated; follow the chain.
+    Page apage = new Page();
+    PageId hpid = new PageId(0);
+    while(hpid.pid != INVALID_PAGE)
+      {
+	pinPage(hpid, apage, false /*read disk*/);
+	DBHeaderPage dp;
 	if(hpid.pid==0)
 	  {
 	    dp = new DBFirstPage();
-	    ((DBFirstPage)dp).openPage(apage);
+	    ((DBFirstPage) dp).openPage(apage);
 	  }
 	else
 	  {
 	    dp = new DBDirectoryPage();
 	    ((DBDirectoryPage) dp).openPage(apage);
 	  }
-	nexthpid = dp.getNextPage();
-	
-	int entry = 0;
-	
-	String tmpname;
-	while(entry < dp.getNumOfEntries())
-	  {
-	    tmpname = dp.getFileEntry(tmppid, entry);
-	    
-	    if((tmppid.pid != INVALID_PAGE)&&
-	       (tmpname.compareTo(fname) == 0)) break; 
-	    entry ++;
-	  }
+	PageId nexthpid = dp.getNextPage();
+	unpinPage(hpid, false /* undirty*/);
 	
-        if(entry < dp.getNumOfEntries())
-	  {
-	    slot = entry;
-	    found = true;
-	  }
-	else
-	  {
-	    unpinPage(hpid, false /*undirty*/);
-	  }
-	
-      } while((nexthpid.pid != INVALID_PAGE) && (!found)); // EndDO01
+	if(nexthpid.pid != INVALID_PAGE)
+	  assignPool(nexthpid, 1, pool);
+	hpid.pid = nexthpid.pid;
+      }
     
-    if(!found)  // Entry not found - nothing deleted
+    metaPool = pool;
+  }
+  
+  /** Delete the entry corresponding to a file from the header page(s).
+   *
+   * @param fname file entry name
+   *
+   * @exception FileEntryNotFoundException file does not exist
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   * @exception InvalidPageNumberException invalid page number
+   * @exception DiskMgrException error caused by other layers
+   */
+  public synchronized void delete_file_entry(String fname)
+    throws FileEntryNotFoundException, 
+	   IOException,
+	   FileIOException,
+	   InvalidPageNumberException, 
+	   DiskMgrException {
+    
+    if(dir_cache == null)
+      load_directory();
+    
+    DirEntry de = dir_cache.get(fname);
+    if(de == null)  // Entry not found - nothing deleted
       throw new FileEntryNotFoundException(null, "DB file not found");
     
     // Have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGE;
-    dp.setFileEntry(tmppid, "\0", slot);
-    
+    Page apage = new Page();
+    PageId hpid = new PageId(de.hpid);
+    PageId tmppid = new PageId(INVALID_PAGE);
+    pinPage(hpid, apage, false/*read disk*/);
+    DBHeaderPage dp = header_page(hpid, apage);
+    dp.setFileEntry(tmppid, "\0", de.entry);
     unpinPage(hpid, true /*dirty*/);
     
+    dir_cache.remove(fname);
+    dir_free.push(new DirEntry(INVALID_PAGE, de.hpid, de.entry));
   }
   
-  /** Get the entry corresponding to the given file.
+  /** Get the entry corresponding to the given file.  The directory is
+   * read once and kept in memory, and add_file_entry and
+   * delete_file_entry write through to it, so a lookup pins no pages.
    *
    * @param name file entry name
    *
@@ -564,80 +1198,121 @@ public class DB implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public PageId get_file_entry(String name)
+  public synchronized PageId get_file_entry(String name)
     throws IOException,
 	   FileIOException,
 	   InvalidPageNumberException, 
 	   DiskMgrException {
 
-    Page apage = new Page();
-    boolean found = false;
-    int slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
-    DBHeaderPage dp;
+    if(dir_cache == null)
+      load_directory();
     
-    do
-      {// Start DO01
-	
-	// System.out.println("get_file_entry do-loop01: "+name);
-        hpid.pid = nexthpid.pid;
-	
-        // Pin the header page.
-        pinPage(hpid, apage, false /*no diskIO*/);
-	
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage) dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
-	nexthpid = dp.getNextPage();
-	
-	int entry = 0;
-	PageId tmppid = new PageId();
-	String tmpname;
-	
-	while(entry < dp.getNumOfEntries())
-	  {
-	    tmpname = dp.getFileEntry(tmppid, entry);
-	    
-	    if((tmppid.pid != INVALID_PAGE)&&
-	       (tmpname.compareTo(name) == 0)) break; 
-	    entry ++;
-	  }
-	if(entry < dp.getNumOfEntries())
+    DirEntry de = dir_cache.get(name);
+    if(de == null)  // Entry not found - don't post error, just fail.
+      return null;
+    
+    return new PageId(de.start);
+  }
+  
+  /** Read the directory pages once, recording where each file entry and
+   * each free slot is, so that the entries need not be searched again.
+   */
+  private void load_directory()
+    throws IOException,
+	   DiskMgrException {
+    
+    dir_cache = new HashMap<String, DirEntry>();
+    dir_free = new ArrayDeque<DirEntry>();
+    
+    Page apage = new Page();
+    PageId hpid = new PageId(0);
+    PageId tmppid = new PageId();
+    while(hpid.pid != INVALID_PAGE)
+      {
+	pinPage(hpid, apage, false /*read disk*/);
+	DBHeaderPage dp = header_page(hpid, apage);
+	for(int entry = 0; entry < dp.getNumOfEntries(); ++entry)
 	  {
-	    slot =  entry;
-	    found = true;
+	    String tmpname = dp.getFileEntry(tmppid, entry);
+	    DirEntry de = new DirEntry(tmppid.pid, hpid.pid, entry);
+	    if(tmppid.pid == INVALID_PAGE)
+	      dir_free.add(de);
+	    else
+	      dir_cache.putIfAbsent(tmpname, de);
 	  }
-	
+	PageId nexthpid = dp.getNextPage();
 	unpinPage(hpid, false /*undirty*/);
 	
-      }while((nexthpid.pid!=INVALID_PAGE)&&(!found));// End of DO01
-    
-    if(!found)  // Entry not found - don't post error, just fail.
-      {    
-	//  System.out.println("entry NOT found");
-	return null;
+	dir_last = hpid.pid;
+	hpid.pid = nexthpid.pid;
       }
+  }
+  
+  /** Open a pinned header page.  This complication is because the first
+   * page has a different structure from that of subsequent pages.
+   */
+  private static DBHeaderPage header_page(PageId hpid, Page apage)
+    throws IOException {
     
-    PageId startpid = new PageId();
-    dp.getFileEntry(startpid, slot);
-    return startpid;
+    if(hpid.pid==0)
+      {
+	DBFirstPage dp = new DBFirstPage();
+	dp.openPage(apage);
+	return dp;
+      }
+    DBDirectoryPage dp = new DBDirectoryPage();
+    dp.openPage(apage);
+    return dp;
   }
   
   /** Functions to return some characteristics of the database.
    */
   public String db_name(){return name;}
   public int db_num_pages(){return num_pages;}
-  public int db_page_size(){return MINIBASE_PAGESIZE;}
+  public int db_page_size(){return page_size;}
+  /** @return whether pages are checksummed */
+  public boolean db_checksums(){return checksums;}
+  /** @return the number of pages read back that failed their checksum */
+  public long checksum_failures(){return checksum_failures.sum();}
+  
+  /** Find the page size of a database without opening it, so that a
+   * buffer pool can be made for it first.
+   *
+   * @param fname DB name
+   * @return the page size in bytes
+   *
+   * @exception IOException I/O errors
+   */
+  public static int page_size(String fname)
+    throws IOException {
+    
+    try (FileChannel ch = FileChannel.open(Paths.get(fname), StandardOpenOption.READ)) {
+      return page_size(ch);
+    }
+  }
+  
+  /** The first page ends with the page size and the number of pages.  To
+   * read it the page size has to be known, so try each possible size
+   * until one agrees with itself and with the length of the file.  A
+   * database from before the page size was recorded has the default.
+   */
+  private static int page_size(FileChannel ch)
+    throws IOException {
+    
+    long length = ch.size();
+    ByteBuffer tail = ByteBuffer.allocate(8);
+    for(int size = MINIBASE_PAGESIZE; size <= MAX_PAGESIZE; size *= 2)
+      {
+	if(length < size || length % size != 0)
+	  continue;
+	tail.clear();
+	while(tail.hasRemaining() && ch.read(tail, size - 8 + tail.position()) > 0)
+	  ;
+	if(tail.getInt(0) == size && (long)tail.getInt(4) * size == length)
+	  return size;
+      }
+    return MINIBASE_PAGESIZE;
+  }
   
   /** Print out the space map of the database.
    * The space map is a bitmap showing which
@@ -719,9 +1394,51 @@ public class DB implements GlobalConst {
       
     }
   
-  private RandomAccessFile fp;
+  private FileChannel fp;
+  private final Object runLock = new Object();
+  private final Object ioLock = new Object();
+  private boolean mapped = false;
+  
+  /** The checksum file, mapped: an entry for each page, holding its
+   * checksum, 0 for none, and at 8 the LSN it was written with. */
+  private static final String CRC_SUFFIX = ".crc";
+  private static final int CRC_ENTRY = 16;
+  private boolean checksums = false;
+  private FileChannel crc_fp;
+  private MappedByteBuffer crcs;
+  private final LongAdder checksum_failures = new LongAdder();
+  private volatile MappedByteBuffer[] maps;
+  private volatile AsyncPageIO asyncIO;
+  
+  /** For each space-map page, its free pages, the longest run of them,
+   * and the runs at its start and end; null until the first allocation.
+   */
+  private int [] map_free, map_longest, map_lead, map_trail;
+  /** Where the next search for free pages starts. */
+  private int alloc_cursor = 0;
   private int num_pages = 100;
+  private int page_size = MINIBASE_PAGESIZE;
+  private int bits_per_page = MINIBASE_PAGESIZE * 8;
   private String name;
+  private String metaPool = BufMgr.DEFAULT_POOL;
+  
+  /** Where a file entry, or a free slot for one, is in the directory. */
+  private static class DirEntry {
+    final int start, hpid, entry;
+    DirEntry(int start, int hpid, int entry) {
+      this.start = start;
+      this.hpid = hpid;
+      this.entry = entry;
+    }
+  }
+  
+  /** The file entries by name, and the free slots, in directory order;
+   * null until the directory is first used.
+   */
+  private HashMap<String, DirEntry> dir_cache;
+  private ArrayDeque<DirEntry> dir_free;
+  /** The last directory page. */
+  private int dir_last = 0;
   
   
   /** Set runsize bits starting from start to value specified
@@ -735,74 +1452,42 @@ public class DB implements GlobalConst {
     if((start_page.pid<0) || (start_page.pid+run_size > num_pages))
       throw new InvalidPageNumberException(null, "Bad page number");
     
-    // Locate the run within the space map.
-    int first_map_page = start_page.pid/bits_per_page + 1;
-    int last_map_page = (start_page.pid+run_size-1)/bits_per_page +1;
-    int first_bit_no = start_page.pid % bits_per_page;
+    int first = start_page.pid;
+    int last = start_page.pid + run_size;
     
     // The outer loop goes over all space-map pages we need to touch.
-    
-    for(PageId pgid = new PageId(first_map_page);
-	pgid.pid <= last_map_page;
-	pgid.pid = pgid.pid+1, first_bit_no = 0)
+    Page pg = new Page();
+    PageId pgid = new PageId();
+    while(first < last)
       {//Start forloop01
 	
-        // Pin the space-map page.
-	Page pg = new Page();
-	
+	int i = first / bits_per_page;
+	int base = i * bits_per_page;
+	int end = Math.min(last, base + bits_per_page);
 	
+        // Pin the space-map page.
+	pgid.pid = i + 1;
 	pinPage(pgid, pg, false/*no diskIO*/);
-	
-	
 	byte [] pgbuf = pg.getpage();
 	
-	// Locate the piece of the run that fits on this page.
-	int first_byte_no = first_bit_no/8;
-	int first_bit_offset = first_bit_no%8;
-	int last_bit_no = first_bit_no + run_size -1;
-	
-	if(last_bit_no >= bits_per_page )
-	  last_bit_no = bits_per_page - 1;
-	
-        int last_byte_no = last_bit_no / 8;
-        
-	// This loop actually flips the bits on the current page.
-	int cur_posi = first_byte_no;
-	for(;cur_posi <= last_byte_no; ++cur_posi, first_bit_offset=0)
+	// This loop flips the bits of the run on the current page, a 64-bit
+	// word at a time.
+	for(int b = first - base; b < end - base; b = (b | 63) + 1)
 	  {//start forloop02
-	    
-	    int max_bits_this_byte = 8 - first_bit_offset;
-	    int num_bits_this_byte = (run_size > max_bits_this_byte?
-				      max_bits_this_byte : run_size);
-	    
-            int imask =1;
-	    int temp;
-	    imask = ((imask << num_bits_this_byte) -1)<<first_bit_offset;
-	    Integer intmask = new Integer(imask);
-	    Byte mask = new Byte(intmask.byteValue());
-	    byte bytemask = mask.byteValue();
-	    
-	    if(bit==1)
-	      {
-	        temp = (pgbuf[cur_posi] | bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    else
-	      {
-		
-		temp = pgbuf[cur_posi] & (255^bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    run_size -= num_bits_this_byte;
-	    
+	    int n = Math.min(end - base, (b | 63) + 1) - b;
+	    long mask = (-1L >>> (64 - n)) << (b & 63);
+	    int off = (b >>> 6) << 3;
+	    long word = (long) MAP_WORD.get(pgbuf, off);
+	    MAP_WORD.set(pgbuf, off, (bit == 1) ? (word | mask) : (word & ~mask));
 	  }//end of forloop02
 	
-	// Unpin the space-map page.
+	if(map_free != null)
+	  summarize(i, pgbuf);
 	
+	// Unpin the space-map page.
 	unpinPage(pgid, true /*dirty*/);
 	
+	first = end;
       }//end of forloop01
     
   }
@@ -838,6 +1523,22 @@ public class DB implements GlobalConst {
     }
 
   } // end of unpinPage
+
+  /**
+   * short cut to access the assignPool function in bufmgr package.
+   * @see bufmgr.assignPool
+   */
+  private void assignPool(PageId first, int n, String pool)
+    throws DiskMgrException {
+
+    try {
+      SystemDefs.JavabaseBM.assignPool(first, n, pool);
+    }
+    catch (Exception e) {
+      throw new DiskMgrException(e,"DB.java: assignPool() failed");
+    }
+
+  } // end of assignPool
   
   
 }//end of DB class
@@ -848,7 +1549,7 @@ public class DB implements GlobalConst {
 interface PageUsedBytes
 {
   int DIR_PAGE_USED_BYTES = 8 + 8;
-  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 8;
 }
 
 /** Super class of the directory page and first page
@@ -884,7 +1585,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
       
       PageId temppid = getNextPage();
       
-      int num_entries  = (MAX_SPACE - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
+      int num_entries  = (data.length - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
       setNumOfEntries(num_entries);
       
       for ( int index=0; index < num_entries; ++index )
@@ -987,7 +1688,11 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
  */
 class DBFirstPage extends DBHeaderPage {
 
-  protected static final int NUM_DB_PAGE = MINIBASE_PAGESIZE -4;
+  /** The number of pages and the page size are at the end of the page,
+   * wherever that is.
+   */
+  protected int num_db_page() { return data.length - 4; }
+  protected int db_page_size() { return data.length - 8; }
   
   /**
    * Default construtor 
@@ -1022,7 +1727,7 @@ class DBFirstPage extends DBHeaderPage {
   public void setNumDBPages(int num)
     throws IOException	
     {
-      Convert.setIntValue (num, NUM_DB_PAGE, data);
+      Convert.setIntValue (num, num_db_page(), data);
     }
   
   /**
@@ -1033,9 +1738,20 @@ class DBFirstPage extends DBHeaderPage {
   public int getNumDBPages()
     throws IOException {
 
-    return (Convert.getIntValue(NUM_DB_PAGE, data));
+    return (Convert.getIntValue(num_db_page(), data));
   }
   
+  /**
+   * set the page size of the DB
+   * @param size the page size in bytes
+   * @exception IOException I/O errors
+   */
+  public void setDBPageSize(int size)
+    throws IOException	
+    {
+      Convert.setIntValue (size, db_page_size(), data);
+    }
+  
 }
 
 /**
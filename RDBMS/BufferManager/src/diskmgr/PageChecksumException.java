@@ -0,0 +1,14 @@
+package diskmgr;
+import chainexception.*;
+
+/**
+ * A page read back from the DB file does not match the checksum it was
+ * written with: the write was torn or the file was corrupted since.
+ */
+public class PageChecksumException extends FileIOException {
+  
+  public PageChecksumException(Exception e, String name)
+    { 
+      super(e, name); 
+    }
+}
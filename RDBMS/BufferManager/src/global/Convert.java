@@ -4,9 +4,27 @@ package global;
 
 import java.io.*;
 import java.lang.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Reads and writes values in byte arrays, in the big-endian format of
+ * java.io.DataInput and DataOutput, through array views rather than
+ * streams, so that a field access allocates nothing.  Strings are in
+ * modified UTF-8 as DataOutput.writeUTF writes them; plain ASCII strings
+ * are copied directly, others still go through the streams.
+ */
 public class Convert{
  
+  private static final VarHandle INT =
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle SHORT =
+    MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle CHAR =
+    MethodHandles.byteArrayViewVarHandle(char[].class, ByteOrder.BIG_ENDIAN);
+ 
  /**
  * read 4 bytes from given byte array at the specified position
  * convert it to an integer
@@ -18,22 +36,7 @@ public class Convert{
   public static int getIntValue (int position, byte []data)
    throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      int value;
-      byte tmp[] = new byte[4];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 4);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readInt();  
-      
-      return value;
+      return (int) INT.get(data, position);
     }
   
   /**
@@ -47,22 +50,7 @@ public class Convert{
   public static float getFloValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      float value;
-      byte tmp[] = new byte[4];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 4);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readFloat();  
-      
-      return value;
+      return Float.intBitsToFloat((int) INT.get(data, position));
     }
   
   
@@ -77,22 +65,7 @@ public class Convert{
   public static short getShortValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      short value;
-      byte tmp[] = new byte[2];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 2);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readShort();
-      
-      return value;
+      return (short) SHORT.get(data, position);
     }
   
   /**
@@ -108,21 +81,21 @@ public class Convert{
   public static String getStrValue (int position, byte []data, int length)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      String value;
-      byte tmp[] = new byte[length];  
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, length);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readUTF();
-      return value;
+      int utflen = Short.toUnsignedInt((short) SHORT.get(data, position));
+      if (utflen > length - 2)
+	throw new EOFException();
+      
+      // ASCII needs no decoding; anything else is left to the stream.
+      for (int i = position + 2; i < position + 2 + utflen; i++)
+	{
+	  if (data[i] < 0)
+	    {
+	      DataInputStream instr = new DataInputStream
+		(new ByteArrayInputStream(data, position, length));
+	      return instr.readUTF();
+	    }
+	}
+      return new String(data, position + 2, utflen, StandardCharsets.ISO_8859_1);
     }
   
   /**
@@ -136,20 +109,7 @@ public class Convert{
   public static char getCharValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      char value;
-      byte tmp[] = new byte[2];
-      // copy the value from data array out to a tmp byte array  
-      System.arraycopy (data, position, tmp, 0, 2);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readChar();
-      return value;
+      return (char) CHAR.get(data, position);
     }
   
   
@@ -163,24 +123,7 @@ public class Convert{
   public static void setIntValue (int value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeInt(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 4 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 4);
-      
+      INT.set(data, position, value);
     }
   
   /**
@@ -193,24 +136,8 @@ public class Convert{
   public static void setFloValue (float value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeFloat(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 4 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 4);
-      
+      // floatToIntBits, as DataOutput.writeFloat, so NaNs are written alike.
+      INT.set(data, position, Float.floatToIntBits(value));
     }
   
   /**
@@ -223,24 +150,7 @@ public class Convert{
   public static void setShortValue (short value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeShort(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 2 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 2);
-      
+      SHORT.set(data, position, value);
     }
   
   /**
@@ -254,24 +164,30 @@ public class Convert{
  public static void setStrValue (String value, int position, byte []data)
         throws java.io.IOException
  {
-  /* creates a new data output stream to write data to
-   * underlying output stream
-   */
- 
-   OutputStream out = new ByteArrayOutputStream();
-   DataOutputStream outstr = new DataOutputStream (out);
-   
-   // write the value to the output stream
-   
-   outstr.writeUTF(value);
-   // creates a byte array with this output stream size and the 
-   // valid contents of the buffer have been copied into it
-   byte []B = ((ByteArrayOutputStream) out).toByteArray();
+   int strlen = value.length();
    
-   int sz =outstr.size();  
-   // copies the contents of this byte array into data[]
-   System.arraycopy (B, 0, data, position, sz);
+   // ASCII other than NUL is written as is; anything else, or a string
+   // too long to encode, is left to the stream.
+   boolean ascii = strlen <= 65535;
+   for (int i = 0; ascii && i < strlen; i++)
+     {
+       char c = value.charAt(i);
+       ascii = (c >= 0x01 && c <= 0x7f);
+     }
+   if (!ascii)
+     {
+       ByteArrayOutputStream out = new ByteArrayOutputStream();
+       DataOutputStream outstr = new DataOutputStream (out);
+       outstr.writeUTF(value);
+       System.arraycopy (out.toByteArray(), 0, data, position, outstr.size());
+       return;
+     }
    
+   if (position + 2 + strlen > data.length)
+     throw new ArrayIndexOutOfBoundsException(position + 2 + strlen);
+   SHORT.set(data, position, (short) strlen);
+   for (int i = 0; i < strlen; i++)
+     data[position + 2 + i] = (byte) value.charAt(i);
  }
   
   /**
@@ -284,22 +200,6 @@ public class Convert{
   public static void setCharValue (char value, int position, byte []data)
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      outstr.writeChar(value);  
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies contents of this byte array into data[]
-      System.arraycopy (B, 0, data, position, 2);
-      
+      CHAR.set(data, position, value);
     }
 }
@@ -5,13 +5,20 @@ public interface GlobalConst {
   public static final int MINIBASE_MAXARRSIZE = 50;
   public static final int NUMBUF = 50;
 
-  /** Size of page. */
+  /** Size of page, unless the database was created with another. */
   public static final int MINIBASE_PAGESIZE = 1024;           // in bytes
 
+  /** Largest page size a database can be created with. */
+  public static final int MAX_PAGESIZE = 65536;               // in bytes
+
   /** Size of each frame. */
   public static final int MINIBASE_BUFFER_POOL_SIZE = 1024;   // in Frames
 
-  public static final int MAX_SPACE = 1024;   // in Frames
+  /**
+   * Bytes of a page of the default size.  A database may have been
+   * created with larger pages; Page.getPageSize() gives the size in use.
+   */
+  public static final int MAX_SPACE = MINIBASE_PAGESIZE;   // in bytes
   
   /**
    * in Pages => the DBMS Manager tells the DB how much disk 
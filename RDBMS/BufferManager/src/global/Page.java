@@ -17,7 +17,7 @@ public class Page implements GlobalConst{
   
   public Page()  
     {
-      data = new byte[MAX_SPACE];
+      data = new byte[page_size];
       
     }
   
@@ -48,10 +48,35 @@ public class Page implements GlobalConst{
       data = array;
     }
   
+  /**
+   * return the size of the pages of the database in use
+   * @return 	the page size in bytes
+   */
+  public static int getPageSize()
+    {
+      return page_size;
+    }
+  
+  /**
+   * set the size of new pages; SystemDefs does this when it creates or
+   * opens a database, before there are any pages
+   * @param 	size	the page size in bytes, a power of two from
+   *			MINIBASE_PAGESIZE to MAX_PAGESIZE
+   */
+  static void setPageSize(int size)
+    {
+      if (size < MINIBASE_PAGESIZE || size > MAX_PAGESIZE
+	  || Integer.bitCount(size) != 1)
+	throw new IllegalArgumentException("Bad page size: " + size);
+      page_size = size;
+    }
+  
   /**
    * private field: An array of bytes 
    * 
    */
   protected byte [] data;
   
+  private static volatile int page_size = MINIBASE_PAGESIZE;
+  
 }
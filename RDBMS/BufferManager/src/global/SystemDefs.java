@@ -2,16 +2,30 @@ package global;
 
 import bufmgr.*;
 import diskmgr.*;
+import logmgr.*;
 //import catalog.*;
 
 public class SystemDefs {
   public static BufMgr	JavabaseBM;
   public static DB	JavabaseDB;
+  public static LogMgr	JavabaseLog;
 //  public static Catalog	JavabaseCatalog;
   
   public static String  JavabaseDBName;
   public static String  JavabaseLogName;
   public static boolean MINIBASE_RESTART_FLAG = false;
+  /** Keep the buffer pool's frames off the Java heap. */
+  public static boolean MINIBASE_OFFHEAP_POOL = false;
+  /** Map the database file into memory instead of reading and writing it. */
+  public static boolean MINIBASE_MAPPED_DB = false;
+  /** Checksum the pages of the databases created from now on. */
+  public static boolean MINIBASE_CHECKSUMS = false;
+  /** Page size of the databases created from now on, in bytes. */
+  public static int MINIBASE_PAGE_SIZE = GlobalConst.MINIBASE_PAGESIZE;
+  /** Keep a write-ahead log of transactions in JavabaseLogName + ".log". */
+  public static boolean MINIBASE_LOGGING = false;
+  /** Log pages written between checkpoints, 0 for none. */
+  public static int MINIBASE_CHECKPOINT_INTERVAL = 64;
   public static String	MINIBASE_DBNAME;
   
   public SystemDefs (){};
@@ -53,8 +67,35 @@ public class SystemDefs {
 //      JavabaseCatalog = null;
       
       try {
-	JavabaseBM = new BufMgr(bufpoolsize, replacement_policy);
-	JavabaseDB = new DB();
+	if (JavabaseLog != null) {
+	  JavabaseLog.close();
+	  JavabaseLog = null;
+	}
+	
+
+	// The pages in the pool must be the size of those in the database.
+	if ((MINIBASE_RESTART_FLAG)||(num_pgs == 0))
+	  Page.setPageSize(DB.page_size(dbname));
+	else
+	  Page.setPageSize(MINIBASE_PAGE_SIZE);
+	
+	JavabaseBM = new BufMgr(bufpoolsize, replacement_policy,
+				MINIBASE_OFFHEAP_POOL);
+	JavabaseDB = new DB(MINIBASE_MAPPED_DB, MINIBASE_CHECKSUMS);
+	
+	// The log lives as long as the database: a new one for a new
+	// database, the old one for a database being reopened, with the
+	// size limit it was created with.
+	if (MINIBASE_LOGGING) {
+	  if ((MINIBASE_RESTART_FLAG)||(num_pgs == 0))
+	    JavabaseLog = new LogMgr(logname + ".log", false, 0);
+	  else
+	    JavabaseLog = new LogMgr(logname + ".log", true,
+				     (long) maxlogsize * Page.getPageSize());
+	}
+	if (JavabaseLog != null)
+	  JavabaseLog.setCheckpointInterval((long) MINIBASE_CHECKPOINT_INTERVAL
+					    * Page.getPageSize());
 
 	/*
 	JavabaseCatalog = new Catalog(); 
@@ -75,6 +116,9 @@ public class SystemDefs {
       if ((MINIBASE_RESTART_FLAG)||(num_pgs == 0)){//open an existing database
 	try {
 	  JavabaseDB.openDB(dbname);
+	  // Bring the database back to its last committed state.
+	  if (JavabaseLog != null)
+	    new RecoveryMgr(JavabaseLog, JavabaseBM).recover();
 	}
 	catch (Exception e) {
 	  System.err.println (""+e);
@@ -0,0 +1,17 @@
+package logmgr;
+import chainexception.*;
+
+/**
+ * The log has reached its size limit, and a checkpoint could not reclaim
+ * enough of it: a transaction in progress still needs its old records.
+ */
+public class LogFullException extends LogMgrException {
+
+  public LogFullException(Exception e, String name)
+  
+  { 
+    super(e, name); 
+  }
+
+
+}
@@ -0,0 +1,761 @@
+package logmgr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import global.*;
+import bufmgr.BufMgr;
+import chainexception.ChainException;
+
+/**
+ * The write-ahead log.  Records are appended to a buffer in memory and
+ * reach the log file when some caller needs them durable: a commit, or
+ * the buffer manager about to write a page changed by logged updates.
+ * An LSN is the offset of a record in the log as if it were never cut
+ * short; the file holds the log from its start LSN on.
+ * <p>
+ * Forcing the log is a group commit.  One caller at a time writes out
+ * everything appended so far and forces it to disk; callers that need
+ * the log forced meanwhile wait for that force if it covers them, and
+ * otherwise one of them does the next, for all of them at once.  So
+ * however many transactions commit together, the log is forced about
+ * once per disk sync, not once per commit.
+ * <p>
+ * A client changing a page under a transaction pins the page, logs the
+ * change with update before making it, and passes the LSN to BufMgr.unpinPage, which
+ * makes sure the log is forced at least that far before the page is
+ * written.  The page must be unpinned so before the transaction commits
+ * or aborts.
+ * <p>
+ * A checkpoint is fuzzy: it logs the transactions in progress and the
+ * buffer manager's dirty page table without writing any page, and the
+ * file header keeps the LSN of the last one as the master record.
+ * RecoveryMgr starts from there after a crash, so it reads about a
+ * checkpoint interval of log, whatever the size of the database.
+ * <p>
+ * Recovery never needs the log before the oldest of the checkpoint, the
+ * first change to a dirty page, and the first record of a transaction in
+ * progress, so a checkpoint reclaims it: once that part is as big as the
+ * rest, or the log is over half its size limit, the rest is copied to a
+ * new file that replaces the old one.  The limit holds for records that
+ * start or extend a transaction; when one would go past it, the dirty
+ * pages are written out and a checkpoint taken to make room.  Commits,
+ * aborts and checkpoints are always logged, so a transaction can always
+ * end and recovery always finish.
+ */
+public class LogMgr implements GlobalConst {
+
+  /** Bytes at the start of the file before the first record. */
+  private static final int FILE_HEADER = 32;
+  private static final int MAGIC = 0x4d42574c;
+  /** Where the header keeps the LSN of the last checkpoint. */
+  private static final int MASTER = 8;
+  /** Where the header keeps the LSN of the first record in the file. */
+  private static final int START = 16;
+  /** Where the header keeps the size limit of the log. */
+  private static final int LIMIT = 24;
+
+  private final String name;
+  /** Replaced, with startLSN, when the log is compacted. */
+  private volatile FileChannel fp;
+  /** The LSN of the first record in the file, at FILE_HEADER. */
+  private volatile long startLSN;
+  /**
+   * Held to read or write the file, and exclusively to replace it with a
+   * compacted one.
+   */
+  private final ReentrantReadWriteLock fileLock;
+  /** Bytes of log from startLSN past which transactions log no more, 0 for none. */
+  private final long maxSize;
+
+  private final ReentrantLock lock;
+  private final Condition forced;
+
+  /** Records appended and not yet handed to a force, from tailStart. */
+  private ByteBuffer tail;
+  /** The buffer written by the last force, kept for reuse. */
+  private ByteBuffer spare;
+  private long tailStart;
+  private long endLSN;
+  /** Everything before this is on disk. */
+  private long flushedLSN;
+  private boolean forcing;
+  private IOException failure;
+
+  /** The first and last record of each transaction in progress. */
+  private final HashMap<Integer, long[]> active;
+  private int nextTxn;
+
+  /** The last checkpoint, or the first LSN if there was none. */
+  private long checkpointLSN;
+  /** Log bytes after which a commit takes a checkpoint, 0 for never. */
+  private long checkpointInterval;
+  private final ReentrantLock checkpointLock;
+
+  private long numCommits;
+  private long numForces;
+
+  /**
+   * Create a log, or open the log of a database that is being reopened.
+   * The end of an existing log is after its last whole record; a record
+   * torn by a crash is cut off.  It is found by reading on from the last
+   * checkpoint, which also gives the next transaction number.
+   *
+   * @param fname the log file.
+   * @param create whether to start an empty log, dropping any old one.
+   * @param maxSize bytes of log past which transactions log no more, 0
+   * for no limit; for an existing log, 0 keeps the limit it has.
+   * @throws IOException if the log file cannot be read or written.
+   */
+  public LogMgr(String fname, boolean create, long maxSize) throws IOException {
+    this.name = fname;
+    this.lock = new ReentrantLock();
+    this.forced = lock.newCondition();
+    this.fileLock = new ReentrantReadWriteLock();
+    this.tail = ByteBuffer.allocate(4 * MINIBASE_PAGESIZE);
+    this.spare = ByteBuffer.allocate(4 * MINIBASE_PAGESIZE);
+    this.active = new HashMap<>();
+    this.nextTxn = 1;
+    this.checkpointLock = new ReentrantLock();
+
+    if (create == true) {
+      new File(fname).delete();
+    }
+    // Left by a compaction cut short; the log it was made from is whole.
+    new File(fname + ".tmp").delete();
+    fp = FileChannel.open(Paths.get(fname), StandardOpenOption.READ,
+                          StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+    if (fp.size() < FILE_HEADER) {
+      startLSN = FILE_HEADER;
+      this.maxSize = maxSize;
+      endLSN = startLSN;
+      checkpointLSN = startLSN;
+      header.putInt(0, MAGIC);
+      header.putLong(START, startLSN);
+      header.putLong(LIMIT, maxSize);
+      writeFully(header, 0);
+      fp.truncate(FILE_HEADER);
+      fp.force(true);
+    } else {
+      readFully(header, 0);
+      if (header.getInt(0) != MAGIC) {
+        fp.close();
+        throw new IOException(fname + " is not a log");
+      }
+      startLSN = header.getLong(START);
+      this.maxSize = (maxSize > 0) ? maxSize : header.getLong(LIMIT);
+      long master = header.getLong(MASTER);
+      LogRecord ckpt = (master >= startLSN) ? readRecord(master) : null;
+      if (ckpt != null && ckpt.getType() == LogRecord.CHECKPOINT) {
+        checkpointLSN = master;
+        nextTxn = ByteBuffer.wrap(ckpt.getAfter()).getInt(8);
+      } else {
+        checkpointLSN = startLSN;
+      }
+      endLSN = checkpointLSN;
+      for (LogRecord rec = readRecord(endLSN); rec != null; rec = readRecord(endLSN)) {
+        nextTxn = Math.max(nextTxn, rec.getTxn() + 1);
+        endLSN = rec.getNextLSN();
+      }
+      fp.truncate(pos(endLSN));
+      if (this.maxSize != header.getLong(LIMIT)) {
+        ByteBuffer limit = ByteBuffer.allocate(8);
+        limit.putLong(0, this.maxSize);
+        writeFully(limit, LIMIT);
+        fp.force(false);
+      }
+    }
+    tailStart = endLSN;
+    flushedLSN = endLSN;
+  }
+
+  /**
+   * Start a transaction.
+   *
+   * @return its number.
+   */
+  public int begin() throws IOException, LogMgrException {
+    reserve(LogRecord.HEADER_SIZE + LogRecord.TRAILER_SIZE);
+    lock.lock();
+    try {
+      int txn = nextTxn;
+      nextTxn = nextTxn + 1;
+      long lsn = append(new LogRecord(LogRecord.BEGIN, txn, 0, 0, INVALID_PAGE, 0,
+                                      new byte[0], new byte[0]));
+      active.put(txn, new long[] { lsn, lsn });
+      return txn;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Log a change a transaction is about to make to a page, which the
+   * caller must have pinned already and keep pinned until it unpins it
+   * with the LSN: recovery takes a page written with an LSN to hold every
+   * change logged before it.
+   * <p>
+   * The images are physical and of the same length: the change replaces
+   * bytes with as many others.  A change that moves bytes about is logged
+   * as one image of the whole range it touches.
+   *
+   * @param txn the transaction.
+   * @param pageno the page.
+   * @param offset where in the page the change is.
+   * @param before the bytes there now.
+   * @param after the bytes there will be.
+   * @return the LSN of the record, to pass to BufMgr.unpinPage.
+   */
+  public long update(int txn, PageId pageno, int offset, byte[] before, byte[] after)
+    throws IOException, LogMgrException {
+    if (before.length != after.length) {
+      throw new IllegalArgumentException("Images of " + before.length
+                                         + " and " + after.length + " bytes");
+    }
+    reserve(LogRecord.HEADER_SIZE + before.length + after.length + LogRecord.TRAILER_SIZE);
+    lock.lock();
+    try {
+      long[] t = entryOf(txn);
+      t[1] = append(new LogRecord(LogRecord.UPDATE, txn, t[1], 0, pageno.pid,
+                                  offset, before.clone(), after.clone()));
+      return t[1];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Commit a transaction: log the commit, and return once the log is on
+   * disk up to it.
+   *
+   * @param txn the transaction.
+   * @return the LSN of the commit record.
+   */
+  public long commit(int txn) throws IOException, LogMgrException {
+    long lsn;
+    boolean due;
+    lock.lock();
+    try {
+      lsn = append(new LogRecord(LogRecord.COMMIT, txn, entryOf(txn)[1], 0,
+                                 INVALID_PAGE, 0, new byte[0], new byte[0]));
+      active.remove(txn);
+      numCommits = numCommits + 1;
+      due = checkpointInterval > 0 && endLSN - checkpointLSN >= checkpointInterval;
+    } finally {
+      lock.unlock();
+    }
+    flush(lsn);
+    if (due == true && checkpointLock.tryLock()) {
+      try {
+        takeCheckpoint();
+      } finally {
+        checkpointLock.unlock();
+      }
+    }
+    return lsn;
+  }
+
+  /**
+   * Roll a transaction back: undo its updates, newest first, through the
+   * buffer manager, logging each undo, then log its end.
+   *
+   * @param txn the transaction.
+   */
+  public void abort(int txn) throws IOException, ChainException {
+    long last;
+    lock.lock();
+    try {
+      last = entryOf(txn)[1];
+    } finally {
+      lock.unlock();
+    }
+    new RecoveryMgr(this, SystemDefs.JavabaseBM).undo(Collections.singletonMap(txn, last));
+  }
+
+  /**
+   * Log the undo of an update by a transaction being rolled back.
+   *
+   * @param undone the update.
+   * @return the LSN of the compensation record.
+   */
+  long compensate(LogRecord undone) throws IOException, LogMgrException {
+    lock.lock();
+    try {
+      long[] t = entryOf(undone.getTxn());
+      t[1] = append(new LogRecord(LogRecord.CLR, undone.getTxn(), t[1],
+                                  undone.getPrevLSN(), undone.getPageNo(),
+                                  undone.getOffset(), new byte[0], undone.getBefore()));
+      return t[1];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Log the end of a transaction whose updates are all undone. */
+  void aborted(int txn) throws IOException, LogMgrException {
+    lock.lock();
+    try {
+      append(new LogRecord(LogRecord.ABORT, txn, entryOf(txn)[1], 0,
+                           INVALID_PAGE, 0, new byte[0], new byte[0]));
+      active.remove(txn);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Take a transaction found in progress at a crash back in, so that it
+   * can be rolled back.
+   */
+  void resume(int txn, long firstLSN, long lastLSN) {
+    lock.lock();
+    try {
+      active.put(txn, new long[] { firstLSN, lastLSN });
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Make sure a record that starts or extends a transaction fits under
+   * the size limit, writing out the dirty pages and taking a checkpoint
+   * to reclaim log space if it does not.
+   *
+   * @param size the size of the record.
+   * @throws LogFullException if the log is still full; the log before the
+   * first record of the oldest transaction in progress cannot be reclaimed.
+   */
+  private void reserve(int size) throws IOException, LogMgrException {
+    if (hasRoom(size) == true) {
+      return;
+    }
+    BufMgr bm = SystemDefs.JavabaseBM;
+    if (bm != null) {
+      try {
+        bm.flushAllPages();
+      } catch (ChainException e) {
+        throw new LogMgrException(e, "Could not write pages to make room in the log");
+      }
+    }
+    checkpoint();
+    if (hasRoom(size) == false) {
+      throw new LogFullException(null, "The log " + name + " is full");
+    }
+  }
+
+  /** @return whether a record of a given size fits under the size limit. */
+  private boolean hasRoom(int size) {
+    lock.lock();
+    try {
+      return maxSize <= 0 || endLSN + size - startLSN <= maxSize;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the first and last record of a transaction in progress;
+   * under the lock.
+   */
+  private long[] entryOf(int txn) throws LogMgrException {
+    long[] t = active.get(txn);
+    if (t == null) {
+      throw new LogMgrException(null, "No transaction " + txn + " in progress");
+    }
+    return t;
+  }
+
+  /**
+   * Take a fuzzy checkpoint: log the transactions in progress and the
+   * dirty page table, force the log, and make the checkpoint the master
+   * record.  Pages are not written, but those written already are
+   * forced to disk.
+   *
+   * @return the LSN of the checkpoint record.
+   */
+  public long checkpoint() throws IOException, LogMgrException {
+    checkpointLock.lock();
+    try {
+      return takeCheckpoint();
+    } finally {
+      checkpointLock.unlock();
+    }
+  }
+
+  /** Take a checkpoint; under the checkpoint lock. */
+  private long takeCheckpoint() throws IOException, LogMgrException {
+    // The transactions are taken before the dirty pages.  A change
+    // logged before the checkpoint begins and missing from the table
+    // belongs to one of them, since pages are unpinned before commit.
+    long begin;
+    ArrayList<long[]> txns = new ArrayList<>();
+    lock.lock();
+    try {
+      begin = endLSN;
+      for (Map.Entry<Integer, long[]> e : active.entrySet()) {
+        txns.add(new long[] { e.getKey(), e.getValue()[0], e.getValue()[1] });
+      }
+    } finally {
+      lock.unlock();
+    }
+    Map<Integer, Long> dirty = (SystemDefs.JavabaseBM == null)
+        ? Collections.<Integer, Long>emptyMap()
+        : SystemDefs.JavabaseBM.getDirtyPageTable();
+    // A page written before the table was taken is not in it, so recovery
+    // from this checkpoint may not redo it: it has to be on disk, and its
+    // checksum with it.
+    if (SystemDefs.JavabaseDB != null)
+      SystemDefs.JavabaseDB.syncDB();
+
+    // Recovery from this checkpoint reads nothing before keep.
+    long keep = begin;
+    ByteBuffer tables = ByteBuffer.allocate(8 + 4 + 4 + 20 * txns.size() + 4 + 12 * dirty.size());
+    tables.putLong(begin);
+    tables.putInt(0);
+    tables.putInt(txns.size());
+    for (long[] t : txns) {
+      tables.putInt((int) t[0]);
+      tables.putLong(t[1]);
+      tables.putLong(t[2]);
+      keep = Math.min(keep, t[1]);
+    }
+    tables.putInt(dirty.size());
+    for (Map.Entry<Integer, Long> e : dirty.entrySet()) {
+      tables.putInt(e.getKey());
+      tables.putLong(e.getValue());
+      keep = Math.min(keep, e.getValue());
+    }
+
+    long lsn;
+    boolean compact;
+    lock.lock();
+    try {
+      // Every transaction numbered from here on begins after the checkpoint.
+      tables.putInt(8, nextTxn);
+      lsn = append(new LogRecord(LogRecord.CHECKPOINT, 0, 0, 0, INVALID_PAGE, 0,
+                                 new byte[0], tables.array()));
+      long dead = keep - startLSN;
+      compact = dead > 0 && (dead >= endLSN - keep
+                             || (maxSize > 0 && endLSN - startLSN > maxSize / 2));
+    } finally {
+      lock.unlock();
+    }
+    flush(lsn);
+    if (compact == true) {
+      compact(keep, lsn);
+    } else {
+      fileLock.readLock().lock();
+      try {
+        ByteBuffer master = ByteBuffer.allocate(8);
+        master.putLong(0, lsn);
+        writeFully(master, MASTER);
+        fp.force(false);
+      } finally {
+        fileLock.readLock().unlock();
+      }
+    }
+    lock.lock();
+    try {
+      checkpointLSN = lsn;
+    } finally {
+      lock.unlock();
+    }
+    return lsn;
+  }
+
+  /**
+   * Reclaim the log before an LSN: copy the rest of the file after a new
+   * header to a new file, and rename that over the log.  Until the rename
+   * the old log is whole, and a crash leaves only a stray file.  Records
+   * appended meanwhile wait in the tail.
+   *
+   * @param keep the LSN of the first record to keep.
+   * @param master the checkpoint to make the master record.
+   */
+  private void compact(long keep, long master) throws IOException {
+    Path path = Paths.get(name);
+    Path tmp = Paths.get(name + ".tmp");
+    fileLock.writeLock().lock();
+    try {
+      FileChannel out = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                         StandardOpenOption.CREATE,
+                                         StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        header.putInt(0, MAGIC);
+        header.putLong(MASTER, master);
+        header.putLong(START, keep);
+        header.putLong(LIMIT, maxSize);
+        while (header.hasRemaining()) {
+          out.write(header);
+        }
+        long from = pos(keep);
+        long end = fp.size();
+        while (from < end) {
+          from = from + fp.transferTo(from, end - from, out);
+        }
+        out.force(true);
+      } finally {
+        out.close();
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+      syncDirectory(path);
+      FileChannel old = fp;
+      fp = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      startLSN = keep;
+      old.close();
+    } finally {
+      fileLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Force the directory holding a file, so that a rename in it survives
+   * a crash.  Where directories cannot be opened the rename has to do.
+   */
+  private static void syncDirectory(Path file) {
+    Path dir = file.toAbsolutePath().getParent();
+    try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+      d.force(true);
+    } catch (IOException e) {
+      // Not supported here.
+    }
+  }
+
+  /**
+   * Have commits take a checkpoint once the log has grown by a number of
+   * bytes since the last one.
+   *
+   * @param bytes the interval, 0 for no checkpoints but those asked for.
+   */
+  public void setCheckpointInterval(long bytes) {
+    lock.lock();
+    try {
+      checkpointInterval = bytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the LSN of the last checkpoint, the first LSN if none. */
+  public long getCheckpointLSN() {
+    lock.lock();
+    try {
+      return checkpointLSN;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Add a record to the tail; under the lock. */
+  private long append(LogRecord rec) throws IOException {
+    if (failure != null) {
+      throw new IOException("The log could not be written", failure);
+    }
+    int size = rec.size();
+    if (tail.remaining() < size) {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * tail.capacity(),
+                                                       tail.position() + size));
+      tail.flip();
+      bigger.put(tail);
+      tail = bigger;
+    }
+    long lsn = endLSN;
+    rec.write(tail);
+    rec.setLSN(lsn);
+    endLSN = endLSN + size;
+    return lsn;
+  }
+
+  /**
+   * Make sure the log is on disk up to and including the record at a
+   * given LSN, forcing it if need be.  Long.MAX_VALUE stands for all the
+   * records appended so far.
+   *
+   * @param lsn the LSN of the record.
+   */
+  public void flush(long lsn) throws IOException {
+    lock.lock();
+    try {
+      while (flushedLSN <= lsn && flushedLSN < endLSN) {
+        if (failure != null) {
+          throw new IOException("The log could not be written", failure);
+        }
+        if (forcing == true) {
+          forced.awaitUninterruptibly();
+          continue;
+        }
+        // Lead a force of everything appended so far.
+        forcing = true;
+        ByteBuffer out = tail;
+        long from = tailStart;
+        long upTo = endLSN;
+        tail = spare;
+        tail.clear();
+        tailStart = endLSN;
+        lock.unlock();
+        IOException error = null;
+        fileLock.readLock().lock();
+        try {
+          out.flip();
+          writeFully(out, pos(from));
+          fp.force(false);
+        } catch (IOException e) {
+          error = e;
+        } finally {
+          fileLock.readLock().unlock();
+        }
+        lock.lock();
+        forcing = false;
+        spare = out;
+        if (error == null) {
+          flushedLSN = upTo;
+          numForces = numForces + 1;
+        } else {
+          failure = error;
+        }
+        forced.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Read the record at an LSN, forcing the log that far first.
+   *
+   * @param lsn the LSN of the record.
+   * @return the record, or null if the log ends there.
+   */
+  public LogRecord read(long lsn) throws IOException {
+    flush(lsn);
+    fileLock.readLock().lock();
+    try {
+      if (lsn < startLSN) {
+        return null;
+      }
+      return readRecord(lsn);
+    } finally {
+      fileLock.readLock().unlock();
+    }
+  }
+
+  /** Read the record at an LSN from the file as it is. */
+  private LogRecord readRecord(long lsn) throws IOException {
+    ByteBuffer len = ByteBuffer.allocate(4);
+    if (fp.read(len, pos(lsn)) < 4) {
+      return null;
+    }
+    int size = len.getInt(0);
+    if (size < LogRecord.HEADER_SIZE + LogRecord.TRAILER_SIZE
+        || pos(lsn) + size > fp.size()) {
+      return null;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    readFully(buf, pos(lsn));
+    buf.flip();
+    return LogRecord.read(buf, lsn);
+  }
+
+  /** @return where in the file the record at an LSN is. */
+  private long pos(long lsn) {
+    return lsn - startLSN + FILE_HEADER;
+  }
+
+  private void writeFully(ByteBuffer buf, long pos) throws IOException {
+    long start = pos - buf.position();
+    while (buf.hasRemaining()) {
+      fp.write(buf, start + buf.position());
+    }
+  }
+
+  private void readFully(ByteBuffer buf, long pos) throws IOException {
+    long start = pos - buf.position();
+    while (buf.hasRemaining()) {
+      if (fp.read(buf, start + buf.position()) < 0) {
+        throw new EOFException("The log " + name + " ends at " + fp.size());
+      }
+    }
+  }
+
+  /** @return the LSN of the first record the log still holds. */
+  public long getFirstLSN() {
+    return startLSN;
+  }
+
+  /** @return the size limit of the log in bytes, 0 for none. */
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /** @return the LSN the next record will have. */
+  public long getEndLSN() {
+    lock.lock();
+    try {
+      return endLSN;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the LSN up to which the log is on disk. */
+  public long getFlushedLSN() {
+    lock.lock();
+    try {
+      return flushedLSN;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the number of transactions in progress. */
+  public int getNumActive() {
+    lock.lock();
+    try {
+      return active.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the number of commits so far. */
+  public long getNumCommits() {
+    lock.lock();
+    try {
+      return numCommits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the number of times the log was forced to disk so far. */
+  public long getNumForces() {
+    lock.lock();
+    try {
+      return numForces;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Force what is left of the log and close it. */
+  public void close() throws IOException {
+    flush(Long.MAX_VALUE);
+    fp.close();
+  }
+
+}
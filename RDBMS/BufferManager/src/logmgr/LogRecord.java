@@ -0,0 +1,207 @@
+package logmgr;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * A record of the log.  An update record is physiological: it names one
+ * page, and the bytes at an offset in it before and after the change,
+ * which is what a slotted page's insert, delete or update of a record
+ * comes down to.  Redoing it writes the after image, undoing it the
+ * before image, so either can be repeated safely.  Undoing an update is
+ * logged as a compensation record, which holds only the image written
+ * and the next record of the transaction left to undo.
+ * <p>
+ * On disk a record is its length, type, transaction, the LSN of the
+ * transaction's previous record and of the next one to undo, the page,
+ * offset, the length of the before image, both images, and a CRC32C of
+ * all that, so a record torn by a crash is recognised as the end of the
+ * log.  A checkpoint keeps its tables in the after image.
+ */
+public class LogRecord {
+
+  /** A transaction started. */
+  public static final byte BEGIN = 1;
+
+  /** A transaction changed bytes of a page. */
+  public static final byte UPDATE = 2;
+
+  /** A transaction committed. */
+  public static final byte COMMIT = 3;
+
+  /** A transaction was rolled back, all of its updates undone. */
+  public static final byte ABORT = 4;
+
+  /** An update was undone: a compensation log record. */
+  public static final byte CLR = 5;
+
+  /** A fuzzy checkpoint of the transactions and dirty pages. */
+  public static final byte CHECKPOINT = 6;
+
+  /**
+   * Bytes before the images: length, type, txn, prevLSN, undoNextLSN,
+   * page, offset, before length.
+   */
+  static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 8 + 4 + 4 + 4;
+
+  /** Bytes after the images: the checksum. */
+  static final int TRAILER_SIZE = 4;
+
+  private final byte type;
+  private final int txn;
+  private final long prevLSN;
+  private final long undoNextLSN;
+  private final int pageNo;
+  private final int offset;
+  private final byte[] before;
+  private final byte[] after;
+  private long lsn;
+
+  LogRecord(byte type, int txn, long prevLSN, long undoNextLSN, int pageNo,
+            int offset, byte[] before, byte[] after) {
+    this.type = type;
+    this.txn = txn;
+    this.prevLSN = prevLSN;
+    this.undoNextLSN = undoNextLSN;
+    this.pageNo = pageNo;
+    this.offset = offset;
+    this.before = before;
+    this.after = after;
+    this.lsn = 0;
+  }
+
+  /** @return the kind of record, BEGIN, UPDATE, COMMIT, ABORT, CLR or CHECKPOINT. */
+  public byte getType() {
+    return type;
+  }
+
+  /** @return the transaction that wrote the record. */
+  public int getTxn() {
+    return txn;
+  }
+
+  /** @return the LSN of the transaction's previous record, 0 for none. */
+  public long getPrevLSN() {
+    return prevLSN;
+  }
+
+  /**
+   * @return for a compensation record, the next record of the transaction
+   * to undo, 0 for none.
+   */
+  public long getUndoNextLSN() {
+    return undoNextLSN;
+  }
+
+  /** @return where the record is in the log. */
+  public long getLSN() {
+    return lsn;
+  }
+
+  /** @return the LSN of the record after this one. */
+  public long getNextLSN() {
+    return lsn + size();
+  }
+
+  /** @return the page changed, INVALID_PAGE if the record changes none. */
+  public int getPageNo() {
+    return pageNo;
+  }
+
+  /** @return the offset of the change in the page. */
+  public int getOffset() {
+    return offset;
+  }
+
+  /** @return the bytes changed, as they were; empty for a compensation. */
+  public byte[] getBefore() {
+    return before;
+  }
+
+  /** @return the bytes changed, as they are now. */
+  public byte[] getAfter() {
+    return after;
+  }
+
+  /** @return the number of bytes the record takes in the log. */
+  int size() {
+    return HEADER_SIZE + before.length + after.length + TRAILER_SIZE;
+  }
+
+  /** Put the record at the position of a buffer with room for it. */
+  void write(ByteBuffer buf) {
+    int start = buf.position();
+    buf.putInt(size());
+    buf.put(type);
+    buf.putInt(txn);
+    buf.putLong(prevLSN);
+    buf.putLong(undoNextLSN);
+    buf.putInt(pageNo);
+    buf.putInt(offset);
+    buf.putInt(before.length);
+    buf.put(before);
+    buf.put(after);
+    CRC32C crc = new CRC32C();
+    crc.update(buf.duplicate().position(start).limit(buf.position()));
+    buf.putInt((int) crc.getValue());
+  }
+
+  /**
+   * Take a record from the position of a buffer holding all of it.
+   *
+   * @return the record, or null if the bytes are not a whole record.
+   */
+  static LogRecord read(ByteBuffer buf, long lsn) {
+    int start = buf.position();
+    if (buf.remaining() < HEADER_SIZE + TRAILER_SIZE) {
+      return null;
+    }
+    int size = buf.getInt(start);
+    int count = buf.getInt(start + HEADER_SIZE - 4);
+    if (size < HEADER_SIZE + TRAILER_SIZE || size > buf.remaining() || count < 0
+        || count > size - HEADER_SIZE - TRAILER_SIZE) {
+      return null;
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(buf.duplicate().limit(start + size - TRAILER_SIZE));
+    if ((int) crc.getValue() != buf.getInt(start + size - TRAILER_SIZE)) {
+      return null;
+    }
+    buf.getInt();
+    byte type = buf.get();
+    int txn = buf.getInt();
+    long prevLSN = buf.getLong();
+    long undoNextLSN = buf.getLong();
+    int pageNo = buf.getInt();
+    int offset = buf.getInt();
+    buf.getInt();
+    byte[] before = new byte[count];
+    byte[] after = new byte[size - HEADER_SIZE - TRAILER_SIZE - count];
+    buf.get(before);
+    buf.get(after);
+    buf.getInt();
+    LogRecord rec = new LogRecord(type, txn, prevLSN, undoNextLSN, pageNo, offset,
+                                  before, after);
+    rec.lsn = lsn;
+    return rec;
+  }
+
+  /** Record where the record was put in the log. */
+  void setLSN(long lsn) {
+    this.lsn = lsn;
+  }
+
+  public String toString() {
+    String[] names = { "?", "BEGIN", "UPDATE", "COMMIT", "ABORT", "CLR", "CHECKPOINT" };
+    String s = lsn + " " + (type > 0 && type < names.length ? names[type] : "type " + type)
+        + " txn " + txn + " prev " + prevLSN;
+    if (type == UPDATE || type == CLR) {
+      s = s + " page " + pageNo + " at " + offset + " for " + after.length;
+    }
+    if (type == CLR) {
+      s = s + " undo next " + undoNextLSN;
+    }
+    return s;
+  }
+
+}
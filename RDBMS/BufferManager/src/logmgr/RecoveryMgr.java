@@ -0,0 +1,218 @@
+package logmgr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import global.*;
+import bufmgr.*;
+import diskmgr.PageChecksumException;
+import chainexception.ChainException;
+
+/**
+ * Crash recovery in the manner of ARIES, over the log of a database being
+ * reopened.
+ * <p>
+ * Analysis reads the log from the last checkpoint on, starting from the
+ * transactions and dirty pages the checkpoint recorded, and finds the
+ * transactions that were in progress at the crash and the point redo has
+ * to start from: the oldest of the first change to a dirty page and the
+ * first record of a transaction in progress at the checkpoint.
+ * <p>
+ * Redo repeats history from there, writing the image of every update and
+ * compensation record into its page through the buffer manager, unless
+ * the page's LSN says it holds the change already.  Pages only have an
+ * LSN on disk when the database has checksums; without, every change is
+ * redone, which does no harm since images are physical.  A
+ * page that fails its checksum is taken as it is and written over, since
+ * a crash of the OS can leave a whole page out of step with its checksum.
+ * <p>
+ * Undo rolls the transactions in progress back, newest record first
+ * across all of them, logging a compensation record for every update it
+ * undoes, so a crash during recovery never undoes an update twice.  The
+ * same undo rolls back a transaction that aborts.
+ * <p>
+ * The work done depends on the log written since the last checkpoint, and
+ * on transactions in progress then, not on the size of the database.
+ */
+public class RecoveryMgr implements GlobalConst {
+
+  private final LogMgr log;
+  private final BufMgr bm;
+
+  private long redoLSN;
+  private int numRedone;
+  private int numUndone;
+  private int numLosers;
+
+  public RecoveryMgr(LogMgr log, BufMgr bm) {
+    this.log = log;
+    this.bm = bm;
+  }
+
+  /**
+   * Bring the database back to the state the log says it had: every
+   * committed transaction's changes there and no others.  Ends with a
+   * checkpoint.
+   */
+  public void recover() throws IOException, ChainException {
+    // Analysis.
+    HashMap<Integer, long[]> txns = new HashMap<>();
+    long start = log.getCheckpointLSN();
+    LogRecord ckpt = log.read(start);
+    long scan = start;
+    redoLSN = start;
+    if (ckpt != null && ckpt.getType() == LogRecord.CHECKPOINT) {
+      ByteBuffer tables = ByteBuffer.wrap(ckpt.getAfter());
+      scan = tables.getLong();
+      redoLSN = scan;
+      tables.getInt();  // the next transaction number
+      for (int n = tables.getInt(); n > 0; n--) {
+        int txn = tables.getInt();
+        long first = tables.getLong();
+        long last = tables.getLong();
+        txns.put(txn, new long[] { first, last });
+        redoLSN = Math.min(redoLSN, first);
+      }
+      for (int n = tables.getInt(); n > 0; n--) {
+        tables.getInt();
+        redoLSN = Math.min(redoLSN, tables.getLong());
+      }
+    }
+    for (LogRecord rec = log.read(scan); rec != null; rec = log.read(rec.getNextLSN())) {
+      switch (rec.getType()) {
+      case LogRecord.BEGIN:
+        txns.put(rec.getTxn(), new long[] { rec.getLSN(), rec.getLSN() });
+        break;
+      case LogRecord.UPDATE:
+      case LogRecord.CLR:
+        long[] t = txns.get(rec.getTxn());
+        if (t != null) {
+          t[1] = rec.getLSN();
+        }
+        break;
+      case LogRecord.COMMIT:
+      case LogRecord.ABORT:
+        txns.remove(rec.getTxn());
+        break;
+      }
+    }
+
+    // Redo.
+    for (LogRecord rec = log.read(redoLSN); rec != null; rec = log.read(rec.getNextLSN())) {
+      if (rec.getType() == LogRecord.UPDATE || rec.getType() == LogRecord.CLR) {
+        if (apply(rec, rec.getAfter(), rec.getLSN(), true)) {
+          numRedone = numRedone + 1;
+        }
+      }
+    }
+
+    // Undo.
+    HashMap<Integer, Long> losers = new HashMap<>();
+    for (Map.Entry<Integer, long[]> e : txns.entrySet()) {
+      log.resume(e.getKey(), e.getValue()[0], e.getValue()[1]);
+      losers.put(e.getKey(), e.getValue()[1]);
+    }
+    numLosers = losers.size();
+    undo(losers);
+
+    log.checkpoint();
+  }
+
+  /**
+   * Roll transactions back.
+   *
+   * @param last the last record of each transaction.
+   */
+  void undo(Map<Integer, Long> last) throws IOException, ChainException {
+    PriorityQueue<Long> toUndo = new PriorityQueue<>(Math.max(1, last.size()),
+                                                     (a, b) -> Long.compare(b, a));
+    HashMap<Long, Integer> owner = new HashMap<>();
+    for (Map.Entry<Integer, Long> e : last.entrySet()) {
+      if (e.getValue() > 0) {
+        toUndo.add(e.getValue());
+        owner.put(e.getValue(), e.getKey());
+      } else {
+        log.aborted(e.getKey());
+      }
+    }
+    while (!toUndo.isEmpty()) {
+      long lsn = toUndo.poll();
+      int txn = owner.remove(lsn);
+      LogRecord rec = log.read(lsn);
+      if (rec == null) {
+        throw new LogMgrException(null, "No record at " + lsn + " to undo");
+      }
+      long next;
+      if (rec.getType() == LogRecord.UPDATE) {
+        long clr = log.compensate(rec);
+        apply(rec, rec.getBefore(), clr, false);
+        numUndone = numUndone + 1;
+        next = rec.getPrevLSN();
+      } else if (rec.getType() == LogRecord.CLR) {
+        next = rec.getUndoNextLSN();
+      } else {
+        next = rec.getPrevLSN();
+      }
+      if (next > 0) {
+        toUndo.add(next);
+        owner.put(next, txn);
+      } else {
+        log.aborted(txn);
+      }
+    }
+  }
+
+  /**
+   * Write an image of a record into its page, as of an LSN.
+   *
+   * @param redo skip a page whose LSN is the record's or later.
+   * @return whether the image was written.
+   */
+  private boolean apply(LogRecord rec, byte[] image, long lsn, boolean redo)
+    throws IOException, ChainException {
+    PageId pid = new PageId(rec.getPageNo());
+    Page page = new Page();
+    try {
+      bm.pinPage(pid, page, false);
+    } catch (PageChecksumException e) {
+      // After a crash of the OS a page can be out of step with its
+      // checksum, whole as it is; redo is about to write it over anyway.
+      // Its LSN is lost with the checksum, so every change is redone.
+      SystemDefs.JavabaseDB.accept_page(pid);
+      bm.pinPage(pid, page, false);
+    }
+    if (redo == true && bm.getPageLSN(pid) >= lsn) {
+      bm.unpinPage(pid, false);
+      return false;
+    }
+    try {
+      System.arraycopy(image, 0, page.getpage(), rec.getOffset(), image.length);
+    } finally {
+      bm.unpinPage(pid, true, lsn);
+    }
+    return true;
+  }
+
+  /** @return the LSN redo started from. */
+  public long getRedoLSN() {
+    return redoLSN;
+  }
+
+  /** @return the number of changes redone, not counting those skipped
+   * for being on their pages already. */
+  public int getNumRedone() {
+    return numRedone;
+  }
+
+  /** @return the number of updates undone. */
+  public int getNumUndone() {
+    return numUndone;
+  }
+
+  /** @return the number of transactions found in progress and rolled back. */
+  public int getNumLosers() {
+    return numLosers;
+  }
+}
@@ -3,9 +3,14 @@ package tests;
 import java.io.*;
 import java.util.*;
 import java.lang.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import javax.management.ObjectName;
 import global.*;
 import bufmgr.*;
 import diskmgr.*;
+import logmgr.*;
 import chainexception.*;
 
 //Note that in JAVA, methods can't be overridden to be more private.
@@ -110,13 +115,29 @@ class BMDriver extends TestDriver implements GlobalConst {
 
     //The following runs all the test functions
 
-    //Running test1() to test6()
+    //Running test1() to test22()
     if (!test1()) { _passAll = FAIL; }
     if (!test2()) { _passAll = FAIL; }
     if (!test3()) { _passAll = FAIL; }
     if (!test4()) { _passAll = FAIL; }
     if (!test5()) { _passAll = FAIL; }
     if (!test6()) { _passAll = FAIL; }
+    if (!test7()) { _passAll = FAIL; }
+    if (!test8()) { _passAll = FAIL; }
+    if (!test9()) { _passAll = FAIL; }
+    if (!test10()) { _passAll = FAIL; }
+    if (!test11()) { _passAll = FAIL; }
+    if (!test12()) { _passAll = FAIL; }
+    if (!test13()) { _passAll = FAIL; }
+    if (!test14()) { _passAll = FAIL; }
+    if (!test15()) { _passAll = FAIL; }
+    if (!test16()) { _passAll = FAIL; }
+    if (!test17()) { _passAll = FAIL; }
+    if (!test18()) { _passAll = FAIL; }
+    if (!test19()) { _passAll = FAIL; }
+    if (!test20()) { _passAll = FAIL; }
+    if (!test21()) { _passAll = FAIL; }
+    if (!test22()) { _passAll = FAIL; }
 
     return _passAll;
   }
@@ -592,33 +613,2455 @@ class BMDriver extends TestDriver implements GlobalConst {
 }
 
   /**
-   * overrides the test4 function in TestDriver
+   * overrides the test4 function in TestDriver.  It runs several threads
+   * that pin, check, modify and unpin random pages of a database three
+   * times the size of the pool, under each replacement policy, and then
+   * checks that no page is left pinned and no update was lost.  Last it
+   * does the same with the background page cleaner running.
    *
    * @return whether test4 has passed
    */
   protected boolean test4 () {
 
-    return true;
+    System.out.print("\n  Test 4 pins and unpins pages from several " +
+                     "threads at once:\n");
+
+    String [] policies = { "LRU", "Clock", "LRU-K", "2Q" };
+    boolean status = OK;
+
+    for (int i = 0; status == OK && i < policies.length; ++i) {
+      System.out.print("  - " + policies[i] + "\n");
+      status = stressTest(policies[i], false, false);
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Clock with the page cleaner\n");
+      status = stressTest("Clock", false, true);
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 4 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Each thread owns one int on every page, at 8 + 4 * thread number,
+   * and counts how many times it bumped that int on each page.  Pages
+   * carry their page number + 99999 at offset 0, as in the other tests.
+   */
+  private boolean stressTest (String policy, boolean offHeap, boolean cleaner) {
+
+    final int numThreads = 8;
+    final int numBufs = 1024;
+    final int numPages = 3 * numBufs;
+    final int numOps = 20000;
+    boolean status = OK;
+
+    SystemDefs.MINIBASE_OFFHEAP_POOL = offHeap;
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, numBufs, policy );
+    SystemDefs.MINIBASE_OFFHEAP_POOL = false;
+
+    Page pg = new Page();
+    PageId pid = new PageId();
+    final PageId firstPid;
+
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        Arrays.fill( pg.getpage(), (byte) 0 );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not set up " + numPages + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    PageCleaner pc = null;
+    if (cleaner)
+      pc = SystemDefs.JavabaseBM.startPageCleaner( 0.25, 0.10 );
+
+    final int [][] counts = new int[numThreads][numPages];
+    final int [] pins = new int[numThreads];
+    final Exception [] errors = new Exception[numThreads];
+    BufMgrStats.Snapshot before = SystemDefs.JavabaseBM.getStats().snapshot();
+    Thread [] threads = new Thread[numThreads];
+
+    for (int t = 0; t < numThreads; ++t) {
+      final int me = t;
+      threads[t] = new Thread(() -> {
+        Random rand = new Random(me);
+        Page page = new Page();
+        Page other = new Page();
+        PageId a = new PageId();
+        PageId b = new PageId();
+        try {
+          for (int op = 0; op < numOps; ++op) {
+            a.pid = firstPid.pid + rand.nextInt(numPages);
+            SystemDefs.JavabaseBM.pinPage( a, page, false );
+            pins[me]++;
+            if (Convert.getIntValue( 0, page.getpage() ) != a.pid + 99999)
+              throw new Exception("wrong data on page " + a.pid);
+            int n = Convert.getIntValue( 8 + 4 * me, page.getpage() );
+            Convert.setIntValue( n + 1, 8 + 4 * me, page.getpage() );
+            counts[me][a.pid - firstPid.pid]++;
+
+            // Sometimes hold a second page at the same time.
+            if (rand.nextInt(4) == 0) {
+              b.pid = firstPid.pid + rand.nextInt(numPages);
+              SystemDefs.JavabaseBM.pinPage( b, other, false );
+              pins[me]++;
+              if (Convert.getIntValue( 0, other.getpage() ) != b.pid + 99999)
+                throw new Exception("wrong data on page " + b.pid);
+              SystemDefs.JavabaseBM.unpinPage( b, false );
+            }
+            SystemDefs.JavabaseBM.unpinPage( a, true );
+          }
+        }
+        catch (Exception e) {
+          errors[me] = e;
+        }
+      });
+      threads[t].start();
+    }
+
+    for (int t = 0; t < numThreads; ++t) {
+      try {
+        threads[t].join();
+      }
+      catch (InterruptedException e) {
+        status = FAIL;
+      }
+      if (errors[t] != null) {
+        status = FAIL;
+        System.err.print("*** Thread " + t + " failed\n");
+        errors[t].printStackTrace();
+      }
+    }
+
+    BufMgrStats.Snapshot after = SystemDefs.JavabaseBM.getStats().snapshot();
+    int totalPins = 0;
+    for (int t = 0; t < numThreads; ++t)
+      totalPins += pins[t];
+    long counted = after.getHits() + after.getMisses()
+                   - before.getHits() - before.getMisses();
+    if ( status == OK && counted != totalPins ) {
+      status = FAIL;
+      System.err.print("*** Counted " + counted + " pins instead of "
+                       + totalPins + "\n");
+    }
+    if ( status == OK && after.getPagesRead() - before.getPagesRead()
+         < after.getMisses() - before.getMisses() ) {
+      status = FAIL;
+      System.err.print("*** Fewer pages read than pins missed\n");
+    }
+
+    try {
+      ObjectName name = SystemDefs.JavabaseBM.getStats().register( "stress" );
+      Object hits = ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute( name, "Hits" );
+      SystemDefs.JavabaseBM.getStats().unregister();
+      if ( status == OK && !hits.equals( after.getHits() ) ) {
+        status = FAIL;
+        System.err.print("*** JMX reported " + hits + " hits instead of "
+                         + after.getHits() + "\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not read the counters through JMX\n");
+      e.printStackTrace();
+    }
+
+    if (cleaner) {
+      SystemDefs.JavabaseBM.stopPageCleaner();
+      if ( status == OK && pc.getPagesWritten() == 0 ) {
+        status = FAIL;
+        System.err.print("*** The page cleaner wrote no pages\n");
+      }
+      else
+        System.out.print("  --> The page cleaner wrote " + pc.getPagesWritten()
+                         + " pages\n");
+    }
+
+    if ( status == OK && SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+         != SystemDefs.JavabaseBM.getNumBuffers() ) {
+      status = FAIL;
+      System.err.print("*** " + (SystemDefs.JavabaseBM.getNumBuffers()
+                       - SystemDefs.JavabaseBM.getNumUnpinnedBuffers())
+                       + " frames are still pinned\n");
+    }
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages( 4 );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    if ( status == OK && SystemDefs.JavabaseBM.getNumDirtyBuffers() != 0 ) {
+      status = FAIL;
+      System.err.print("*** " + SystemDefs.JavabaseBM.getNumDirtyBuffers()
+                       + " frames counted dirty after flushing them all\n");
+    }
+
+    // Check what reached the disk: reopen the database with an empty pool.
+    SystemDefs.MINIBASE_RESTART_FLAG = true;
+    sysdef = new SystemDefs( dbpath, numPages + 20, numBufs, policy );
+    SystemDefs.MINIBASE_RESTART_FLAG = false;
+
+    for ( pid.pid = firstPid.pid; status == OK
+          && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+      try {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        if (Convert.getIntValue( 0, pg.getpage() ) != pid.pid + 99999) {
+          status = FAIL;
+          System.err.print("*** Read wrong data back from page "+pid.pid+"\n");
+        }
+        for (int t = 0; status == OK && t < numThreads; ++t) {
+          if (Convert.getIntValue( 8 + 4 * t, pg.getpage() )
+              != counts[t][pid.pid - firstPid.pid]) {
+            status = FAIL;
+            System.err.print("*** Lost an update by thread " + t
+                             + " to page " + pid.pid + "\n");
+          }
+        }
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not check page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    return status;
   }
 
   /**
-   * overrides the test5 function in TestDriver
+   * overrides the test5 function in TestDriver.  It repeats the work of
+   * test4 with the frames of the pool kept off the Java heap, where pinned
+   * pages are handed out as copies that must find their way back.
    *
    * @return whether test5 has passed
    */
   protected boolean test5 () {
 
-    return true;
+    System.out.print("\n  Test 5 runs test 4 with an off-heap buffer pool:\n");
+
+    String [] policies = { "LRU", "2Q" };
+    boolean status = OK;
+
+    for (int i = 0; status == OK && i < policies.length; ++i) {
+      System.out.print("  - " + policies[i] + "\n");
+      status = stressTest(policies[i], true, false);
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 5 completed successfully.\n");
+
+    return status;
   }
 
   /**
-   * overrides the test6 function in TestDriver
+   * overrides the test6 function in TestDriver.  It writes pages through
+   * page handles, pushes them out of the pool and reads them back, and
+   * checks that a closed handle can no longer reach its frame.  It does
+   * so with both an on-heap and an off-heap pool.
    *
    * @return whether test6 has passed
    */
   protected boolean test6 () {
 
-    return true;
+    System.out.print("\n  Test 6 reads and writes pages through page handles:\n");
+
+    boolean status = handleTest(false);
+    if ( status == OK )
+      status = handleTest(true);
+
+    if ( status == OK )
+      System.out.print("  Test 6 completed successfully.\n");
+
+    return status;
+  }
+
+  private boolean handleTest (boolean offHeap) {
+
+    final int numPages = 2 * NUMBUF;
+    boolean status = OK;
+
+    SystemDefs.MINIBASE_OFFHEAP_POOL = offHeap;
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+    SystemDefs.MINIBASE_OFFHEAP_POOL = false;
+
+    Page pg = new Page();
+    PageId firstPid;
+    PageId pid = new PageId();
+
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    System.out.print("  - Write pages through handles ("
+                     + (offHeap ? "off-heap" : "on-heap") + " pool)\n");
+    PageHandle stale = null;
+    for ( pid.pid = firstPid.pid; status == OK
+          && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+      try (PageHandle h = SystemDefs.JavabaseBM.pinHandle( pid )) {
+        h.setInt( 0, pid.pid + 99999 );
+        h.setInt( MINIBASE_PAGESIZE - 4, pid.pid );
+        if (stale == null)
+          stale = h;
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not write page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK && SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+         != SystemDefs.JavabaseBM.getNumBuffers() ) {
+      status = FAIL;
+      System.err.print("*** Closing the handles left pages pinned\n");
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Use a handle after it is closed\n");
+      try {
+        stale.getInt( 0 );
+        status = FAIL;
+        System.err.print("*** A closed handle could still read its page\n");
+      }
+      catch (IllegalStateException e) {
+        System.out.print("  --> Failed as expected \n");
+      }
+      stale.close();
+    }
+
+    System.out.print("  - Read the pages back through handles and pages\n");
+    for ( pid.pid = firstPid.pid; status == OK
+          && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+      try {
+        try (PageHandle h = SystemDefs.JavabaseBM.pinHandle( pid )) {
+          SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+          if (h.getInt( 0 ) != pid.pid + 99999
+              || h.getInt( MINIBASE_PAGESIZE - 4 ) != pid.pid
+              || Convert.getIntValue( 0, pg.getpage() ) != pid.pid + 99999) {
+            status = FAIL;
+            System.err.print("*** Read wrong data back from page "+pid.pid+"\n");
+          }
+          SystemDefs.JavabaseBM.unpinPage( pid, false );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not read page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    return status;
+  }
+
+  /**
+   * It prefetches pages that are not in the pool, checks that they are
+   * read correctly, and then scans the rest of the pages in order and
+   * checks that read-ahead brought pages in before they were pinned.
+   *
+   * @return whether test7 has passed
+   */
+  protected boolean test7 () {
+
+    System.out.print("\n  Test 7 reads pages ahead of a sequential scan:\n");
+
+    final int numPages = 4 * NUMBUF;
+    boolean status = OK;
+
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+
+    Page pg = new Page();
+    PageId firstPid;
+    PageId pid = new PageId();
+
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not set up " + numPages + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    System.out.print("  - Prefetch pages that are not in the pool\n");
+    final int numPrefetch = NUMBUF / 2;
+    try {
+      long before = SystemDefs.JavabaseBM.getNumPagesPrefetched();
+      int got = SystemDefs.JavabaseBM.prefetch( firstPid, numPrefetch );
+      if (got != numPrefetch
+          || SystemDefs.JavabaseBM.getNumPagesPrefetched() - before != got) {
+        status = FAIL;
+        System.err.print("*** Prefetched " + got + " pages instead of "
+                         + numPrefetch + "\n");
+      }
+      if ( status == OK && SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+           != SystemDefs.JavabaseBM.getNumBuffers() ) {
+        status = FAIL;
+        System.err.print("*** Prefetching left pages pinned\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("  - Scan all the pages in order\n");
+    long before = SystemDefs.JavabaseBM.getNumPagesPrefetched();
+    for ( pid.pid = firstPid.pid; status == OK
+          && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+      try {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        if (Convert.getIntValue( 0, pg.getpage() ) != pid.pid + 99999) {
+          status = FAIL;
+          System.err.print("*** Read wrong data back from page "+pid.pid+"\n");
+        }
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not read page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    long readAhead = SystemDefs.JavabaseBM.getNumPagesPrefetched() - before;
+    if ( status == OK && readAhead < numPages - numPrefetch - NUMBUF ) {
+      status = FAIL;
+      System.err.print("*** Only " + readAhead + " pages were read ahead\n");
+    }
+    else if ( status == OK )
+      System.out.print("  --> " + readAhead + " pages were read ahead\n");
+
+    if ( status == OK )
+      System.out.print("  Test 7 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It puts the database's metadata and a catalog file in one pool and a
+   * large file in another, scans the large file, and checks that the
+   * scan did not push the metadata and catalog pages out.
+   *
+   * @return whether test8 has passed
+   */
+  protected boolean test8 () {
+
+    System.out.print("\n  Test 8 keeps pages of different files in separate pools:\n");
+
+    final int numPages = 4 * NUMBUF;
+    boolean status = OK;
+
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+
+    Page pg = new Page();
+    PageId catalogPid;
+    PageId firstPid;
+    PageId pid = new PageId();
+    BufMgr meta;
+
+    System.out.print("  - Create a metadata pool and a data pool\n");
+    try {
+      meta = SystemDefs.JavabaseBM.createPool( "meta", 8, "LRU" );
+      SystemDefs.JavabaseBM.createPool( "data", NUMBUF, "Clock" );
+      SystemDefs.JavabaseDB.setMetaPool( "meta" );
+
+      catalogPid = SystemDefs.JavabaseBM.newPage( pg, 1, "meta" );
+      Convert.setIntValue( 4242, 0, pg.getpage() );
+      SystemDefs.JavabaseBM.unpinPage( catalogPid, /*dirty:*/ true );
+      SystemDefs.JavabaseDB.add_file_entry( "catalog", catalogPid, "meta" );
+
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages, "data" );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+      SystemDefs.JavabaseDB.add_file_entry( "data", firstPid, "data" );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not set up the pools\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    try {
+      SystemDefs.JavabaseBM.createPool( "data", NUMBUF, "Clock" );
+      status = FAIL;
+      System.err.print("*** Created two pools with the same name\n");
+    }
+    catch (Exception e) {
+    }
+
+    if ( status == OK && SystemDefs.JavabaseBM.getNumDirtyBuffers() != 0 ) {
+      status = FAIL;
+      System.err.print("*** The default pool holds pages of the data pool\n");
+    }
+
+    System.out.print("  - Scan the data file\n");
+    BufMgrStats.Snapshot metaBefore = meta.getStats().snapshot();
+    BufMgrStats.Snapshot defaultBefore = SystemDefs.JavabaseBM.getStats().snapshot();
+    for ( pid.pid = firstPid.pid; status == OK
+          && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+      try {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        if (Convert.getIntValue( 0, pg.getpage() ) != pid.pid + 99999) {
+          status = FAIL;
+          System.err.print("*** Read wrong data back from page "+pid.pid+"\n");
+        }
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not read page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    System.out.print("  - Look up the files and read the catalog page\n");
+    try {
+      PageId found = SystemDefs.JavabaseDB.get_file_entry( "catalog" );
+      PageId data = SystemDefs.JavabaseDB.get_file_entry( "data" );
+      if ( status == OK && (found == null || found.pid != catalogPid.pid
+                            || data == null || data.pid != firstPid.pid) ) {
+        status = FAIL;
+        System.err.print("*** Could not find the files in the directory\n");
+      }
+      SystemDefs.JavabaseBM.pinPage( catalogPid, pg, false );
+      if ( status == OK && Convert.getIntValue( 0, pg.getpage() ) != 4242 ) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from the catalog page\n");
+      }
+      SystemDefs.JavabaseBM.unpinPage( catalogPid, false );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    BufMgrStats.Snapshot metaAfter = meta.getStats().snapshot();
+    if ( status == OK && metaAfter.getMisses() != metaBefore.getMisses() ) {
+      status = FAIL;
+      System.err.print("*** The scan pushed "
+                       + (metaAfter.getMisses() - metaBefore.getMisses())
+                       + " metadata pages out\n");
+    }
+    BufMgrStats.Snapshot defaultAfter = SystemDefs.JavabaseBM.getStats().snapshot();
+    if ( status == OK && (metaAfter.getHits() == metaBefore.getHits()
+                          || defaultAfter.getHits() + defaultAfter.getMisses()
+                             != defaultBefore.getHits() + defaultBefore.getMisses()) ) {
+      status = FAIL;
+      System.err.print("*** The metadata pages were not read through their pool\n");
+    }
+
+    System.out.print("  - Flush all pools and read the pages back from disk\n");
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      if ( SystemDefs.JavabaseBM.getPool( "data" ).getNumDirtyBuffers() != 0
+           || meta.getNumDirtyBuffers() != 0 ) {
+        status = FAIL;
+        System.err.print("*** Flushing left pages dirty\n");
+      }
+      Page onDisk = new Page();
+      SystemDefs.JavabaseDB.read_page( catalogPid, onDisk );
+      if ( Convert.getIntValue( 0, onDisk.getpage() ) != 4242 ) {
+        status = FAIL;
+        System.err.print("*** The catalog page was not written out\n");
+      }
+      pid.pid = firstPid.pid + numPages - 1;
+      SystemDefs.JavabaseDB.read_page( pid, onDisk );
+      if ( Convert.getIntValue( 0, onDisk.getpage() ) != pid.pid + 99999 ) {
+        status = FAIL;
+        System.err.print("*** A data page was not written out\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 8 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It allocates pages, fills them and reads them back, checking that
+   * new and empty pages are zero-filled in the pool rather than read
+   * from disk.
+   *
+   * @return whether test9 has passed
+   */
+  protected boolean test9 () {
+
+    System.out.print("\n  Test 9 does not read new pages from disk:\n");
+
+    final int numPages = NUMBUF / 2;
+    boolean status = OK;
+
+    SystemDefs sysdef = new SystemDefs( dbpath, 2 * numPages + 20, NUMBUF, "Clock" );
+
+    Page pg = new Page();
+    PageId firstPid = null;
+    PageId pid = new PageId();
+    BufMgrStats stats = SystemDefs.JavabaseBM.getStats();
+
+    System.out.print("  - Allocate new pages and fill them\n");
+    long readBefore = stats.getPagesRead();
+    long missesBefore = 0;
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      missesBefore = stats.getMisses();
+      for ( pid.pid = firstPid.pid; status == OK
+            && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+        if ( pid.pid != firstPid.pid ) {
+          SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        }
+        for ( int i = 0; i < MINIBASE_PAGESIZE; i = i + 4 ) {
+          if ( Convert.getIntValue( i, pg.getpage() ) != 0 ) {
+            status = FAIL;
+            System.err.print("*** New page " + pid.pid + " is not zero-filled\n");
+            break;
+          }
+        }
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not fill the new pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK && stats.getPagesRead() != readBefore ) {
+      status = FAIL;
+      System.err.print("*** " + (stats.getPagesRead() - readBefore)
+                       + " new pages were read from disk\n");
+    }
+    if ( status == OK && stats.getMisses() != missesBefore ) {
+      status = FAIL;
+      System.err.print("*** The new pages were not kept in the pool\n");
+    }
+
+    System.out.print("  - Pin as empty a page that is not in the pool\n");
+    try {
+      pid.pid = firstPid.pid + numPages;
+      SystemDefs.JavabaseDB.allocate_page( pid );
+      Page junk = new Page();
+      Convert.setIntValue( 12345, 0, junk.getpage() );
+      SystemDefs.JavabaseDB.write_page( pid, junk );
+      readBefore = stats.getPagesRead();
+      SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+      if ( Convert.getIntValue( 0, pg.getpage() ) != 0
+           || stats.getPagesRead() != readBefore ) {
+        status = FAIL;
+        System.err.print("*** An empty page was read from disk\n");
+      }
+      SystemDefs.JavabaseBM.unpinPage( pid, false );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("  - Flush the pages and read them back\n");
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      Page onDisk = new Page();
+      for ( pid.pid = firstPid.pid; status == OK
+            && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseDB.read_page( pid, onDisk );
+        if ( Convert.getIntValue( 0, onDisk.getpage() ) != pid.pid + 99999 ) {
+          status = FAIL;
+          System.err.print("*** Read wrong data back from page "+pid.pid+"\n");
+        }
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 9 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It leaves pins behind with pin tracking on, and checks that they are
+   * reported with where they were taken, and that fail-fast mode stops
+   * the next pin.
+   *
+   * @return whether test10 has passed
+   */
+  protected boolean test10 () {
+
+    System.out.print("\n  Test 10 tracks pins that are never released:\n");
+
+    final int numPages = 4;
+    boolean status = OK;
+
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+
+    Page pg = new Page();
+    PageId firstPid;
+    PageId pid = new PageId();
+
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false );
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    System.out.print("  - Leave a page pinned and look for it\n");
+    PinTracker tracker = SystemDefs.JavabaseBM.trackPins( 60000, false );
+    try {
+      pid.pid = firstPid.pid;
+      SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+      SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+      pid.pid = firstPid.pid + 1;
+      SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+      SystemDefs.JavabaseBM.unpinPage( pid, false );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false );
+
+      List<PinTracker.Pin> held = tracker.getPins( 0 );
+      if ( held.size() != 1 || tracker.getNumPins() != 1
+           || held.get(0).getPageNo() != firstPid.pid ) {
+        status = FAIL;
+        System.err.print("*** Tracked " + held.size() + " pins instead of 1\n");
+      }
+      else if ( !held.get(0).toString().contains( "test10" ) ) {
+        status = FAIL;
+        System.err.print("*** The pin was reported without where it was taken\n");
+      }
+      if ( status == OK && !tracker.getLeakedPins().isEmpty() ) {
+        status = FAIL;
+        System.err.print("*** A pin held for a moment counted as leaked\n");
+      }
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false );
+      if ( status == OK && tracker.getNumPins() != 0 ) {
+        status = FAIL;
+        System.err.print("*** Releasing the pin did not forget it\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("  - Pin in fail-fast mode after a pin has leaked\n");
+    tracker = SystemDefs.JavabaseBM.trackPins( 50, true );
+    try {
+      pid.pid = firstPid.pid + 2;
+      SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+      Thread.sleep( 100 );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    PageId other = new PageId( firstPid.pid + 3 );
+    try {
+      SystemDefs.JavabaseBM.pinPage( other, pg, false );
+      status = FAIL;
+      System.err.print("*** Pinned a page while a pin had leaked\n");
+    }
+    catch (ChainException e) {
+      // checkException returns FAIL when it finds the exception.
+      if ( checkException( e, "bufmgr.PagePinnedException" ) == OK ) {
+        status = FAIL;
+        System.err.print("*** The leak was not reported as a pinned page\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    if ( status == OK && (tracker.getLeakedPins().size() != 1
+                          || SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+                             != SystemDefs.JavabaseBM.getNumBuffers() - 1) ) {
+      status = FAIL;
+      System.err.print("*** The failed pin was not undone\n");
+    }
+
+    try {
+      SystemDefs.JavabaseBM.unpinPage( pid, false );
+      SystemDefs.JavabaseBM.pinPage( other, pg, false );
+      SystemDefs.JavabaseBM.unpinPage( other, false );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not pin once the leak was released\n");
+      e.printStackTrace();
+    }
+    SystemDefs.JavabaseBM.stopTrackingPins();
+
+    if ( status == OK && SystemDefs.JavabaseBM.getPinTracker() != null ) {
+      status = FAIL;
+      System.err.print("*** Pins are still tracked\n");
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 10 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It runs test 4 on a database mapped into memory, then checks that
+   * what was written through the mapping is in the file.
+   *
+   * @return whether test11 has passed
+   */
+  protected boolean test11 () {
+
+    System.out.print("\n  Test 11 runs test 4 on a memory-mapped database:\n");
+
+    String [] policies = { "Clock", "LRU-K" };
+    boolean status = OK;
+
+    SystemDefs.MINIBASE_MAPPED_DB = true;
+    for (int i = 0; status == OK && i < policies.length; ++i) {
+      System.out.print("  - " + policies[i] + "\n");
+      status = stressTest(policies[i], false, false);
+    }
+    SystemDefs.MINIBASE_MAPPED_DB = false;
+
+    System.out.print("  - Read a page written through the mapping from the file\n");
+    try {
+      SystemDefs.MINIBASE_MAPPED_DB = true;
+      SystemDefs sysdef = new SystemDefs( dbpath, 20, NUMBUF, "Clock" );
+      SystemDefs.MINIBASE_MAPPED_DB = false;
+      Page pg = new Page();
+      PageId pid = SystemDefs.JavabaseBM.newPage( pg, 1 );
+      Convert.setIntValue( 4242, 0, pg.getpage() );
+      SystemDefs.JavabaseBM.unpinPage( pid, true );
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      ByteBuffer view = SystemDefs.JavabaseDB.page_view( pid );
+      if ( status == OK && (view == null || view.getInt( 0 ) != 4242) ) {
+        status = FAIL;
+        System.err.print("*** The page is not in the mapping\n");
+      }
+
+      DB plain = new DB( false );
+      plain.openDB( dbpath );
+      Page onDisk = new Page();
+      plain.read_page( pid, onDisk );
+      plain.closeDB();
+      if ( status == OK && Convert.getIntValue( 0, onDisk.getpage() ) != 4242 ) {
+        status = FAIL;
+        System.err.print("*** The page did not reach the file\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    SystemDefs.MINIBASE_MAPPED_DB = false;
+
+    if ( status == OK )
+      System.out.print("  Test 11 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It writes a run of pages with one call to DB and reads it back with
+   * another, in both the channel and the mapped mode.
+   *
+   * @return whether test12 has passed
+   */
+  protected boolean test12 () {
+
+    System.out.print("\n  Test 12 moves runs of pages to and from disk at once:\n");
+
+    final int numPages = 16;
+    boolean status = OK;
+
+    for (int mode = 0; status == OK && mode < 2; mode++) {
+      System.out.print("  - " + (mode == 0 ? "channel" : "mapped") + "\n");
+      SystemDefs.MINIBASE_MAPPED_DB = (mode == 1);
+      SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+      SystemDefs.MINIBASE_MAPPED_DB = false;
+
+      Page[] pages = new Page[numPages];
+      Page[] back = new Page[numPages + 1];
+      for (int i = 0; i < numPages; i++) {
+        pages[i] = new Page();
+        back[i] = new Page();
+      }
+      back[numPages] = new Page();
+
+      try {
+        PageId first = new PageId();
+        SystemDefs.JavabaseDB.allocate_page( first, numPages );
+        for (int i = 0; i < numPages; i++) {
+          Convert.setIntValue( first.pid + i + 99999, 0, pages[i].getpage() );
+          Convert.setIntValue( i, MINIBASE_PAGESIZE - 4, pages[i].getpage() );
+        }
+        SystemDefs.JavabaseDB.write_pages( first, numPages, pages );
+        SystemDefs.JavabaseDB.read_pages( first, numPages, back );
+        for (int i = 0; status == OK && i < numPages; i++) {
+          if ( Convert.getIntValue( 0, back[i].getpage() ) != first.pid + i + 99999
+               || Convert.getIntValue( MINIBASE_PAGESIZE - 4, back[i].getpage() ) != i ) {
+            status = FAIL;
+            System.err.print("*** Read wrong data back from page "
+                             + (first.pid + i) + "\n");
+          }
+        }
+
+        try {
+          SystemDefs.JavabaseDB.read_pages( first, numPages + 1, pages );
+          status = FAIL;
+          System.err.print("*** Read a run longer than its pages\n");
+        }
+        catch (InvalidRunSizeException e) {
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 12 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It prefetches runs of pages asynchronously with a small queue depth,
+   * pins pages while they are being read, and checks the data and the
+   * I/O engine's counters.  Then it has a flush and the page cleaner
+   * write pages through the engine.
+   *
+   * @return whether test13 has passed
+   */
+  protected boolean test13 () {
+
+    System.out.print("\n  Test 13 reads pages ahead asynchronously:\n");
+
+    final int numPages = 40;
+    final int queueDepth = 2;
+    boolean status = OK;
+
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + NUMBUF + 20, NUMBUF, "LRU" );
+
+    Page pg = new Page();
+    PageId firstPid;
+    PageId pid = new PageId();
+
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages + NUMBUF );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      // Empty the pool, then bring back every fourth page, so that the
+      // pages to prefetch are in many short runs.
+      SystemDefs.JavabaseBM.setReadAhead( 0 );
+      for ( pid.pid = firstPid.pid + numPages; pid.pid < firstPid.pid + numPages + NUMBUF;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 4 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not set up " + numPages + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    System.out.print("  - Prefetch the other pages and pin them at once\n");
+    AsyncPageIO io = SystemDefs.JavabaseDB.start_async_io( 2, queueDepth );
+    try {
+      long readBefore = SystemDefs.JavabaseBM.getStats().getPagesRead();
+      CompletableFuture<Integer> done =
+        SystemDefs.JavabaseBM.prefetchAsync( firstPid, numPages );
+      for ( pid.pid = firstPid.pid; status == OK
+            && pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        if (Convert.getIntValue( 0, pg.getpage() ) != pid.pid + 99999) {
+          status = FAIL;
+          System.err.print("*** Read wrong data back from page "+pid.pid+"\n");
+        }
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+      int got = done.get();
+      long read = SystemDefs.JavabaseBM.getStats().getPagesRead() - readBefore;
+      if ( status == OK && (got != numPages - numPages / 4 || read != got) ) {
+        status = FAIL;
+        System.err.print("*** Prefetched " + got + " pages and read " + read
+                         + " instead of " + (numPages - numPages / 4) + "\n");
+      }
+      if ( status == OK && (io.getPending() != 0 || io.getSubmitted() < 2
+                            || io.getPeakPending() > queueDepth
+                            || io.getFailed() != 0) ) {
+        status = FAIL;
+        System.err.print("*** The I/O engine counted " + io.getSubmitted()
+                         + " requests, " + io.getPending() + " pending, "
+                         + io.getPeakPending() + " at most\n");
+      }
+      if ( status == OK && SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+           != SystemDefs.JavabaseBM.getNumBuffers() ) {
+        status = FAIL;
+        System.err.print("*** Prefetching left pages pinned\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Flush and clean pages on the I/O threads\n");
+      final int numDirty = numPages / 4;
+      try {
+        for (int round = 0; status == OK && round < 2; round++) {
+          for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numDirty;
+                pid.pid = pid.pid + 1 ) {
+            SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+            Convert.setIntValue( pid.pid + round + 1, 4, pg.getpage() );
+            SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+          }
+          long submitted = io.getSubmitted();
+          if ( round == 0 ) {
+            SystemDefs.JavabaseBM.flushAllPages();
+          } else {
+            PageCleaner pc = SystemDefs.JavabaseBM.startPageCleaner( 0.0, 0.0 );
+            long deadline = System.currentTimeMillis() + 10000;
+            while ( pc.getPagesWritten() < numDirty
+                    && System.currentTimeMillis() < deadline ) {
+              Thread.sleep( 10 );
+            }
+            SystemDefs.JavabaseBM.stopPageCleaner();
+          }
+          if ( SystemDefs.JavabaseBM.getNumDirtyBuffers() != 0
+               || io.getSubmitted() == submitted || io.getFailed() != 0 ) {
+            status = FAIL;
+            System.err.print("*** " + (round == 0 ? "The flush" : "The cleaner")
+                             + " left " + SystemDefs.JavabaseBM.getNumDirtyBuffers()
+                             + " pages dirty after " + (io.getSubmitted() - submitted)
+                             + " requests to the I/O engine\n");
+          }
+          Page onDisk = new Page();
+          for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numDirty;
+                pid.pid = pid.pid + 1 ) {
+            SystemDefs.JavabaseDB.read_page( pid, onDisk );
+            if ( Convert.getIntValue( 4, onDisk.getpage() ) != pid.pid + round + 1 ) {
+              status = FAIL;
+              System.err.print("*** Page " + pid.pid + " was not written\n");
+            }
+          }
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+    SystemDefs.JavabaseDB.stop_async_io();
+
+    if ( status == OK )
+      System.out.print("  Test 13 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It allocates and deallocates runs of pages at random on a database
+   * whose space map takes several pages, checking every allocation
+   * against a model of which pages are in use, before and after the
+   * database is reopened.
+   *
+   * @return whether test14 has passed
+   */
+  protected boolean test14 () {
+
+    System.out.print("\n  Test 14 allocates runs of pages across the space map:\n");
+
+    final int numPages = 3 * MAX_SPACE * 8 + 100;
+    final int numOps = 4000;
+    boolean status = OK;
+
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages, NUMBUF, "Clock" );
+
+    // Pages 0 to the end of the space map are in use from the start.
+    int numMapPages = (numPages + MAX_SPACE * 8 - 1) / (MAX_SPACE * 8);
+    BitSet used = new BitSet( numPages );
+    used.set( 0, 1 + numMapPages );
+    ArrayList<int[]> runs = new ArrayList<int[]>();
+    Random rand = new Random( 448 );
+
+    for (int round = 0; status == OK && round < 2; round++) {
+      System.out.print("  - " + (round == 0 ? "Allocate and free runs"
+                                 : "Reopen the database and go on") + "\n");
+      if (round == 1) {
+        try {
+          SystemDefs.JavabaseBM.flushAllPages();
+          SystemDefs.MINIBASE_RESTART_FLAG = true;
+          sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+        }
+        catch (Exception e) {
+          status = FAIL;
+          e.printStackTrace();
+        }
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+      }
+
+      for (int op = 0; status == OK && op < numOps; op++) {
+        try {
+          if (runs.isEmpty() || rand.nextInt(3) > 0) {
+            // Mostly short runs, now and then one longer than a map page.
+            int size = (rand.nextInt(50) == 0) ? MAX_SPACE * 8 + rand.nextInt(2000)
+                                                : 1 + rand.nextInt(40);
+            boolean fits = false;
+            for (int p = used.nextClearBit(0); !fits && p < numPages; ) {
+              int q = used.nextSetBit(p);
+              q = (q < 0) ? numPages : q;
+              fits = q - p >= size;
+              p = used.nextClearBit(q);
+            }
+            PageId pid = new PageId();
+            try {
+              SystemDefs.JavabaseDB.allocate_page( pid, size );
+            }
+            catch (OutOfSpaceException e) {
+              if (fits) {
+                status = FAIL;
+                System.err.print("*** No room for " + size + " pages, but there is\n");
+              }
+              continue;
+            }
+            int clash = used.nextSetBit( pid.pid );
+            if ( !fits || pid.pid < 0 || pid.pid + size > numPages
+                 || (clash >= 0 && clash < pid.pid + size) ) {
+              status = FAIL;
+              System.err.print("*** Allocated pages " + pid.pid + " to "
+                               + (pid.pid + size - 1) + ", which are not free\n");
+            }
+            used.set( pid.pid, pid.pid + size );
+            runs.add( new int[] { pid.pid, size } );
+          }
+          else {
+            int[] run = runs.remove( rand.nextInt( runs.size() ) );
+            SystemDefs.JavabaseDB.deallocate_page( new PageId( run[0] ), run[1] );
+            used.clear( run[0], run[0] + run[1] );
+          }
+        }
+        catch (Exception e) {
+          status = FAIL;
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 14 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It adds, looks up and deletes file entries spanning several
+   * directory pages, checking that lookups are answered without pinning
+   * the directory and that the entries are found again after the
+   * database is reopened.
+   *
+   * @return whether test15 has passed
+   */
+  protected boolean test15 () {
+
+    System.out.print("\n  Test 15 keeps the file directory in memory:\n");
+
+    final int numFiles = 60;
+    boolean status = OK;
+
+    SystemDefs sysdef = new SystemDefs( dbpath, numFiles + 40, NUMBUF, "Clock" );
+
+    System.out.print("  - Add file entries across several directory pages\n");
+    try {
+      for (int i = 0; i < numFiles; i++) {
+        SystemDefs.JavabaseDB.add_file_entry( "file" + i, new PageId( 20 + i ) );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("  - Look the entries up\n");
+    BufMgrStats stats = SystemDefs.JavabaseBM.getStats();
+    long pinsBefore = stats.getHits() + stats.getMisses();
+    try {
+      for (int i = 0; status == OK && i < numFiles; i++) {
+        PageId pid = SystemDefs.JavabaseDB.get_file_entry( "file" + i );
+        if ( pid == null || pid.pid != 20 + i ) {
+          status = FAIL;
+          System.err.print("*** Found the wrong entry for file" + i + "\n");
+        }
+      }
+      if ( status == OK && SystemDefs.JavabaseDB.get_file_entry( "nofile" ) != null ) {
+        status = FAIL;
+        System.err.print("*** Found an entry for a file never added\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    if ( status == OK && stats.getHits() + stats.getMisses() != pinsBefore ) {
+      status = FAIL;
+      System.err.print("*** Looking entries up pinned the directory pages\n");
+    }
+
+    System.out.print("  - Delete every other entry and add others in their place\n");
+    try {
+      for (int i = 0; i < numFiles; i += 2) {
+        SystemDefs.JavabaseDB.delete_file_entry( "file" + i );
+      }
+      for (int i = 0; i < numFiles; i += 2) {
+        SystemDefs.JavabaseDB.add_file_entry( "other" + i, new PageId( 20 + i ) );
+      }
+      try {
+        SystemDefs.JavabaseDB.add_file_entry( "file1", new PageId( 20 ) );
+        status = FAIL;
+        System.err.print("*** Added a second entry for file1\n");
+      }
+      catch (DuplicateEntryException e) {
+        // As expected.
+      }
+      try {
+        SystemDefs.JavabaseDB.delete_file_entry( "file0" );
+        status = FAIL;
+        System.err.print("*** Deleted an entry that was already deleted\n");
+      }
+      catch (FileEntryNotFoundException e) {
+        // As expected.
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    for (int round = 0; status == OK && round < 2; round++) {
+      if (round == 1) {
+        System.out.print("  - Reopen the database and look the entries up again\n");
+        try {
+          SystemDefs.JavabaseBM.flushAllPages();
+          SystemDefs.MINIBASE_RESTART_FLAG = true;
+          sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+        }
+        catch (Exception e) {
+          status = FAIL;
+          e.printStackTrace();
+        }
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+      }
+      try {
+        for (int i = 0; status == OK && i < numFiles; i++) {
+          PageId deleted = SystemDefs.JavabaseDB.get_file_entry( "file" + i );
+          PageId added = SystemDefs.JavabaseDB.get_file_entry( "other" + i );
+          PageId pid = (i % 2 == 0) ? added : deleted;
+          if ( pid == null || pid.pid != 20 + i
+               || (i % 2 == 0 ? deleted : added) != null ) {
+            status = FAIL;
+            System.err.print("*** Found the wrong entries for file " + i + "\n");
+          }
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 15 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It writes values with Convert and with DataOutputStream, checking
+   * that the bytes are the same and that each reads the other's back.
+   *
+   * @return whether test16 has passed
+   */
+  protected boolean test16 () {
+
+    System.out.print("\n  Test 16 converts values as the data streams do:\n");
+
+    boolean status = OK;
+    Random rand = new Random( 448 );
+    int[] ints = { 0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, rand.nextInt() };
+    float[] floats = { 0f, -0f, 2.5f, Float.NaN, Float.intBitsToFloat(0x7fc00001),
+                       Float.MIN_VALUE, Float.NEGATIVE_INFINITY, rand.nextFloat() };
+    char[] chars = { 0, 'a', '\u00e9', '\uffff' };
+    String[] strings = { "", "record1", "\0", "caf\u00e9", "\u65e5\u672c" };
+
+    System.out.print("  - Write values both ways and compare the bytes\n");
+    try {
+      for (int i = 0; status == OK && i < ints.length + floats.length
+             + chars.length + strings.length; i++) {
+        byte[] mine = new byte[80];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream outstr = new DataOutputStream( out );
+        int j = i;
+        String what;
+        if (j < ints.length) {
+          what = "int " + ints[j];
+          Convert.setIntValue( ints[j], 3, mine );
+          Convert.setShortValue( (short) ints[j], 7, mine );
+          outstr.writeInt( ints[j] );
+          outstr.writeShort( ints[j] );
+        }
+        else if ((j -= ints.length) < floats.length) {
+          what = "float " + floats[j];
+          Convert.setFloValue( floats[j], 3, mine );
+          outstr.writeFloat( floats[j] );
+        }
+        else if ((j -= floats.length) < chars.length) {
+          what = "char " + (int) chars[j];
+          Convert.setCharValue( chars[j], 3, mine );
+          outstr.writeChar( chars[j] );
+        }
+        else {
+          j -= chars.length;
+          what = "string \"" + strings[j] + "\"";
+          Convert.setStrValue( strings[j], 3, mine );
+          outstr.writeUTF( strings[j] );
+        }
+        byte[] theirs = new byte[80];
+        System.arraycopy( out.toByteArray(), 0, theirs, 3, out.size() );
+        if (!Arrays.equals( mine, theirs )) {
+          status = FAIL;
+          System.err.print("*** Wrote " + what + " differently\n");
+          break;
+        }
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( theirs, 3, 77 ) );
+        j = i;
+        boolean same;
+        if (j < ints.length) {
+          same = Convert.getIntValue( 3, theirs ) == in.readInt()
+                 && Convert.getShortValue( 7, theirs ) == in.readShort();
+        }
+        else if ((j -= ints.length) < floats.length) {
+          same = Float.floatToRawIntBits( Convert.getFloValue( 3, theirs ) )
+                 == Float.floatToRawIntBits( in.readFloat() );
+        }
+        else if ((j -= floats.length) < chars.length) {
+          same = Convert.getCharValue( 3, theirs ) == in.readChar();
+        }
+        else {
+          same = Convert.getStrValue( 3, theirs, 77 ).equals( in.readUTF() );
+        }
+        if (!same) {
+          status = FAIL;
+          System.err.print("*** Read " + what + " back differently\n");
+        }
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("  - Read a string longer than its field\n");
+    try {
+      byte[] data = new byte[20];
+      Convert.setStrValue( "0123456789", 0, data );
+      Convert.getStrValue( 0, data, 8 );
+      status = FAIL;
+      System.err.print("*** Read 12 bytes from an 8-byte field\n");
+    }
+    catch (EOFException e) {
+      // As expected.
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 16 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It runs test 4 on databases with larger pages, and checks that a
+   * database is reopened with the page size it was created with.
+   *
+   * @return whether test17 has passed
+   */
+  protected boolean test17 () {
+
+    System.out.print("\n  Test 17 runs test 4 with larger pages:\n");
+
+    boolean status = OK;
+
+    System.out.print("  - Clock with 8KB pages\n");
+    SystemDefs.MINIBASE_PAGE_SIZE = 8192;
+    status = stressTest("Clock", false, false);
+    if ( status == OK ) {
+      System.out.print("  - LRU-K with 16KB pages off the heap\n");
+      SystemDefs.MINIBASE_PAGE_SIZE = 16384;
+      status = stressTest("LRU-K", true, false);
+    }
+
+    System.out.print("  - Reopen an 8KB-page database as one of the default size\n");
+    try {
+      SystemDefs.MINIBASE_PAGE_SIZE = 8192;
+      SystemDefs sysdef = new SystemDefs( dbpath, 20, NUMBUF, "Clock" );
+      SystemDefs.MINIBASE_PAGE_SIZE = MINIBASE_PAGESIZE;
+
+      // The first page holds many more file entries than a 1KB one, so
+      // it has no next directory page.
+      for (int i = 0; i < 100; i++) {
+        SystemDefs.JavabaseDB.add_file_entry( "file" + i, new PageId( 10 ) );
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+      Page first = new Page();
+      SystemDefs.JavabaseDB.read_page( new PageId( 0 ), first );
+      if ( Convert.getIntValue( 0, first.getpage() ) != INVALID_PAGE ) {
+        status = FAIL;
+        System.err.print("*** 100 file entries did not fit on the first page\n");
+      }
+
+      Page pg = new Page();
+      PageId pid = SystemDefs.JavabaseBM.newPage( pg, 1 );
+      if ( pg.getpage().length != 8192 ) {
+        status = FAIL;
+        System.err.print("*** A new page has " + pg.getpage().length + " bytes\n");
+      }
+      Convert.setIntValue( 4242, 8192 - 4, pg.getpage() );
+      SystemDefs.JavabaseBM.unpinPage( pid, true );
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      SystemDefs.MINIBASE_RESTART_FLAG = true;
+      sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+      if ( SystemDefs.JavabaseDB.db_page_size() != 8192
+           || Page.getPageSize() != 8192 ) {
+        status = FAIL;
+        System.err.print("*** Reopened with " + SystemDefs.JavabaseDB.db_page_size()
+                         + "-byte pages\n");
+      }
+      SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+      if ( status == OK && Convert.getIntValue( 8192 - 4, pg.getpage() ) != 4242 ) {
+        status = FAIL;
+        System.err.print("*** Read the wrong data back from the end of a page\n");
+      }
+      SystemDefs.JavabaseBM.unpinPage( pid, false );
+      if ( status == OK && SystemDefs.JavabaseDB.get_file_entry( "file99" ) == null ) {
+        status = FAIL;
+        System.err.print("*** Lost a file entry\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    SystemDefs.MINIBASE_PAGE_SIZE = MINIBASE_PAGESIZE;
+    SystemDefs.MINIBASE_RESTART_FLAG = false;
+
+    // Leave pages of the default size for whatever runs next.
+    SystemDefs sysdef = new SystemDefs( dbpath, 20, NUMBUF, "Clock" );
+
+    if ( status == OK )
+      System.out.print("  Test 17 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It runs test 4 with page checksums on, then corrupts a page in the
+   * file behind the database's back and checks that reading it fails,
+   * in both the channel and the mapped mode.  Last, it leaves a page's
+   * checksum behind the page, as a crash of the OS can, and checks that
+   * recovery still brings back the page's committed change, and that it
+   * redoes no change a page was written with.
+   *
+   * @return whether test18 has passed
+   */
+  protected boolean test18 () {
+
+    System.out.print("\n  Test 18 checksums pages:\n");
+
+    final int numPages = 10;
+    boolean status = OK;
+
+    System.out.print("  - Clock off the heap with checksums\n");
+    SystemDefs.MINIBASE_CHECKSUMS = true;
+    status = stressTest("Clock", true, false);
+
+    for (int mode = 0; status == OK && mode < 2; mode++) {
+      boolean mapped = (mode == 1);
+      System.out.print("  - Corrupt a page of a " + (mapped ? "mapped" : "channel")
+                       + " database\n");
+      try {
+        SystemDefs.MINIBASE_MAPPED_DB = mapped;
+        SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+        Page pg = new Page();
+        PageId firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+        PageId pid = new PageId();
+        for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+              pid.pid = pid.pid + 1 ) {
+          if ( pid.pid != firstPid.pid ) {
+            SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+          }
+          Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+          SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+        }
+        SystemDefs.JavabaseBM.flushAllPages();
+
+        // An untouched page reads back fine, alone and in a run.
+        Page[] run = new Page[numPages];
+        for (int i = 0; i < numPages; i++) {
+          run[i] = new Page();
+        }
+        SystemDefs.JavabaseDB.read_pages( firstPid, numPages, run );
+        if ( !SystemDefs.JavabaseDB.db_checksums()
+             || SystemDefs.JavabaseDB.checksum_failures() != 0 ) {
+          status = FAIL;
+          System.err.print("*** Pages failed their checksums before any damage\n");
+        }
+
+        int bad = firstPid.pid + 3;
+        RandomAccessFile file = new RandomAccessFile( dbpath, "rw" );
+        file.seek( (long) bad * MINIBASE_PAGESIZE + 100 );
+        file.write( 0x5a );
+        file.close();
+
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        SystemDefs.MINIBASE_MAPPED_DB = false;
+        if ( !SystemDefs.JavabaseDB.db_checksums() ) {
+          status = FAIL;
+          System.err.print("*** Checksums were off after reopening\n");
+        }
+        pid.pid = bad - 1;
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+        pid.pid = bad;
+        try {
+          SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+          status = FAIL;
+          System.err.print("*** Pinned a corrupt page\n");
+        }
+        catch (PageChecksumException e) {
+          // As expected.
+        }
+        try {
+          SystemDefs.JavabaseDB.read_pages( firstPid, numPages, run );
+          status = FAIL;
+          System.err.print("*** Read a run with a corrupt page\n");
+        }
+        catch (PageChecksumException e) {
+          // As expected.
+        }
+        if ( status == OK && SystemDefs.JavabaseDB.checksum_failures() != 2 ) {
+          status = FAIL;
+          System.err.print("*** Counted " + SystemDefs.JavabaseDB.checksum_failures()
+                           + " checksum failures, not 2\n");
+        }
+
+        // Writing the page again makes it whole.
+        Convert.setIntValue( bad + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseDB.write_page( pid, pg );
+        SystemDefs.JavabaseDB.read_page( pid, pg );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+      SystemDefs.MINIBASE_MAPPED_DB = false;
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Recover a page whose checksum the crash left behind\n");
+      SystemDefs.MINIBASE_LOGGING = true;
+      SystemDefs.MINIBASE_CHECKPOINT_INTERVAL = 0;
+      try {
+        SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+        LogMgr log = SystemDefs.JavabaseLog;
+        Page pg = new Page();
+        PageId firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+        PageId pid = new PageId();
+        for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+              pid.pid = pid.pid + 1 ) {
+          if ( pid.pid != firstPid.pid ) {
+            SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+          }
+          Arrays.fill( pg.getpage(), (byte) 0 );
+          SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+        }
+        SystemDefs.JavabaseBM.flushAllPages();
+        log.checkpoint();
+
+        // Page 3 reaches the disk after a committed change, but its
+        // checksum stays as it was.  Page 5 reaches the disk after one
+        // too, checksum and all, and page 6 does not.
+        PageId stale = new PageId( firstPid.pid + 3 );
+        RandomAccessFile crcFile = new RandomAccessFile( dbpath + ".crc", "rw" );
+        byte [] entry = new byte[16];
+        crcFile.seek( (long) stale.pid * entry.length );
+        crcFile.readFully( entry );
+        int a = log.begin();
+        logInt( log, a, stale, 8, 4242 );
+        log.commit( a );
+        SystemDefs.JavabaseBM.flushAllPages();
+        crcFile.seek( (long) stale.pid * entry.length );
+        crcFile.write( entry );
+        crcFile.close();
+
+        int b = log.begin();
+        pid.pid = firstPid.pid + 5;
+        logInt( log, b, pid, 8, 5151 );
+        log.commit( b );
+        SystemDefs.JavabaseBM.flushPage( pid );
+        int c = log.begin();
+        pid.pid = firstPid.pid + 6;
+        logInt( log, c, pid, 8, 6161 );
+        log.commit( c );
+
+        // Reopen without the log, and recover by hand to see what is redone.
+        SystemDefs.JavabaseLog = null;
+        SystemDefs.MINIBASE_LOGGING = false;
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        log = new LogMgr( dbpath + ".log", false, 0 );
+        SystemDefs.JavabaseLog = log;
+        RecoveryMgr rm = new RecoveryMgr( log, SystemDefs.JavabaseBM );
+        rm.recover();
+        if ( rm.getNumRedone() != 2 ) {
+          status = FAIL;
+          System.err.print("*** Redid " + rm.getNumRedone() + " changes, not the 2"
+                           + " missing from their pages\n");
+        }
+        int [] expected = { 3, 4242, 5, 5151, 6, 6161 };
+        for (int i = 0; status == OK && i < expected.length; i += 2) {
+          pid.pid = firstPid.pid + expected[i];
+          SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+          if ( Convert.getIntValue( 8, pg.getpage() ) != expected[i + 1] ) {
+            status = FAIL;
+            System.err.print("*** The committed change to page " + pid.pid
+                             + " was not recovered\n");
+          }
+          SystemDefs.JavabaseBM.unpinPage( pid, false );
+        }
+        if ( status == OK && SystemDefs.JavabaseDB.checksum_failures() != 1 ) {
+          status = FAIL;
+          System.err.print("*** Counted " + SystemDefs.JavabaseDB.checksum_failures()
+                           + " checksum failures, not 1\n");
+        }
+        log.close();
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+      SystemDefs.JavabaseLog = null;
+      SystemDefs.MINIBASE_LOGGING = false;
+      SystemDefs.MINIBASE_CHECKPOINT_INTERVAL = 64;
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+      new File( dbpath + ".log" ).delete();
+    }
+    SystemDefs.MINIBASE_CHECKSUMS = false;
+
+    if ( status == OK )
+      System.out.print("  Test 18 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Test 19: transactions log their page changes and commit concurrently.
+   * Commits share log forces, every commit is in the log, a dirty page is
+   * not written ahead of its log, and a reopened log keeps its records.
+   *
+   * @return whether test19 has passed
+   */
+  protected boolean test19 () {
+
+    System.out.print("\n  Test 19 keeps a write-ahead log:\n");
+
+    final int numThreads = 8;
+    final int numPages = 2 * NUMBUF;
+    final int numTxns = 200;
+    boolean status = OK;
+
+    SystemDefs.MINIBASE_LOGGING = true;
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+    final LogMgr log = SystemDefs.JavabaseLog;
+
+    Page pg = new Page();
+    PageId pid = new PageId();
+    final PageId firstPid;
+
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        Arrays.fill( pg.getpage(), (byte) 0 );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not set up " + numPages + " pages\n");
+      e.printStackTrace();
+      SystemDefs.MINIBASE_LOGGING = false;
+      return FAIL;
+    }
+
+    System.out.print("  - " + numThreads + " threads commit " + numTxns
+                     + " transactions each\n");
+    final int [][] counts = new int[numThreads][numPages];
+    final Exception [] errors = new Exception[numThreads];
+    Thread [] threads = new Thread[numThreads];
+
+    for (int t = 0; t < numThreads; ++t) {
+      final int me = t;
+      threads[t] = new Thread(() -> {
+        Random rand = new Random(me);
+        Page page = new Page();
+        PageId a = new PageId();
+        try {
+          for (int i = 0; i < numTxns; ++i) {
+            int txn = log.begin();
+            a.pid = firstPid.pid + rand.nextInt(numPages);
+            SystemDefs.JavabaseBM.pinPage( a, page, false );
+            int off = 8 + 4 * me;
+            byte [] before = Arrays.copyOfRange( page.getpage(), off, off + 4 );
+            byte [] after = new byte[4];
+            Convert.setIntValue( Convert.getIntValue( 0, before ) + 1, 0, after );
+            long lsn = log.update( txn, a, off, before, after );
+            System.arraycopy( after, 0, page.getpage(), off, 4 );
+            SystemDefs.JavabaseBM.unpinPage( a, true, lsn );
+            log.commit( txn );
+            counts[me][a.pid - firstPid.pid]++;
+          }
+        }
+        catch (Exception e) {
+          errors[me] = e;
+        }
+      });
+      threads[t].start();
+    }
+
+    for (int t = 0; t < numThreads; ++t) {
+      try {
+        threads[t].join();
+      }
+      catch (InterruptedException e) {
+        status = FAIL;
+      }
+      if (errors[t] != null) {
+        status = FAIL;
+        System.err.print("*** Thread " + t + " failed\n");
+        errors[t].printStackTrace();
+      }
+    }
+
+    if ( status == OK && log.getNumCommits() != numThreads * numTxns ) {
+      status = FAIL;
+      System.err.print("*** Counted " + log.getNumCommits() + " commits, not "
+                       + numThreads * numTxns + "\n");
+    }
+    if ( status == OK && log.getNumActive() != 0 ) {
+      status = FAIL;
+      System.err.print("*** " + log.getNumActive() + " transactions left running\n");
+    }
+    if ( status == OK ) {
+      System.out.print("  - " + log.getNumCommits() + " commits took "
+                       + log.getNumForces() + " log forces\n");
+    }
+
+    // The pages hold every committed change.
+    for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+          pid.pid = pid.pid + 1 ) {
+      try {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        for (int t = 0; t < numThreads; ++t) {
+          if ( Convert.getIntValue( 8 + 4 * t, pg.getpage() )
+               != counts[t][pid.pid - firstPid.pid] ) {
+            status = FAIL;
+            System.err.print("*** Page " + pid.pid + " lost a change of thread "
+                             + t + "\n");
+          }
+        }
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Read the log back\n");
+      try {
+        int begins = 0;
+        int commits = 0;
+        int records = 0;
+        HashMap<Integer, Long> last = new HashMap<Integer, Long>();
+        for ( LogRecord rec = log.read( log.getFirstLSN() ); rec != null;
+              rec = log.read( rec.getNextLSN() ) ) {
+          if ( rec.getType() == LogRecord.CHECKPOINT )
+            continue;
+          // Checkpoints may have reclaimed the start of the log.
+          if ( rec.getType() == LogRecord.BEGIN )
+            begins++;
+          else if ( !last.containsKey( rec.getTxn() ) )
+            continue;
+          records++;
+          Long prev = last.get( rec.getTxn() );
+          if ( rec.getPrevLSN() != (prev == null ? 0 : prev.longValue()) ) {
+            status = FAIL;
+            System.err.print("*** Record " + rec + " is not chained to "
+                             + prev + "\n");
+            break;
+          }
+          last.put( rec.getTxn(), rec.getLSN() );
+          if ( rec.getType() == LogRecord.COMMIT )
+            commits++;
+        }
+        if ( status == OK && (begins == 0 || commits != begins
+                              || records != 3 * begins) ) {
+          status = FAIL;
+          System.err.print("*** Read " + records + " records and " + commits
+                           + " commits of " + begins + " transactions back\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Write a page changed by a transaction in progress\n");
+      try {
+        int txn = log.begin();
+        pid.pid = firstPid.pid;
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        byte [] before = Arrays.copyOfRange( pg.getpage(), 4, 8 );
+        byte [] after = { 1, 2, 3, 4 };
+        long lsn = log.update( txn, pid, 4, before, after );
+        System.arraycopy( after, 0, pg.getpage(), 4, 4 );
+        SystemDefs.JavabaseBM.unpinPage( pid, true, lsn );
+        if ( log.getFlushedLSN() > lsn ) {
+          status = FAIL;
+          System.err.print("*** The update was forced before it had to be\n");
+        }
+        SystemDefs.JavabaseBM.flushPage( pid );
+        if ( status == OK && log.getFlushedLSN() <= lsn ) {
+          status = FAIL;
+          System.err.print("*** The page was written ahead of its log record\n");
+        }
+        log.commit( txn );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Reopen the log after a torn write\n");
+      try {
+        long end = log.getEndLSN();
+        SystemDefs.JavabaseBM.flushAllPages();
+        log.close();
+        SystemDefs.JavabaseLog = null;
+        RandomAccessFile file = new RandomAccessFile( dbpath + ".log", "rw" );
+        file.seek( file.length() );
+        file.writeInt( 1000 );
+        file.write( new byte[100] );
+        file.close();
+
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        // Recovery's checkpoint takes the place of the torn record.
+        LogRecord rec = SystemDefs.JavabaseLog.read( end );
+        if ( rec == null || rec.getType() != LogRecord.CHECKPOINT ) {
+          status = FAIL;
+          System.err.print("*** The log does not go on at " + end
+                           + " after reopening: " + rec + "\n");
+        }
+        int txn = SystemDefs.JavabaseLog.begin();
+        if ( status == OK && txn <= numThreads * numTxns + 1 ) {
+          status = FAIL;
+          System.err.print("*** Transaction number " + txn + " was used before\n");
+        }
+        SystemDefs.JavabaseLog.commit( txn );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    try {
+      if ( SystemDefs.JavabaseLog != null )
+        SystemDefs.JavabaseLog.close();
+    }
+    catch (IOException e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    SystemDefs.JavabaseLog = null;
+    SystemDefs.MINIBASE_LOGGING = false;
+    new File( dbpath + ".log" ).delete();
+
+    if ( status == OK )
+      System.out.print("  Test 19 completed successfully.\n");
+
+    return status;
+  }
+
+  /** Set an int of a page under a transaction, logging the change. */
+  private void logInt (LogMgr log, int txn, PageId pid, int offset, int value)
+    throws Exception {
+    byte [] after = new byte[4];
+    Convert.setIntValue( value, 0, after );
+    logBytes( log, txn, pid, offset, after );
+  }
+
+  /** Set bytes of a page under a transaction, logging the change. */
+  private void logBytes (LogMgr log, int txn, PageId pid, int offset, byte [] after)
+    throws Exception {
+    Page page = new Page();
+    SystemDefs.JavabaseBM.pinPage( pid, page, false );
+    byte [] before = Arrays.copyOfRange( page.getpage(), offset, offset + after.length );
+    long lsn;
+    try {
+      lsn = log.update( txn, pid, offset, before, after );
+    }
+    catch (Exception e) {
+      SystemDefs.JavabaseBM.unpinPage( pid, false );
+      throw e;
+    }
+    System.arraycopy( after, 0, page.getpage(), offset, after.length );
+    SystemDefs.JavabaseBM.unpinPage( pid, true, lsn );
+  }
+
+  /**
+   * Test 20: a database reopened after a crash is recovered from its log.
+   * Committed changes are redone, those of transactions in progress and
+   * aborted undone, and redo starts from the last checkpoint.
+   *
+   * @return whether test20 has passed
+   */
+  protected boolean test20 () {
+
+    System.out.print("\n  Test 20 recovers from a crash:\n");
+
+    final int numPages = 2 * NUMBUF;
+    final int numLoser = 10;
+    boolean status = OK;
+
+    SystemDefs.MINIBASE_LOGGING = true;
+    SystemDefs.MINIBASE_CHECKPOINT_INTERVAL = 0;
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+    LogMgr log = SystemDefs.JavabaseLog;
+
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    long committed = 0;
+
+    try {
+      System.out.print("  - Commit a change to " + numPages + " pages\n");
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        Arrays.fill( pg.getpage(), (byte) 0 );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+      int a = log.begin();
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        logInt( log, a, pid, 8, pid.pid + 1000 );
+      }
+      committed = log.commit( a );
+      SystemDefs.JavabaseBM.flushAllPages();
+      log.checkpoint();
+
+      System.out.print("  - Leave a transaction in progress, abort another\n");
+      int b = log.begin();
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numLoser;
+            pid.pid = pid.pid + 1 ) {
+        logInt( log, b, pid, 12, 7777 );
+      }
+      // Some of its changes reach the disk before the crash.
+      pid.pid = firstPid.pid;
+      SystemDefs.JavabaseBM.flushPage( pid );
+
+      int c = log.begin();
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numLoser;
+            pid.pid = pid.pid + 1 ) {
+        logInt( log, c, pid, 16, 8888 );
+      }
+      log.abort( c );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numLoser;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+        if ( Convert.getIntValue( 16, pg.getpage() ) != 0 ) {
+          status = FAIL;
+          System.err.print("*** Abort left a change on page " + pid.pid + "\n");
+        }
+        SystemDefs.JavabaseBM.unpinPage( pid, false );
+      }
+
+      int d = log.begin();
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numLoser;
+            pid.pid = pid.pid + 1 ) {
+        logInt( log, d, pid, 20, 9999 );
+      }
+      log.commit( d );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    // Crash twice: once with the pool full of changes, once right after
+    // recovery, which must find nothing left to undo.
+    for (int crash = 0; status == OK && crash < 2; crash++) {
+      System.out.print("  - Crash and reopen" + (crash == 0 ? "" : " again") + "\n");
+      try {
+        SystemDefs.JavabaseLog = null;
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        log = SystemDefs.JavabaseLog;
+        if ( log.getNumActive() != 0 ) {
+          status = FAIL;
+          System.err.print("*** " + log.getNumActive()
+                           + " transactions left running after recovery\n");
+        }
+
+        for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+              pid.pid = pid.pid + 1 ) {
+          boolean touched = pid.pid < firstPid.pid + numLoser;
+          SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+          byte [] data = pg.getpage();
+          if ( Convert.getIntValue( 0, data ) != pid.pid + 99999
+               || Convert.getIntValue( 8, data ) != pid.pid + 1000
+               || Convert.getIntValue( 12, data ) != 0
+               || Convert.getIntValue( 16, data ) != 0
+               || Convert.getIntValue( 20, data ) != (touched ? 9999 : 0) ) {
+            status = FAIL;
+            System.err.print("*** Page " + pid.pid + " was not recovered: "
+                             + Convert.getIntValue( 8, data ) + " "
+                             + Convert.getIntValue( 12, data ) + " "
+                             + Convert.getIntValue( 16, data ) + " "
+                             + Convert.getIntValue( 20, data ) + "\n");
+          }
+          SystemDefs.JavabaseBM.unpinPage( pid, false );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Recover from a checkpoint with no dirty pages\n");
+      try {
+        SystemDefs.JavabaseBM.flushAllPages();
+        long ckpt = log.checkpoint();
+        RecoveryMgr rm = new RecoveryMgr( log, SystemDefs.JavabaseBM );
+        rm.recover();
+        if ( rm.getNumLosers() != 0 || rm.getNumUndone() != 0 ) {
+          status = FAIL;
+          System.err.print("*** Recovery undid " + rm.getNumUndone() + " updates of "
+                           + rm.getNumLosers() + " transactions a second time\n");
+        }
+        if ( status == OK && (rm.getRedoLSN() <= committed || rm.getRedoLSN() > ckpt
+                              || rm.getNumRedone() != 0) ) {
+          status = FAIL;
+          System.err.print("*** Redo started at " + rm.getRedoLSN() + " and redid "
+                           + rm.getNumRedone() + " changes for the checkpoint at "
+                           + ckpt + "\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    try {
+      if ( SystemDefs.JavabaseLog != null )
+        SystemDefs.JavabaseLog.close();
+    }
+    catch (IOException e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    SystemDefs.JavabaseLog = null;
+    SystemDefs.MINIBASE_LOGGING = false;
+    SystemDefs.MINIBASE_CHECKPOINT_INTERVAL = 64;
+    new File( dbpath + ".log" ).delete();
+
+    if ( status == OK )
+      System.out.print("  Test 20 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Test 21: checkpoints reclaim the log recovery no longer needs, so the
+   * log stays under its size limit however much is logged, and a crash
+   * after many times the limit was logged is still recovered from.
+   *
+   * @return whether test21 has passed
+   */
+  protected boolean test21 () {
+
+    System.out.print("\n  Test 21 reclaims log space:\n");
+
+    final int numPages = 2 * NUMBUF;
+    final int offset = 256;
+    final int len = 512;
+    boolean status = OK;
+
+    SystemDefs.MINIBASE_LOGGING = true;
+    SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, NUMBUF, "Clock" );
+    LogMgr log = SystemDefs.JavabaseLog;
+    final long limit = log.getMaxSize();
+    File logFile = new File( dbpath + ".log" );
+
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    byte [] expected = new byte[numPages];
+    Random rand = new Random(21);
+
+    try {
+      firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+      SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+      for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+            pid.pid = pid.pid + 1 ) {
+        SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+        Arrays.fill( pg.getpage(), (byte) 0 );
+        SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not set up " + numPages + " pages\n");
+      e.printStackTrace();
+      status = FAIL;
+    }
+    if ( status == OK && limit <= 0 ) {
+      status = FAIL;
+      System.err.print("*** The log has no size limit\n");
+    }
+
+    for (int crash = 0; status == OK && crash < 2; crash++) {
+      System.out.print("  - Log " + 3 * limit + " bytes, three times the limit\n");
+      try {
+        long goal = log.getEndLSN() + 3 * limit;
+        while ( status == OK && log.getEndLSN() < goal ) {
+          int txn = log.begin();
+          for (int i = 0; i < 4; i++) {
+            pid.pid = firstPid.pid + rand.nextInt( numPages );
+            byte [] after = new byte[len];
+            Arrays.fill( after, (byte) txn );
+            logBytes( log, txn, pid, offset, after );
+            expected[pid.pid - firstPid.pid] = (byte) txn;
+          }
+          log.commit( txn );
+          if ( logFile.length() > limit + MINIBASE_PAGESIZE ) {
+            status = FAIL;
+            System.err.print("*** The log takes " + logFile.length()
+                             + " bytes for a limit of " + limit + "\n");
+          }
+        }
+
+        System.out.print("  - Crash with a transaction in progress, and reopen\n");
+        int loser = log.begin();
+        for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + 8;
+              pid.pid = pid.pid + 1 ) {
+          byte [] after = new byte[len];
+          Arrays.fill( after, (byte) 0x7f );
+          logBytes( log, loser, pid, offset, after );
+        }
+        pid.pid = firstPid.pid;
+        SystemDefs.JavabaseBM.flushPage( pid );
+
+        SystemDefs.JavabaseLog = null;
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        sysdef = new SystemDefs( dbpath, 0, NUMBUF, "Clock" );
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        log = SystemDefs.JavabaseLog;
+        if ( log.getMaxSize() != limit ) {
+          status = FAIL;
+          System.err.print("*** The log was reopened with a limit of "
+                           + log.getMaxSize() + ", not " + limit + "\n");
+        }
+
+        for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+              pid.pid = pid.pid + 1 ) {
+          SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+          byte [] data = pg.getpage();
+          for (int i = offset; i < offset + len; i++) {
+            if ( data[i] != expected[pid.pid - firstPid.pid] ) {
+              status = FAIL;
+              System.err.print("*** Page " + pid.pid + " holds " + data[i]
+                               + " at " + i + ", not "
+                               + expected[pid.pid - firstPid.pid] + "\n");
+              break;
+            }
+          }
+          SystemDefs.JavabaseBM.unpinPage( pid, false );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - A transaction left open keeps its log until it is full\n");
+      try {
+        int open = log.begin();
+        pid.pid = firstPid.pid;
+        logBytes( log, open, pid, offset, new byte[len] );
+        boolean full = false;
+        for (long i = 0; !full && i < 2 * limit / len; i++) {
+          int txn = 0;
+          try {
+            txn = log.begin();
+            pid.pid = firstPid.pid + 1 + rand.nextInt( numPages - 1 );
+            byte [] after = new byte[len];
+            Arrays.fill( after, (byte) txn );
+            logBytes( log, txn, pid, offset, after );
+            log.commit( txn );
+          }
+          catch (LogFullException e) {
+            // As expected.
+            full = true;
+            if ( txn != 0 )
+              log.abort( txn );
+          }
+        }
+        if ( !full ) {
+          status = FAIL;
+          System.err.print("*** The log went past its limit\n");
+        }
+        log.abort( open );
+        int txn = log.begin();
+        logBytes( log, txn, pid, offset, new byte[len] );
+        log.commit( txn );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    try {
+      if ( SystemDefs.JavabaseLog != null )
+        SystemDefs.JavabaseLog.close();
+    }
+    catch (IOException e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    SystemDefs.JavabaseLog = null;
+    SystemDefs.MINIBASE_LOGGING = false;
+    logFile.delete();
+
+    if ( status == OK )
+      System.out.print("  Test 21 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Test 22: threads pin and unpin a few more pages than there are
+   * frames, so pages are often pinned again between being picked as a
+   * victim and being evicted.  Afterwards the replacer must hold exactly
+   * the unpinned frames, and every frame must still be usable.
+   *
+   * @return whether test22 has passed
+   */
+  protected boolean test22 () {
+
+    System.out.print("\n  Test 22 keeps the replacer in step with the pins:\n");
+
+    final int numThreads = 8;
+    final int numBufs = 16;
+    final int numPages = numBufs + 2;
+    final int numOps = 100000;
+    String [] policies = { "LRU", "Clock", "LRU-K", "2Q" };
+    boolean status = OK;
+
+    for (int i = 0; status == OK && i < policies.length; ++i) {
+      System.out.print("  - " + policies[i] + "\n");
+      SystemDefs sysdef = new SystemDefs( dbpath, numPages + 20, numBufs, policies[i] );
+
+      Page pg = new Page();
+      PageId pid = new PageId();
+      final PageId firstPid;
+      try {
+        firstPid = SystemDefs.JavabaseBM.newPage( pg, numPages );
+        SystemDefs.JavabaseBM.unpinPage( firstPid, false /*not dirty*/ );
+        for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+              pid.pid = pid.pid + 1 ) {
+          SystemDefs.JavabaseBM.pinPage( pid, pg, /*emptyPage:*/ true );
+          SystemDefs.JavabaseBM.unpinPage( pid, /*dirty:*/ true );
+        }
+      }
+      catch (Exception e) {
+        System.err.print("*** Could not set up " + numPages + " pages\n");
+        e.printStackTrace();
+        return FAIL;
+      }
+
+      final Exception [] errors = new Exception[numThreads];
+      Thread [] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; ++t) {
+        final int me = t;
+        threads[t] = new Thread(() -> {
+          Random rand = new Random(me);
+          Page page = new Page();
+          PageId a = new PageId();
+          try {
+            for (int op = 0; op < numOps; ++op) {
+              a.pid = firstPid.pid + rand.nextInt(numPages);
+              SystemDefs.JavabaseBM.pinPage( a, page, false );
+              SystemDefs.JavabaseBM.unpinPage( a, false );
+            }
+          }
+          catch (Exception e) {
+            errors[me] = e;
+          }
+        });
+        threads[t].start();
+      }
+      for (int t = 0; t < numThreads; ++t) {
+        try {
+          threads[t].join();
+        }
+        catch (InterruptedException e) {
+          status = FAIL;
+        }
+        if (errors[t] != null) {
+          status = FAIL;
+          System.err.print("*** Thread " + t + " failed\n");
+          errors[t].printStackTrace();
+        }
+      }
+
+      if ( status == OK && !SystemDefs.JavabaseBM.checkReplacer() ) {
+        status = FAIL;
+        System.err.print("*** The replacer is out of step with the pins\n");
+      }
+
+      // No frame was lost: all of them can hold a pinned page at once.
+      int pinned = 0;
+      try {
+        for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numBufs;
+              pid.pid = pid.pid + 1 ) {
+          SystemDefs.JavabaseBM.pinPage( pid, pg, false );
+          pinned++;
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could only pin " + pinned + " pages in "
+                         + numBufs + " frames\n");
+        e.printStackTrace();
+      }
+      try {
+        for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + pinned;
+              pid.pid = pid.pid + 1 ) {
+          SystemDefs.JavabaseBM.unpinPage( pid, false );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 22 completed successfully.\n");
+
+    return status;
   }
 
   /**
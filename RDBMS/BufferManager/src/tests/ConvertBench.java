@@ -0,0 +1,125 @@
+package tests;
+
+import java.io.*;
+import global.*;
+
+/**
+ * Benchmark of global.Convert against the stream-based codec it replaced,
+ * which is kept here for comparison.  Each round reads and writes every
+ * int, short and float field of a page, as header and record code does.
+ * <br>
+ * Run with: java -cp bin:lib/bufmgrAssign.jar tests.ConvertBench
+ */
+public class ConvertBench implements GlobalConst {
+
+  private static final int OPS = 1 << 22;
+  private static final int ROUNDS = 5;
+
+  public static void main (String argv[]) throws Exception {
+
+    byte[] data = new byte[MINIBASE_PAGESIZE];
+    int slots = MINIBASE_PAGESIZE / 4;
+
+    System.out.println ("codec     int get+set Mops/s   short get+set Mops/s   float get+set Mops/s");
+    for (int codec = 0; codec < 2; codec++) {
+      boolean streams = (codec == 0);
+      double ints = 0, shorts = 0, floats = 0;
+      long sink = 0;
+      for (int round = 0; round < ROUNDS; round++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+          int pos = (i % slots) * 4;
+          int v = streams ? StreamConvert.getIntValue(pos, data)
+                          : Convert.getIntValue(pos, data);
+          if (streams) {
+            StreamConvert.setIntValue(v + 1, pos, data);
+          } else {
+            Convert.setIntValue(v + 1, pos, data);
+          }
+          sink += v;
+        }
+        ints = Math.max(ints, mops(start));
+
+        start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+          int pos = (i % slots) * 4;
+          short v = streams ? StreamConvert.getShortValue(pos, data)
+                            : Convert.getShortValue(pos, data);
+          if (streams) {
+            StreamConvert.setShortValue((short) (v + 1), pos, data);
+          } else {
+            Convert.setShortValue((short) (v + 1), pos, data);
+          }
+          sink += v;
+        }
+        shorts = Math.max(shorts, mops(start));
+
+        start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+          int pos = (i % slots) * 4;
+          float v = streams ? StreamConvert.getFloValue(pos, data)
+                            : Convert.getFloValue(pos, data);
+          if (streams) {
+            StreamConvert.setFloValue(v + 1, pos, data);
+          } else {
+            Convert.setFloValue(v + 1, pos, data);
+          }
+          sink += (long) v;
+        }
+        floats = Math.max(floats, mops(start));
+      }
+      System.out.printf ("%-9s %-20.1f %-22.1f %.1f%n", streams ? "streams" : "Convert",
+                         ints, shorts, floats);
+      if (sink == 42) {
+        System.out.println ();
+      }
+    }
+  }
+
+  private static double mops (long start) {
+    return OPS / ((System.nanoTime() - start) / 1e3);
+  }
+
+  /**
+   * The codec Convert used to be: a stream and a temporary array for each
+   * field access.
+   */
+  private static class StreamConvert {
+
+    static int getIntValue (int position, byte []data) throws IOException {
+      byte tmp[] = new byte[4];
+      System.arraycopy (data, position, tmp, 0, 4);
+      return new DataInputStream(new ByteArrayInputStream(tmp)).readInt();
+    }
+
+    static short getShortValue (int position, byte []data) throws IOException {
+      byte tmp[] = new byte[2];
+      System.arraycopy (data, position, tmp, 0, 2);
+      return new DataInputStream(new ByteArrayInputStream(tmp)).readShort();
+    }
+
+    static float getFloValue (int position, byte []data) throws IOException {
+      byte tmp[] = new byte[4];
+      System.arraycopy (data, position, tmp, 0, 4);
+      return new DataInputStream(new ByteArrayInputStream(tmp)).readFloat();
+    }
+
+    static void setIntValue (int value, int position, byte []data) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new DataOutputStream(out).writeInt(value);
+      System.arraycopy (out.toByteArray(), 0, data, position, 4);
+    }
+
+    static void setShortValue (short value, int position, byte []data) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new DataOutputStream(out).writeShort(value);
+      System.arraycopy (out.toByteArray(), 0, data, position, 2);
+    }
+
+    static void setFloValue (float value, int position, byte []data) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new DataOutputStream(out).writeFloat(value);
+      System.arraycopy (out.toByteArray(), 0, data, position, 4);
+    }
+  }
+}
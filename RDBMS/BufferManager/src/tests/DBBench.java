@@ -0,0 +1,99 @@
+package tests;
+
+import java.io.File;
+import java.util.Random;
+import global.*;
+import diskmgr.DB;
+
+/**
+ * Benchmark of the two ways diskmgr.DB can reach the database file:
+ * positional FileChannel I/O, and a memory mapping, each with and without
+ * page checksums.  For each it writes
+ * every page of a 64MB database once, then times reading the pages in
+ * order, reading them at random and writing them at random, going to
+ * DB directly so the buffer pool does not hide the cost.  The file is in
+ * the page cache throughout, which is the case the mapping is meant for.
+ * <br>
+ * Run with: java -cp bin:lib/bufmgrAssign.jar tests.DBBench
+ */
+public class DBBench implements GlobalConst {
+
+  private static final int PAGES = 1 << 16;
+  private static final int OPS = 1 << 18;
+  private static final int ROUNDS = 5;
+
+  public static void main (String argv[]) throws Exception {
+
+    String dbpath = "/tmp/dbbench" + System.getProperty("user.name") + ".minibase-db";
+    System.out.println ("mode        seq read kpages/s   random read kpages/s   random write kpages/s");
+    benchmark("channel", false, false, dbpath);
+    benchmark("channel+crc", false, true, dbpath);
+    benchmark("mapped", true, false, dbpath);
+    benchmark("mapped+crc", true, true, dbpath);
+    new File(dbpath).delete();
+    new File(dbpath + ".crc").delete();
+  }
+
+  private static void benchmark (String mode, boolean mapped, boolean checksums,
+                                 String dbpath)
+    throws Exception {
+
+    SystemDefs.MINIBASE_MAPPED_DB = mapped;
+    SystemDefs.MINIBASE_CHECKSUMS = checksums;
+    SystemDefs sysdef = new SystemDefs( dbpath, PAGES, 64, "Clock" );
+    SystemDefs.MINIBASE_MAPPED_DB = false;
+    SystemDefs.MINIBASE_CHECKSUMS = false;
+    DB db = SystemDefs.JavabaseDB;
+
+    Page page = new Page();
+    PageId pid = new PageId();
+    for (pid.pid = 0; pid.pid < PAGES; pid.pid++) {
+      Convert.setIntValue(pid.pid, 0, page.getpage());
+      db.write_page(pid, page);
+    }
+    db.syncDB();
+
+    Random rand = new Random(448);
+    int[] random = new int[OPS];
+    for (int i = 0; i < OPS; i++) {
+      random[i] = rand.nextInt(PAGES);
+    }
+
+    double seq = 0, randRead = 0, randWrite = 0;
+    long sink = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < OPS; i++) {
+        pid.pid = i % PAGES;
+        db.read_page(pid, page);
+        sink += page.getpage()[3];
+      }
+      seq = Math.max(seq, kops(start));
+
+      start = System.nanoTime();
+      for (int i = 0; i < OPS; i++) {
+        pid.pid = random[i];
+        db.read_page(pid, page);
+        sink += page.getpage()[3];
+      }
+      randRead = Math.max(randRead, kops(start));
+
+      start = System.nanoTime();
+      for (int i = 0; i < OPS; i++) {
+        pid.pid = random[i];
+        db.write_page(pid, page);
+      }
+      randWrite = Math.max(randWrite, kops(start));
+    }
+    db.closeDB();
+
+    System.out.printf ("%-11s %-19.0f %-22.0f %.0f%n", mode, seq, randRead, randWrite);
+    if (sink == 42) {
+      System.out.println ();
+    }
+  }
+
+  private static double kops (long start) {
+    return OPS / ((System.nanoTime() - start) / 1e6);
+  }
+}
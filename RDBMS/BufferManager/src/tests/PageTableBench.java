@@ -0,0 +1,78 @@
+package tests;
+
+import java.util.*;
+import bufmgr.PageTable;
+
+/**
+ * Microbenchmark for the buffer manager's page table.  For pools of 1K,
+ * 64K and 1M frames it fills a PageTable and a HashMap with the same
+ * page-to-frame mapping and measures lookups per second, half of them
+ * hits and half misses, in the order a mix of random pins would see.
+ * <br>
+ * Run with: java -cp lib/bufmgrAssign.jar:bin tests.PageTableBench
+ */
+public class PageTableBench {
+
+  private static final int[] POOL_SIZES = { 1 << 10, 1 << 16, 1 << 20 };
+  private static final int LOOKUPS = 1 << 24;
+  private static final int ROUNDS = 5;
+
+  public static void main (String argv[]) {
+
+    System.out.println ("frames      PageTable Mops/s   HashMap Mops/s");
+    for (int numbufs : POOL_SIZES) {
+      benchmark(numbufs);
+    }
+  }
+
+  private static void benchmark (int numbufs) {
+
+    Random rand = new Random(448);
+
+    // Resident pages are scattered over a database four times the pool.
+    int[] resident = new int[numbufs];
+    PageTable table = new PageTable(numbufs);
+    HashMap<Integer, Integer> map = new HashMap<>(numbufs * 2);
+    for (int frameNo = 0; frameNo < numbufs; frameNo++) {
+      int pageNo;
+      do {
+        pageNo = rand.nextInt(numbufs * 4);
+      } while (table.get(pageNo) != PageTable.NOT_FOUND);
+      resident[frameNo] = pageNo;
+      table.put(pageNo, frameNo);
+      map.put(pageNo, frameNo);
+    }
+
+    int[] probes = new int[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      probes[i] = (i % 2 == 0) ? resident[rand.nextInt(numbufs)]
+                               : numbufs * 4 + rand.nextInt(numbufs * 4);
+    }
+
+    double best = 0, bestMap = 0;
+    long sink = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        sink += table.get(probes[i]);
+      }
+      best = Math.max(best, mops(start));
+
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        Integer frameNo = map.get(probes[i]);
+        sink += (frameNo == null) ? PageTable.NOT_FOUND : frameNo;
+      }
+      bestMap = Math.max(bestMap, mops(start));
+    }
+
+    System.out.printf ("%-11d %-18.1f %.1f%n", numbufs, best, bestMap);
+    if (sink == 42) {
+      System.out.println ();
+    }
+  }
+
+  private static double mops (long start) {
+    return LOOKUPS / ((System.nanoTime() - start) / 1e3);
+  }
+}
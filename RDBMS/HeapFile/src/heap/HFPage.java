@@ -19,6 +19,11 @@ class HFPage extends Page {
     protected static final int CUR_PAGE = 16;
     protected static final int HEADER_SIZE = 20;
     protected static final int SLOT_SIZE = 4;
+    /**
+     * Largest page a heap page can be.  The header keeps offsets and free
+     * space in shorts, which hold no page of 32KB or more.
+     */
+    protected static final int MAX_PAGE_SIZE = 16384;
 
     public HFPage() {
         this.initDefaults();
@@ -26,12 +31,21 @@ class HFPage extends Page {
 
     public HFPage(Page page) {
         super(page.getData());
+        checkPageSize(page.getData().length);
+    }
+
+    protected static void checkPageSize(int size) {
+        if (size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Heap pages can be at most " + MAX_PAGE_SIZE
+                                               + " bytes, not " + size);
+        }
     }
 
     protected void initDefaults() {
+        checkPageSize(this.data.length);
         this.setShortValue((short)0, 0);
-        this.setShortValue((short)1024, 2);
-        this.setShortValue((short)1004, 4);
+        this.setShortValue((short)this.data.length, 2);
+        this.setShortValue((short)(this.data.length - HEADER_SIZE), 4);
         this.setShortValue((short)0, 6);
         this.setIntValue(-1, 8);
         this.setIntValue(-1, 12);
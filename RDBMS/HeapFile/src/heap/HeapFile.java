@@ -15,6 +15,12 @@ import java.util.Comparator;
  */
 public class HeapFile implements GlobalConst {
 
+  /** Pages allocated at a time, unless the file is opened with another size. */
+  public static final int DEFAULT_EXTENT = 8;
+
+  /** Most pages allocated at a time. */
+  public static final int MAX_EXTENT = 64;
+
   private String fName; 
   protected int fStatus;  
   protected int numRec; 
@@ -22,14 +28,39 @@ public class HeapFile implements GlobalConst {
   protected ArrayList<PageId> pages;
   protected ArrayList<Integer> pids;  
 
+  /**
+   * Pages are allocated in extents of contiguous pages, so that a scan reads
+   * runs of neighbouring pages.  The pages of the current extent not holding
+   * records yet are kept in spare; they are already linked at the end of the
+   * page chain, so they stay with the file when it is reopened or deleted.
+   */
+  protected int extentSize;
+  protected ArrayList<PageId> spare;
+  protected PageId tail;
+
   /**
    * If the given name already denotes a file, this opens it; otherwise, this
    * creates a new empty file. A null name produces a temporary heap file which
    * requires no DB entry.
    */
   public HeapFile(String name) {
+      this(name, DEFAULT_EXTENT);
+  }
+
+  /**
+   * As HeapFile(name), with the file growing by extentSize pages at a time.
+   * 
+   * @throws IllegalArgumentException if extentSize is not 1 to MAX_EXTENT
+   */
+  public HeapFile(String name, int extentSize) {
       //PUT YOUR CODE HERE
+      if (extentSize < 1 || extentSize > MAX_EXTENT) {
+        throw new IllegalArgumentException("Extent size must be 1 to "
+                                           + MAX_EXTENT + ": " + extentSize);
+      }
       this.fName = name;
+      this.extentSize = extentSize;
+      this.spare = new ArrayList<>();
       this.fStatus = 0;
       this.numRec = 0;
       this.pages = new ArrayList<>();
@@ -58,6 +89,7 @@ public class HeapFile implements GlobalConst {
     curr.initDefaults();
     curr.setCurPage(first);
     Minibase.BufferManager.unpinPage(first, UNPIN_DIRTY);
+    tail = first;
     return first;
   }
 
@@ -74,18 +106,32 @@ public class HeapFile implements GlobalConst {
       numRec++;
       record = curr.nextRecord(record);
     }
+    tail = first;
     PageId np = curr.getNextPage();
     while (np.pid > 0) {
       HFPage nextHFP = new HFPage();
       Minibase.BufferManager.pinPage(np, nextHFP, PIN_DISKIO);
-      pids.add(np.pid);
-      pages.add(np);
       record = nextHFP.firstRecord();
+      if (record == null) {
+        // Empty pages at the end of the chain are what is left of the last
+        // extent; hand them out before allocating another.
+        spare.add(np);
+      } else {
+        // An empty page with records after it is an ordinary page.
+        for (PageId sp : spare) {
+          pids.add(sp.pid);
+          pages.add(sp);
+        }
+        spare.clear();
+        pids.add(np.pid);
+        pages.add(np);
+      }
       while (record != null) {
         numRec++;
         record = nextHFP.nextRecord(record);
       }
       Minibase.BufferManager.unpinPage(np, UNPIN_CLEAN);
+      tail = np;
       np = nextHFP.getNextPage();
     }
   }
@@ -97,6 +143,7 @@ public class HeapFile implements GlobalConst {
     curr = new HFPage(newP);
     curr.setCurPage(temp);
     Minibase.BufferManager.unpinPage(temp, UNPIN_DIRTY);
+    tail = temp;
   }
 
   /**
@@ -116,14 +163,20 @@ public class HeapFile implements GlobalConst {
   public void deleteFile() {
     //PUT YOUR CODE HERE
     if (fStatus == 0) {
+      // Free the pages through the buffer manager, so none is left in the
+      // pool under a page id the disk may hand out again.
       for (PageId i : pages) {
-        Minibase.DiskManager.deallocate_page(i);
+        Minibase.BufferManager.freePage(i);
+      }
+      for (PageId i : spare) {
+        Minibase.BufferManager.freePage(i);
       }
       Minibase.DiskManager.delete_file_entry(fName);
       fStatus = 1;
       numRec = 0;
       pids.clear();
       pages.clear();
+      spare.clear();
     }
   }
 
@@ -134,12 +187,14 @@ public class HeapFile implements GlobalConst {
    */
   public RID insertRecord(byte[] record) throws Exception {
     //PUT YOUR CODE HERE
-    if (HFPage.HEADER_SIZE + record.length > 1024) {
-      throw new SpaceNotAvailableException("Too big of a record!");
-    }
     Page cp = new Page();
     PageId target = pages.get(pages.size() - 1);
     Minibase.BufferManager.pinPage(target, cp, PIN_DISKIO);
+    // The page size is the database's, not the compiled-in default.
+    if (HFPage.HEADER_SIZE + record.length > cp.getData().length) {
+      Minibase.BufferManager.unpinPage(target, UNPIN_CLEAN);
+      throw new SpaceNotAvailableException("Too big of a record!");
+    }
     HFPage ch = new HFPage(cp);
     ch.setCurPage(target);
     if (record.length >= ch.getFreeSpace()) {
@@ -153,13 +208,13 @@ public class HeapFile implements GlobalConst {
   }
 
   private RID createInsertPage(byte[] record) throws Exception {
+    if (spare.isEmpty()) {
+      allocateExtent();
+    }
     Page page = new Page();
-    PageId newPid = Minibase.BufferManager.newPage(page, 1);
+    PageId newPid = spare.remove(0);
+    Minibase.BufferManager.pinPage(newPid, page, PIN_DISKIO);
     HFPage newHFP = new HFPage(page);
-    curr.setNextPage(newPid);
-    newHFP.initDefaults();
-    newHFP.setCurPage(newPid);
-    newHFP.setPrevPage(curr.getCurPage());
     RID rec = newHFP.insertRecord(record);
     numRec++;
     pids.add(newPid.pid);
@@ -170,6 +225,66 @@ public class HeapFile implements GlobalConst {
     return rec;
   }
 
+  /**
+   * Allocates the next extent and links its pages, empty, at the end of the
+   * page chain.  If the disk has no run of extentSize free pages, this makes
+   * do with a shorter one.
+   */
+  private void allocateExtent() {
+    int n = extentSize;
+    PageId first = allocateRun(n);
+    while (first == null && n > 1) {
+      n = n / 2;
+      first = allocateRun(n);
+    }
+    if (first == null) {
+      throw new IllegalStateException("No free page left for " + fName);
+    }
+    // The pages are new, so there is nothing to read for them: each is
+    // pinned from a fresh page of zeros instead.
+    for (int i = 0; i < n; i++) {
+      PageId pid = new PageId(first.pid + i);
+      Page page = new Page();
+      try {
+        Minibase.BufferManager.pinPage(pid, page, PIN_MEMCPY);
+      } catch (RuntimeException e) {
+        // Only the first pin can find the pool full, as each page is
+        // unpinned before the next is pinned.
+        Minibase.DiskManager.deallocate_page(first, n);
+        throw e;
+      }
+      HFPage hfp = new HFPage(page);
+      hfp.initDefaults();
+      hfp.setCurPage(pid);
+      hfp.setPrevPage(i == 0 ? tail : new PageId(pid.pid - 1));
+      if (i < n - 1) {
+        hfp.setNextPage(new PageId(pid.pid + 1));
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      spare.add(pid);
+    }
+    HFPage last = new HFPage();
+    Minibase.BufferManager.pinPage(tail, last, PIN_DISKIO);
+    last.setNextPage(first);
+    Minibase.BufferManager.unpinPage(tail, UNPIN_DIRTY);
+    tail = new PageId(first.pid + n - 1);
+  }
+
+  /**
+   * Allocates a run of n consecutive pages on disk, without pinning any.
+   * 
+   * @return the first page of the run, or null if the disk has no run of n
+   * free pages; the disk manager tells so by an IllegalStateException,
+   * which allocate_page throws for nothing else
+   */
+  private static PageId allocateRun(int n) {
+    try {
+      return Minibase.DiskManager.allocate_page(n);
+    } catch (IllegalStateException e) {
+      return null;
+    }
+  }
+
   /**
    * Reads a record from the file, given its id.
    * 
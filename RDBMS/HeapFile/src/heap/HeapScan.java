@@ -44,6 +44,10 @@ public class HeapScan implements GlobalConst {
    */
   public void close() throws ChainException {
     //PUT YOUR CODE HERE
+    if (hfp != null) {
+      // The scan still holds the page it was on.
+      Minibase.BufferManager.unpinPage(hfp.getCurPage(), false);
+    }
     pidIter = null;
     hfp = null;
     rec = null;
@@ -66,27 +70,25 @@ public class HeapScan implements GlobalConst {
    */
   public Tuple getNext(RID rid) {
     //PUT YOUR CODE HERE
-    if(rec != null)
+    while(hfp != null)
       {
-        rid.copyRID(rec);
-        byte[] records = hfp.selectRecord(rid);
-        Tuple tup = new Tuple(records, 0, records.length);
-        rec = hfp.nextRecord(rec);
-        return tup;
-      }
-      Minibase.BufferManager.unpinPage(hfp.getCurPage(), false);
-      if(pidIter.hasNext() == true) {
-        Minibase.BufferManager.pinPage(pidIter.next(), hfp, false);  
-        rec = hfp.firstRecord();
-        if(rec != null) {
-          rid.copyRID(rec);
-          byte[] records = hfp.selectRecord(rid);
-          Tuple tup = new Tuple(records, 0, records.length);
-          rec = hfp.nextRecord(rec);
-          return tup; 
+        if(rec != null)
+          {
+            rid.copyRID(rec);
+            byte[] records = hfp.selectRecord(rid);
+            Tuple tup = new Tuple(records, 0, records.length);
+            rec = hfp.nextRecord(rec);
+            return tup;
+          }
+        // Done with this page; unpin it before moving to the next one, and
+        // skip pages with no records.
+        Minibase.BufferManager.unpinPage(hfp.getCurPage(), false);
+        if(pidIter.hasNext() == false) {
+          hfp = null;
+          return null;
         }
-        Minibase.BufferManager.unpinPage(pidIter.next(), false); 
-        return null;
+        Minibase.BufferManager.pinPage(pidIter.next(), hfp, false);
+        rec = hfp.firstRecord();
       }
       return null;
   }
@@ -3,12 +3,14 @@ package tests;
 import global.Convert;
 import global.GlobalConst;
 import global.Minibase;
+import global.PageId;
 import global.RID;
 import heap.HeapFile;
 import heap.HeapScan;
 import heap.Tuple;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 import chainexception.ChainException;
 
@@ -785,6 +787,257 @@ class HFDriver extends TestDriver implements GlobalConst
 		return true;
 	}
 
+	protected boolean test7 () {
+
+		System.out.println ("\n  Test 7: Scans release their pages\n");
+		boolean status = OK;
+		HeapFile f = null;
+		RID [] rids = new RID[choice];
+		int unpinned = Minibase.BufferManager.getNumUnpinned();
+
+		System.out.println ("  - Create a heap file with an empty page\n");
+		try {
+			f = new HeapFile("file_7");
+			for (int i = 0; i < choice; i++) {
+				DummyRecord rec = new DummyRecord(reclen);
+				rec.ival = i;
+				rec.fval = (float) (i*2.5);
+				rec.name = "record" + i;
+				rids[i] = f.insertRecord(rec.toByteArray());
+			}
+			// Empty the page holding the middle record.
+			int emptied = rids[choice / 2].pageno.pid;
+			for (int i = 0; i < choice; i++) {
+				if (rids[i].pageno.pid == emptied) {
+					f.deleteRecord(rids[i]);
+					rids[i] = null;
+				}
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.println ("*** Could not set up the heap file\n");
+			e.printStackTrace();
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Close a scan part of the way through\n");
+			try {
+				HeapScan scan = f.openScan();
+				RID rid = new RID();
+				for (int i = 0; i < choice / 4; i++) {
+					if (scan.getNext(rid) == null) {
+						status = FAIL;
+						System.err.println ("*** The scan ended after " + i + " records\n");
+						break;
+					}
+				}
+				scan.close();
+				scan = f.openScan();
+				scan.close();
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+			if ( status == OK && Minibase.BufferManager.getNumUnpinned() != unpinned ) {
+				System.err.println ("*** A closed scan has left pages pinned\n");
+				status = FAIL;
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Scan the whole file, past the empty page\n");
+			int left = 0;
+			for (int i = 0; i < choice; i++) {
+				if (rids[i] != null)
+					left++;
+			}
+			try {
+				HeapScan scan = f.openScan();
+				RID rid = new RID();
+				int n = 0;
+				while (scan.getNext(rid) != null) {
+					n++;
+				}
+				if (n != left) {
+					status = FAIL;
+					System.err.println ("*** Scanned " + n + " records instead of "
+							+ left + "\n");
+				}
+				scan.close();
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+			if ( status == OK && Minibase.BufferManager.getNumUnpinned() != unpinned ) {
+				System.err.println ("*** A finished scan has left pages pinned\n");
+				status = FAIL;
+			}
+		}
+
+		if ( f != null )
+			f.deleteFile();
+
+		if ( status == OK )
+			System.out.println ("  Test 7 completed successfully.\n");
+		return status;
+	}
+
+	/** Insert a record numbered i into a heap file. */
+	protected RID insert (HeapFile f, int i) throws Exception {
+		DummyRecord rec = new DummyRecord(reclen);
+		rec.ival = i;
+		rec.fval = (float) (i*2.5);
+		rec.name = "record" + i;
+		return f.insertRecord(rec.toByteArray());
+	}
+
+	protected boolean test8 () {
+
+		System.out.println ("\n  Test 8: Allocate pages in extents\n");
+		boolean status = OK;
+		HeapFile f = null;
+		int allocated = Minibase.DiskManager.getAllocCount();
+		int firstExtent = INVALID_PAGEID;
+		int lastUsed = INVALID_PAGEID;
+
+		System.out.println ("  - Grow a file by extents of 4 pages\n");
+		try {
+			f = new HeapFile("file_8", 4);
+			PageId first = Minibase.DiskManager.get_file_entry("file_8");
+			ArrayList<Integer> used = new ArrayList<Integer>();
+			for (int i = 0; i < choice; i++) {
+				RID rid = insert(f, i);
+				if (rid.pageno.pid != first.pid && !used.contains(rid.pageno.pid))
+					used.add(rid.pageno.pid);
+			}
+			// The records past the first page are on the first pages of one
+			// extent, in order; the rest of the extent is spare.
+			firstExtent = used.get(0);
+			lastUsed = used.get(used.size() - 1);
+			for (int i = 0; i < used.size(); i++) {
+				if (used.get(i) != firstExtent + i) {
+					status = FAIL;
+					System.err.println ("*** Pages " + used + " are not the start of an extent\n");
+					break;
+				}
+			}
+			if ( status == OK && (used.size() >= 4
+					|| Minibase.DiskManager.getAllocCount() != allocated + 1 + 4) ) {
+				status = FAIL;
+				System.err.println ("*** " + (Minibase.DiskManager.getAllocCount() - allocated)
+						+ " pages allocated for " + (used.size() + 1) + " used\n");
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Reopen the file and fill its spare pages\n");
+			try {
+				f = new HeapFile("file_8", 4);
+				if (f.getRecCnt() != choice) {
+					status = FAIL;
+					System.err.println ("*** The reopened file has " + f.getRecCnt()
+							+ " records, not " + choice + "\n");
+				}
+				// The last page used is filled, then the spare one, before
+				// another extent is allocated.
+				ArrayList<Integer> filled = new ArrayList<Integer>();
+				for (int i = choice; i < 2 * choice; i++) {
+					RID rid = insert(f, i);
+					if (Minibase.DiskManager.getAllocCount() != allocated + 1 + 4)
+						break;
+					if (!filled.contains(rid.pageno.pid))
+						filled.add(rid.pageno.pid);
+				}
+				if ( !filled.contains(lastUsed) || !filled.contains(firstExtent + 3) ) {
+					status = FAIL;
+					System.err.println ("*** Pages " + filled + " were used before allocating "
+							+ "another extent, not " + lastUsed + " to " + (firstExtent + 3) + "\n");
+				}
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Delete the file\n");
+			f.deleteFile();
+			if ( Minibase.DiskManager.getAllocCount() != allocated ) {
+				status = FAIL;
+				System.err.println ("*** Deleting the file left "
+						+ (Minibase.DiskManager.getAllocCount() - allocated)
+						+ " pages allocated\n");
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Grow a file on a nearly full disk\n");
+			// Take all the free pages, then give back a run of three.
+			ArrayList<PageId> runs = new ArrayList<PageId>();
+			ArrayList<Integer> sizes = new ArrayList<Integer>();
+			PageId hole = null;
+			try {
+				for (int size = 1024; size > 0; size = size / 2) {
+					while (true) {
+						try {
+							runs.add(Minibase.DiskManager.allocate_page(size));
+							sizes.add(size);
+						}
+						catch (IllegalStateException e) {
+							// As expected.
+							break;
+						}
+					}
+				}
+				int r = sizes.indexOf(4);
+				if (r < 0)
+					r = sizes.indexOf(8);
+				hole = runs.get(r);
+				Minibase.DiskManager.deallocate_page(hole, 3);
+				runs.set(r, new PageId(hole.pid + 3));
+				sizes.set(r, sizes.get(r) - 3);
+
+				int full = Minibase.DiskManager.getAllocCount();
+				f = new HeapFile("file_8", 8);
+				RID rid = null;
+				for (int i = 0; i < choice / 2; i++)
+					rid = insert(f, i);
+				if ( Minibase.DiskManager.getAllocCount() != full + 3
+						|| rid.pageno.pid != hole.pid + 1 ) {
+					status = FAIL;
+					System.err.println ("*** The file did not grow into the 3 free pages at "
+							+ hole.pid + "\n");
+				}
+				f.deleteFile();
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+			for (int i = 0; i < runs.size(); i++) {
+				if (sizes.get(i) > 0)
+					Minibase.DiskManager.deallocate_page(runs.get(i), sizes.get(i));
+			}
+			if ( status == OK && Minibase.DiskManager.getAllocCount() != allocated ) {
+				status = FAIL;
+				System.err.println ("*** " + (Minibase.DiskManager.getAllocCount() - allocated)
+						+ " pages were not freed\n");
+			}
+		}
+
+		if ( status == OK )
+			System.out.println ("  Test 8 completed successfully.\n");
+		return status;
+	}
+
 	protected boolean runAllTests (){
 
 		boolean _passAll = OK;
@@ -795,6 +1048,8 @@ class HFDriver extends TestDriver implements GlobalConst
 		if (!test4()) { _passAll = FAIL; }
 		if (!test5()) { _passAll = FAIL; }
 		if (!test6()) { _passAll = FAIL; }
+		if (!test7()) { _passAll = FAIL; }
+		if (!test8()) { _passAll = FAIL; }
 
 		return _passAll;
 	}